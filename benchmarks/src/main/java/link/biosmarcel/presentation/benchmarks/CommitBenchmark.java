@@ -0,0 +1,77 @@
+package link.biosmarcel.presentation.benchmarks;
+
+import link.biosmarcel.presentation.persistence.model.Note;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Kosten eines Commits bzw. Rollbacks in Abhängigkeit der Anzahl geänderter Objekte. Jede Iteration benennt
+ * {@link #dirtyObjects} Notizen um, beim Commit werden diese gespeichert, beim Rollback aus den im Speicher gehaltenen
+ * Abbildern wiederhergestellt.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class CommitBenchmark {
+    @Param({"1", "10", "100", "1000"})
+    public int dirtyObjects;
+
+    private List<Note> notes;
+    private long revision;
+
+    @Setup(Level.Trial)
+    public void setUp(final StorageFixture fixture) {
+        if (dirtyObjects > fixture.initialNotes) {
+            throw new IllegalArgumentException("dirtyObjects must not exceed initialNotes");
+        }
+        notes = fixture.storage.readReturn(_ -> List.copyOf(fixture.user.notes().subList(0, dirtyObjects)));
+    }
+
+    @Benchmark
+    public void commit(final StorageFixture fixture) {
+        final var name = "Note " + revision++;
+        fixture.storage.write((_, _) -> {
+            for (final var note : notes) {
+                note.setName(name);
+            }
+        });
+    }
+
+    @Benchmark
+    public boolean rollback(final StorageFixture fixture) {
+        try {
+            fixture.storage.write((_, _) -> {
+                for (final var note : notes) {
+                    note.setName("Rolled back");
+                }
+                throw new RollbackException();
+            });
+            return false;
+        } catch (final RollbackException _) {
+            return true;
+        }
+    }
+
+    private static final class RollbackException extends RuntimeException {
+        private RollbackException() {
+            // Ohne Stacktrace, damit nur der Rollback gemessen wird.
+            super(null, null, false, false);
+        }
+    }
+}
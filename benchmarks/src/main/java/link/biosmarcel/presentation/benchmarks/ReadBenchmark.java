@@ -0,0 +1,41 @@
+package link.biosmarcel.presentation.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durchsatz von {@code readReturn}. Die Anzahl der parallelen Leser wird über {@code -t} gesteuert, standardmäßig
+ * werden alle Kerne verwendet. Gemessen wird sowohl ein Index-Lookup, bei dem das Locking dominiert, als auch das
+ * Ablaufen aller Notizen eines Benutzers.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@Threads(Threads.MAX)
+public class ReadBenchmark {
+    @Benchmark
+    public Object findUserByName(final StorageFixture fixture) {
+        return fixture.storage.readReturn(storageRoot -> storageRoot.findUserByName("benchmark"));
+    }
+
+    @Benchmark
+    public int iterateNotes(final StorageFixture fixture) {
+        return fixture.storage.readReturn(_ -> {
+            int length = 0;
+            for (final var note : fixture.user.notes()) {
+                length += note.getName().length();
+            }
+            return length;
+        });
+    }
+}
@@ -0,0 +1,94 @@
+package link.biosmarcel.presentation.benchmarks;
+
+import link.biosmarcel.presentation.Service;
+import link.biosmarcel.presentation.persistence.StorageImpl;
+import link.biosmarcel.presentation.persistence.model.Note;
+import link.biosmarcel.presentation.persistence.model.Permissions;
+import link.biosmarcel.presentation.persistence.model.User;
+import org.eclipse.store.afs.nio.types.NioFileSystem;
+import org.eclipse.store.storage.embedded.types.EmbeddedStorageFoundation;
+import org.eclipse.store.storage.types.StorageConfiguration;
+import org.eclipse.store.storage.types.StorageLiveFileProvider;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Ein Storage in einem temporären Verzeichnis mit einem Benutzer und {@link #initialNotes} Notizen. Wird pro Trial neu
+ * angelegt, damit die Benchmarks sich nicht gegenseitig beeinflussen.
+ */
+@State(Scope.Benchmark)
+public class StorageFixture {
+    @Param({"1000"})
+    public int initialNotes;
+
+    public Path directory;
+    public StorageImpl storage;
+    public Service service;
+    public User user;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("presentation-benchmark");
+        final var manager = EmbeddedStorageFoundation
+                .New()
+                .setConfiguration(
+                        StorageConfiguration
+                                .Builder()
+                                .setStorageFileProvider(StorageLiveFileProvider.New(
+                                        NioFileSystem.New().ensureDirectoryPath(directory.toString())
+                                ))
+                                .createConfiguration()
+                )
+                .createEmbeddedStorageManager();
+        storage = new StorageImpl(manager, aggregateStripes());
+        service = new Service(storage);
+
+        user = storage.writeReturn((storageRoot, _) -> {
+            final var user = new User("benchmark", "password", Permissions.ADMIN);
+            storageRoot.addUser(user);
+            for (int i = 0; i < initialNotes; i++) {
+                final var note = new Note(user);
+                user.addNote(note);
+                note.setName("Note " + i);
+                note.setDate(LocalDate.now().minusDays(i));
+                note.setContent("Content " + i);
+            }
+            return user;
+        });
+    }
+
+    /**
+     * Anzahl der Aggregat-Locks des Storage, z.B. für {@link StripedReadBenchmark}.
+     */
+    protected int aggregateStripes() {
+        return StorageImpl.DEFAULT_AGGREGATE_STRIPES;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        storage.destroy();
+        try (final Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> {
+                try {
+                    Files.delete(file);
+                } catch (final IOException exception) {
+                    throw new UncheckedIOException(exception);
+                }
+            });
+        } catch (final IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package link.biosmarcel.presentation.benchmarks;
+
+import link.biosmarcel.presentation.persistence.model.Permissions;
+import link.biosmarcel.presentation.persistence.model.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durchsatz von {@code readReturn} abhängig von der Anzahl der Aggregat-Locks, da jeder Read alle davon nimmt. Mit
+ * einem Stripe entspricht das Locking bis auf einen zusätzlichen Read-Lock dem Stand vor den Aggregat-Writern. Gemessen
+ * wird ein Index-Lookup ohne Writer, bei dem das Locking dominiert, und derselbe Lookup, während Aggregat-Writer auf
+ * verschiedenen Benutzern Notizen einfügen.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class StripedReadBenchmark {
+    @State(Scope.Benchmark)
+    public static class StripedFixture extends StorageFixture {
+        @Param({"1", "4", "16"})
+        public int stripes;
+
+        @Override
+        protected int aggregateStripes() {
+            return stripes;
+        }
+    }
+
+    /**
+     * Jeder Writer-Thread schreibt in das Aggregat seines eigenen Benutzers, damit sich die Writer überlappen.
+     */
+    @State(Scope.Thread)
+    public static class WriterUser {
+        public User user;
+
+        @Setup
+        public void setUp(final StripedFixture fixture) {
+            user = fixture.storage.writeReturn((storageRoot, _) -> {
+                final var user = new User("writer-" + UUID.randomUUID(), "password", Permissions.WRITE);
+                storageRoot.addUser(user);
+                return user;
+            });
+        }
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Object findUserByName(final StripedFixture fixture) {
+        return fixture.storage.readReturn(storageRoot -> storageRoot.findUserByName("benchmark"));
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(4)
+    public Object contendedFindUserByName(final StripedFixture fixture) {
+        return fixture.storage.readReturn(storageRoot -> storageRoot.findUserByName("benchmark"));
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(2)
+    public void contendedInsertNote(final StripedFixture fixture, final WriterUser writer) {
+        fixture.service.insertNote(writer.user, "Benchmark", "Benchmark content");
+    }
+}
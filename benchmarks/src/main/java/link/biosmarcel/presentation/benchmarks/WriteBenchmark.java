@@ -0,0 +1,27 @@
+package link.biosmarcel.presentation.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latenz von {@code Service.insertNote}, inklusive Persistieren. Als Sample-Time gemessen, damit auch die Perzentile
+ * ausgegeben werden. Mit {@code -t} lässt sich beobachten, wie sich der Group-Commit bei parallelen Writern verhält.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class WriteBenchmark {
+    @Benchmark
+    public void insertNote(final StorageFixture fixture) {
+        fixture.service.insertNote(fixture.user, "Benchmark", "Benchmark content");
+    }
+}
@@ -0,0 +1,164 @@
+package link.biosmarcel.presentation;
+
+import link.biosmarcel.presentation.persistence.StorageAccess;
+import link.biosmarcel.presentation.persistence.StorageRoot;
+import link.biosmarcel.presentation.persistence.model.Note;
+import link.biosmarcel.presentation.persistence.model.User;
+import org.eclipse.jdt.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * Exportiert alle Notizen aller Benutzer als NDJSON, sprich ein JSON-Objekt pro Zeile:
+ * {@snippet :
+ * {"userId":"…","userName":"…","id":"…","name":"…","date":"2024-01-31","content":"…"}
+ * }
+ * Die Notizen werden seitenweise gelesen, die Inhalte pro Seite in einem Durchgang geladen und danach wieder entladen.
+ * Der Speicherbedarf hängt somit nur von der Seitengröße ab, nicht von der Anzahl der Notizen.
+ *
+ * <p>Wird der Lock zwischen den Seiten freigegeben, blockiert der Export Writer höchstens für die Dauer einer Seite.
+ * Dafür ist der Export dann kein konsistenter Stand: Die Position wird über Indizes gemerkt, werden zwischenzeitlich
+ * Benutzer oder Notizen entfernt bzw. eingefügt, können Notizen fehlen oder doppelt exportiert werden.
+ */
+public final class NoteExporter {
+    public static final int DEFAULT_PAGE_SIZE = 1_000;
+
+    private final StorageAccess storageAccess;
+    private final int pageSize;
+    private final boolean releaseLockBetweenPages;
+
+    public NoteExporter(final StorageAccess storageAccess) {
+        this(storageAccess, DEFAULT_PAGE_SIZE, true);
+    }
+
+    /**
+     * @param pageSize Anzahl der Notizen, die gemeinsam geladen und geschrieben werden
+     * @param releaseLockBetweenPages {@code false} für einen konsistenten Export unter einem einzigen Read-Lock
+     */
+    public NoteExporter(final StorageAccess storageAccess, final int pageSize, final boolean releaseLockBetweenPages) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Die Seitengröße muss positiv sein: " + pageSize);
+        }
+        this.storageAccess = storageAccess;
+        this.pageSize = pageSize;
+        this.releaseLockBetweenPages = releaseLockBetweenPages;
+    }
+
+    /**
+     * @return Anzahl der exportierten Notizen
+     */
+    public long exportTo(final Writer out) throws IOException {
+        final long exported;
+        try {
+            // Ohne Freigabe laufen die Seiten als geschachtelte Reads innerhalb eines einzigen Reads.
+            exported = releaseLockBetweenPages
+                    ? exportPages(out)
+                    : storageAccess.readReturn(_ -> exportPages(out));
+        } catch (final UncheckedIOException exception) {
+            throw exception.getCause();
+        }
+        out.flush();
+        return exported;
+    }
+
+    private long exportPages(final Writer out) {
+        long exported = 0;
+        var cursor = new Cursor(0, 0);
+        final var page = new StringBuilder();
+        while (true) {
+            page.setLength(0);
+            final var current = cursor;
+            final @Nullable Cursor next = storageAccess.readReturn(root -> readPage(root, current, page));
+            if (next == null) {
+                break;
+            }
+
+            // Geschrieben wird außerhalb des Locks, sofern dieser zwischen den Seiten freigegeben wird.
+            try {
+                out.append(page);
+            } catch (final IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+            exported += next.exported();
+            cursor = next;
+        }
+        return exported;
+    }
+
+    /**
+     * Liest ab dem Cursor bis zu {@link #pageSize} Notizen eines Benutzers in den Buffer.
+     *
+     * @return der Cursor für die nächste Seite, oder {@code null} falls alle Benutzer exportiert sind
+     */
+    private @Nullable Cursor readPage(final StorageRoot root, final Cursor cursor, final StringBuilder page) {
+        int userIndex = cursor.userIndex();
+        int noteIndex = cursor.noteIndex();
+        final var users = root.users();
+        // Benutzer ohne (weitere) Notizen überspringen wir direkt, statt dafür jeweils eine leere Seite zu lesen.
+        while (userIndex < users.size() && noteIndex >= users.get(userIndex).notes().size()) {
+            userIndex++;
+            noteIndex = 0;
+        }
+        if (userIndex >= users.size()) {
+            return null;
+        }
+
+        final User user = users.get(userIndex);
+        final int toIndex = Math.min(noteIndex + pageSize, user.notes().size());
+        user.forEachNoteWithContent(noteIndex, toIndex, note -> appendLine(page, user, note));
+        return new Cursor(userIndex, toIndex, toIndex - noteIndex);
+    }
+
+    private static void appendLine(final StringBuilder out, final User user, final Note note) {
+        out.append('{');
+        appendField(out, "userId", user.getId().toString()).append(',');
+        appendField(out, "userName", user.getName()).append(',');
+        appendField(out, "id", note.getId().toString()).append(',');
+        appendField(out, "name", note.getName()).append(',');
+        final var date = note.getDate();
+        appendField(out, "date", date == null ? null : date.toString()).append(',');
+        appendField(out, "content", note.getContent());
+        out.append("}\n");
+    }
+
+    private static StringBuilder appendField(final StringBuilder out, final String name, final @Nullable String value) {
+        out.append('"').append(name).append("\":");
+        if (value == null) {
+            return out.append("null");
+        }
+
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+        return out.append('"');
+    }
+
+    /**
+     * Position im Export. Nur die Indizes werden gemerkt, keine Objekte, da diese ohne Lock nicht gelesen werden
+     * dürfen.
+     *
+     * @param exported Anzahl der Notizen der zuletzt gelesenen Seite
+     */
+    private record Cursor(int userIndex, int noteIndex, int exported) {
+        private Cursor(final int userIndex, final int noteIndex) {
+            this(userIndex, noteIndex, 0);
+        }
+    }
+}
@@ -1,29 +1,19 @@
 import link.biosmarcel.presentation.Service;
 import link.biosmarcel.presentation.persistence.StorageImpl;
-import org.eclipse.store.afs.nio.types.NioFileSystem;
-import org.eclipse.store.storage.embedded.types.EmbeddedStorageFoundation;
-import org.eclipse.store.storage.types.StorageConfiguration;
-import org.eclipse.store.storage.types.StorageLiveFileProvider;
+import link.biosmarcel.presentation.persistence.StorageSettings;
+
+import java.nio.file.Path;
 
 void main() {
-    final var storageManager = EmbeddedStorageFoundation
-            .New()
-            .setConfiguration(
-                    StorageConfiguration
-                            .Builder()
-                            .setStorageFileProvider(StorageLiveFileProvider.New(
-                                    NioFileSystem.New().ensureDirectoryPath("./storage")
-                            ))
-                            .createConfiguration()
-            )
-            .createEmbeddedStorageManager();
-
-    final var storageImpl = new StorageImpl(storageManager);
+    // Ohne storage.properties laufen wir mit den Defaults, siehe StorageSettings.
+    final var storageImpl = StorageSettings.load(Path.of("storage.properties")).start();
+    storageImpl.metrics().registerMBean();
 
     try {
         runDemonstration(storageImpl);
     } finally {
-        storageManager.shutdown();
+        // Nicht nur den Manager, da sonst noch gestagte Batches verloren gehen und die Threads weiterlaufen.
+        storageImpl.destroy();
     }
 }
 
@@ -7,6 +7,7 @@ import link.biosmarcel.presentation.persistence.model.User;
 import org.eclipse.jdt.annotation.Nullable;
 
 import java.time.LocalDate;
+import java.util.List;
 
 public final class Service {
     private final StorageAccess storageAccess;
@@ -20,32 +21,56 @@ public final class Service {
             if (storageRoot.users().isEmpty()) {
                 System.out.println("Creating initial user ...");
                 final var user = new User("admin", "password", Permissions.ADMIN);
-                storageRoot.users().add(user);
+                storageRoot.addUser(user);
                 System.out.println("User created, the credentials are `admin=password`.");
             }
         });
     }
 
     public @Nullable User findUser(final String name) {
-        return storageAccess.readReturn(storageRoot -> storageRoot.users().stream()
-                .filter(user -> name.equals(user.getName()))
-                .findFirst()
-                .orElse(null));
+        return storageAccess.readReturn(storageRoot -> storageRoot.findUserByName(name));
+    }
+
+    /**
+     * Volltextsuche über Name und Inhalt der Notizen des Benutzers, siehe {@link User#searchNotes(String)}.
+     */
+    public List<Note> searchNotes(final User user, final String query) {
+        return storageAccess.readReturn(_ -> List.copyOf(user.searchNotes(query)));
+    }
+
+    /**
+     * Zählt über alle Benutzer die Notizen, deren Name den Text enthält. Die Benutzer werden parallel durchsucht.
+     */
+    public long countNotesWithNameContaining(final String fragment) {
+        return storageAccess.readParallel((storageRoot, parallel) -> parallel.reduce(
+                storageRoot.users(),
+                0L,
+                (count, user) -> count + user.notes().stream()
+                        .filter(note -> note.getName() != null && note.getName().contains(fragment))
+                        .count(),
+                Long::sum));
     }
 
     public void insertNote(final User user,
                            final String title,
                            final String content) {
-        storageAccess.write((_ ,_) -> {
-            final var note = new Note(user);
-            user.notes().add(note);
-
-            note.setName(title);
-            note.setDate(LocalDate.now());
-            note.setContent(content);
+        // Eine Notiz gehört immer zum Aggregat ihres Benutzers, Notizen anderer Benutzer können also parallel
+        // eingefügt werden. Die Notiz wird ohne Lock erstellt und validiert, ungültige Eingaben locken also gar nicht
+        // erst und verursachen keinen Rollback.
+        storageAccess.writeAggregatePrepared(user,
+                () -> {
+                    final var note = new Note(user);
+                    note.setName(title);
+                    note.setDate(LocalDate.now());
+                    note.setContent(content);
 
-            Validator.validateNote(note);
-        });
+                    Validator.validateNote(note);
+                    return note;
+                },
+                (note, _) -> {
+                    user.addNote(note);
+                    return null;
+                });
     }
 
 }
@@ -0,0 +1,141 @@
+package link.biosmarcel.presentation.persistence;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Flache Kopie eines Objekts vor dessen erster Änderung in einer Transaktion, aus der bei einem
+ * {@link Transaction#rollback()} der vorherige Zustand wiederhergestellt wird. Flach genügt, da jedes veränderte
+ * transaktionale Objekt selbst als dirty markiert wird und die Objekte aus
+ * {@link TransactionalObject#storeAdditionally()} zusammen mit ihrem Besitzer kopiert werden. Es wird also, wie beim
+ * Speichern, nur die erste Ebene betrachtet.
+ *
+ * <p>Collections und Arrays werden über ihren Inhalt kopiert, alle anderen Objekte über ihre Felder. Wie beim
+ * Persistieren werden transiente Felder ignoriert, ebenso die Verwaltungsfelder von {@link TransactionalObject}. Finale
+ * Felder können sich nicht ändern und werden daher ebenfalls übersprungen.
+ *
+ * <p>{@link TransactionalObject TransactionalObjects} werden immer über ihre Felder kopiert, auch wenn sie Collections
+ * sind. Deren Mutatoren würden beim Wiederherstellen eine Transaktion benötigen, die z.B. beim Zurückrollen eines
+ * fehlgeschlagenen Batches nicht existiert, siehe {@link GroupCommit#rollBackFailed()}.
+ */
+final class BeforeImage implements Runnable
+{
+  private static final ClassValue<Field[]> FIELDS = new ClassValue<>()
+  {
+    @Override
+    protected Field[] computeValue( final Class<?> type )
+    {
+      final var fields = new ArrayList<Field>();
+      for ( Class<?> current = type;
+          current != null && current != Object.class && current != TransactionalObject.class;
+          current = current.getSuperclass() )
+      {
+        for ( final var field : current.getDeclaredFields() )
+        {
+          final int modifiers = field.getModifiers();
+          if ( !Modifier.isStatic( modifiers ) && !Modifier.isTransient( modifiers ) && !Modifier.isFinal( modifiers ) )
+          {
+            field.setAccessible( true );
+            fields.add( field );
+          }
+        }
+      }
+      return fields.toArray( new Field[ 0 ] );
+    }
+  };
+
+  private final Object target;
+  /** Je nach Typ die kopierte Liste, Map, das Array oder die Feldwerte. */
+  private final Object snapshot;
+
+  private BeforeImage( final Object target, final Object snapshot )
+  {
+    this.target = target;
+    this.snapshot = snapshot;
+  }
+
+  static BeforeImage capture( final Object target )
+  {
+    return new BeforeImage( target, switch ( target )
+    {
+      case final TransactionalObject _ -> captureFields( target );
+      case final Collection<?> collection -> new ArrayList<>( collection );
+      case final Map<?, ?> map -> new LinkedHashMap<>( map );
+      case final Object[] array -> array.clone();
+      default -> captureFields( target );
+    } );
+  }
+
+  private static Object[] captureFields( final Object target )
+  {
+    final Field[] fields = FIELDS.get( target.getClass() );
+    final Object[] values = new Object[ fields.length ];
+    try
+    {
+      for ( int i = 0; i < fields.length; i++ )
+      {
+        values[ i ] = fields[ i ].get( target );
+      }
+    }
+    catch ( final IllegalAccessException exception )
+    {
+      throw new IllegalStateException( "Abbild konnte nicht erstellt werden: " + target.getClass(), exception );
+    }
+    return values;
+  }
+
+  /**
+   * Stellt den Zustand zum Zeitpunkt von {@link #capture(Object)} wieder her.
+   */
+  @Override
+  @SuppressWarnings( { "unchecked", "rawtypes" } )
+  public void run()
+  {
+    switch ( target )
+    {
+      case final TransactionalObject _ -> restoreFields();
+      case final List list ->
+      {
+        list.clear();
+        list.addAll( (List) snapshot );
+      }
+      case final Collection collection ->
+      {
+        collection.clear();
+        collection.addAll( (List) snapshot );
+      }
+      case final Map map ->
+      {
+        map.clear();
+        map.putAll( (Map) snapshot );
+      }
+      case final Object[] array ->
+      {
+        System.arraycopy( snapshot, 0, array, 0, array.length );
+      }
+      default -> restoreFields();
+    }
+  }
+
+  private void restoreFields()
+  {
+    final Field[] fields = FIELDS.get( target.getClass() );
+    final Object[] values = (Object[]) snapshot;
+    try
+    {
+      for ( int i = 0; i < fields.length; i++ )
+      {
+        fields[ i ].set( target, values[ i ] );
+      }
+    }
+    catch ( final IllegalAccessException exception )
+    {
+      throw new IllegalStateException( "Abbild konnte nicht wiederhergestellt werden: " + target.getClass(), exception );
+    }
+  }
+}
@@ -0,0 +1,24 @@
+package link.biosmarcel.presentation.persistence;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Eine persistierte Änderung an einem Objekt, siehe {@link ChangeStream}. Enthält bewusst nur Typ und ID, nicht das
+ * Objekt selbst, da dieses außerhalb eines Lock-Kontextes nicht gelesen werden darf.
+ *
+ * @param id siehe {@link TransactionalObject#changeId()}
+ * @param parentId siehe {@link TransactionalObject#changeParentId()}
+ */
+@org.eclipse.jdt.annotation.NonNullByDefault
+public record ChangeEvent(Class<? extends TransactionalObject> type, Object id, @Nullable Object parentId, Kind kind)
+{
+  public enum Kind
+  {
+    /** Das Objekt wurde neu gespeichert. */
+    CREATED,
+    /** Das Objekt war bereits gespeichert und wurde verändert. */
+    UPDATED,
+    /** Das Objekt wurde über {@link TransactionalObject#recordRemoval(TransactionalObject)} als entfernt gemeldet. */
+    REMOVED
+  }
+}
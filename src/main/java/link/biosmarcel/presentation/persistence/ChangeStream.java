@@ -0,0 +1,150 @@
+package link.biosmarcel.presentation.persistence;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Meldet persistierte Änderungen an Abonnenten, z.B. an Caches oder externe Suchindizes, damit diese gezielt
+ * invalidiert werden können, statt regelmäßig den gesamten Datenbestand zu durchlaufen.
+ *
+ * <p>Beim {@link Transaction#stage() Stagen} einer Transaktion wird für jedes neue und jedes veränderte Objekt mit
+ * {@link TransactionalObject#changeId() ID} ein {@link ChangeEvent} erstellt. Nachdem der {@link GroupCommit} den Batch
+ * persistiert hat, landen dessen Events als ein {@link ChangeSet} in einer Queue begrenzter Größe und werden von einem
+ * eigenen Thread an die Abonnenten verteilt. Abonnenten sehen also nur Änderungen, die einen Absturz überleben, und
+ * zwar in der Reihenfolge des Persistierens.
+ *
+ * <p>Der Write-Pfad wartet nie auf Abonnenten: Ist die Queue voll, wird das {@link ChangeSet} verworfen und das
+ * nächste zugestellte Set gibt über {@link ChangeSet#missed()} an, dass Änderungen fehlen. Abonnenten müssen dann
+ * ihren gesamten Stand neu aufbauen. Solange es keine Abonnenten gibt, werden keine Events erstellt.
+ */
+@org.eclipse.jdt.annotation.NonNullByDefault
+public final class ChangeStream
+{
+  private static final System.Logger logger = System.getLogger( ChangeStream.class.getName() );
+
+  /** Anzahl der Batches, die höchstens auf die Zustellung warten. */
+  public static final int DEFAULT_CAPACITY = 1_024;
+
+  private final BlockingQueue<List<ChangeEvent>> queue;
+  private final List<Consumer<ChangeSet>>        subscribers = new CopyOnWriteArrayList<>();
+  private final StorageListener                  listener;
+  /** Anzahl der verworfenen Sets seit dem zuletzt zugestellten Set. */
+  private final AtomicLong                       dropped     = new AtomicLong();
+
+  private @Nullable Thread dispatcher;
+
+  /**
+   * @param changes die Änderungen eines persistierten Batches
+   * @param missed Anzahl der seit dem vorherigen Set verworfenen Sets; ist dies größer als {@code 0}, fehlen
+   *     Änderungen
+   */
+  public record ChangeSet(List<ChangeEvent> changes, long missed)
+  {
+  }
+
+  /**
+   * @param listener wird über verworfene Sets informiert
+   */
+  ChangeStream( final int capacity, final StorageListener listener )
+  {
+    this.queue = new ArrayBlockingQueue<>( capacity );
+    this.listener = listener;
+  }
+
+  /**
+   * Der Abonnent bekommt alle ab jetzt persistierten Änderungen. Er wird immer vom selben Thread aufgerufen und darf
+   * blockieren oder über {@link StorageAccess} lesen, hält damit aber die Zustellung an alle Abonnenten auf.
+   */
+  public synchronized void subscribe( final Consumer<ChangeSet> subscriber )
+  {
+    subscribers.add( subscriber );
+    if ( dispatcher == null )
+    {
+      dispatcher = Thread.ofPlatform().name( "storage-changes" ).daemon().start( this::dispatch );
+    }
+  }
+
+  public void unsubscribe( final Consumer<ChangeSet> subscriber )
+  {
+    subscribers.remove( subscriber );
+  }
+
+  /**
+   * @return {@code true} falls Events erstellt werden müssen
+   */
+  boolean isActive()
+  {
+    return !subscribers.isEmpty();
+  }
+
+  /**
+   * Reiht die Änderungen eines persistierten Batches ein, ohne zu blockieren.
+   */
+  void publish( final List<ChangeEvent> changes )
+  {
+    if ( changes.isEmpty() )
+    {
+      return;
+    }
+    if ( !queue.offer( changes ) )
+    {
+      dropped.incrementAndGet();
+      listener.changeSetDropped( changes.size() );
+    }
+  }
+
+  /**
+   * Beendet die Zustellung, nachdem alle bereits eingereihten Sets zugestellt wurden.
+   */
+  synchronized void close()
+  {
+    final var thread = dispatcher;
+    if ( thread != null )
+    {
+      thread.interrupt();
+      dispatcher = null;
+    }
+  }
+
+  private void dispatch()
+  {
+    while ( true )
+    {
+      try
+      {
+        deliver( queue.take() );
+      }
+      catch ( final InterruptedException _ )
+      {
+        final var remaining = new ArrayList<List<ChangeEvent>>();
+        queue.drainTo( remaining );
+        remaining.forEach( this::deliver );
+        return;
+      }
+    }
+  }
+
+  private void deliver( final List<ChangeEvent> changes )
+  {
+    final var changeSet = new ChangeSet( changes, dropped.getAndSet( 0 ) );
+    for ( final var subscriber : subscribers )
+    {
+      // Ein fehlerhafter Abonnent darf weder die anderen noch den Thread beenden.
+      try
+      {
+        subscriber.accept( changeSet );
+      }
+      catch ( final RuntimeException exception )
+      {
+        logger.log( System.Logger.Level.WARNING, "Abonnent des ChangeStreams ist fehlgeschlagen", exception );
+      }
+    }
+  }
+}
@@ -0,0 +1,393 @@
+package link.biosmarcel.presentation.persistence;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * Ein lokales, nur fortlaufend beschriebenes Log aus Einträgen beliebiger Bytes, über das ein Prozess (Writer) anderen
+ * Prozessen auf demselben Host (Reader) Daten zur Verfügung stellt, siehe {@link ReplicationLeader} und
+ * {@link ReplicaFollower}.
+ *
+ * <p>Das Log besteht aus Segmenten fester Größe, die per {@link FileChannel#map memory-mapped} werden. Writer und
+ * Reader teilen sich dadurch den Page-Cache, ein Reader sieht neue Einträge also ohne Systemaufruf. Jeder Eintrag
+ * beginnt mit seiner Länge, die erst nach den Daten geschrieben wird. Reader sehen einen Eintrag daher erst, wenn er
+ * vollständig ist. Die Länge {@code 0} bedeutet, dass (noch) kein Eintrag folgt, {@link #SEGMENT_END} dass es im
+ * nächsten Segment weitergeht.
+ *
+ * <p>Einträge werden nicht einzeln auf die Platte gezwungen, sondern erst beim Wechsel des Segments bzw. beim
+ * Schließen. Nach einem Absturz des Betriebssystems können also die letzten Einträge fehlen. Alte Segmente werden
+ * nicht automatisch gelöscht, sondern können entfernt werden, sobald alle Reader diese verlassen haben, siehe
+ * {@link Reader#position()}.
+ */
+@org.eclipse.jdt.annotation.NonNullByDefault
+public final class CommitLog
+{
+  public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  /** Länge, die das Ende eines Segments markiert. */
+  static final int SEGMENT_END = -1;
+
+  private static final String SUFFIX      = ".log";
+  /** Länge und Daten werden auf diese Größe aufgerundet, damit die Länge atomar gelesen und geschrieben werden kann. */
+  private static final int    ALIGNMENT   = Integer.BYTES;
+  private static final int    HEADER_SIZE = Integer.BYTES;
+
+  private static final VarHandle LENGTH = MethodHandles.byteBufferViewVarHandle( int[].class, ByteOrder.nativeOrder() );
+
+  private CommitLog()
+  {
+  }
+
+  /**
+   * Position im Log, z.B. um einen Reader nach einem Neustart an derselben Stelle fortzusetzen.
+   *
+   * @param segment Nummer des Segments
+   * @param offset Byte-Offset des nächsten Eintrags im Segment
+   */
+  public record Position(long segment, int offset)
+  {
+    @Override
+    public String toString()
+    {
+      return segment + ":" + offset;
+    }
+
+    /**
+     * @param value im Format von {@link #toString()}
+     */
+    public static Position parse( final String value )
+    {
+      final int separator = value.indexOf( ':' );
+      if ( separator < 0 )
+      {
+        throw new IllegalArgumentException( "Ungültige Position: " + value );
+      }
+      return new Position( Long.parseLong( value.substring( 0, separator ).trim() ),
+          Integer.parseInt( value.substring( separator + 1 ).trim() ) );
+    }
+  }
+
+  /**
+   * Es darf höchstens ein Writer pro Verzeichnis geben. Nicht thread-safe.
+   */
+  public static final class Writer implements Closeable
+  {
+    private final Path directory;
+    private final int  segmentSize;
+
+    private long             segment;
+    private MappedByteBuffer buffer;
+    private int              offset;
+
+    /**
+     * Beginnt ein neues Segment nach dem letzten vorhandenen. Dieses wird abgeschlossen, damit Reader, die noch auf
+     * weitere Einträge eines abgestürzten Writers warten, in das neue Segment wechseln.
+     */
+    public Writer( final Path directory, final int segmentSize )
+    {
+      if ( segmentSize < 2 * HEADER_SIZE || segmentSize % ALIGNMENT != 0 )
+      {
+        throw new IllegalArgumentException( "Ungültige Segmentgröße: " + segmentSize );
+      }
+      this.directory = directory;
+      this.segmentSize = segmentSize;
+      try
+      {
+        Files.createDirectories( directory );
+        final long last = lastSegment( directory );
+        if ( last >= 0 )
+        {
+          sealAbandoned( segmentPath( directory, last ) );
+        }
+        this.segment = last + 1;
+        this.buffer = createSegment( segment );
+      }
+      catch ( final IOException exception )
+      {
+        throw new UncheckedIOException( "Commit-Log konnte nicht geöffnet werden: " + directory, exception );
+      }
+    }
+
+    /**
+     * Hängt einen Eintrag an, der sofort für Reader sichtbar ist.
+     *
+     * @throws IllegalArgumentException falls der Eintrag nicht in ein Segment passt
+     */
+    public void append( final byte[] entry )
+    {
+      final int size = HEADER_SIZE + align( entry.length );
+      // Am Ende jedes Segments muss Platz für die Markierung bleiben.
+      if ( size + HEADER_SIZE > segmentSize )
+      {
+        throw new IllegalArgumentException( "Eintrag ist zu groß für ein Segment: " + entry.length + " Bytes" );
+      }
+      if ( entry.length == 0 )
+      {
+        throw new IllegalArgumentException( "Leere Einträge können nicht von 'kein Eintrag' unterschieden werden" );
+      }
+      if ( offset + size + HEADER_SIZE > segmentSize )
+      {
+        roll();
+      }
+
+      buffer.put( offset + HEADER_SIZE, entry );
+      // Release, damit Reader, welche die Länge sehen, auch die Daten sehen.
+      LENGTH.setRelease( buffer, offset, entry.length );
+      offset += size;
+    }
+
+    public Position position()
+    {
+      return new Position( segment, offset );
+    }
+
+    /**
+     * Schreibt alle Einträge auf die Platte.
+     */
+    public void force()
+    {
+      buffer.force();
+    }
+
+    @Override
+    public void close()
+    {
+      force();
+    }
+
+    private void roll()
+    {
+      LENGTH.setRelease( buffer, offset, SEGMENT_END );
+      buffer.force();
+      try
+      {
+        buffer = createSegment( segment + 1 );
+      }
+      catch ( final IOException exception )
+      {
+        throw new UncheckedIOException( "Neues Segment konnte nicht angelegt werden", exception );
+      }
+      segment++;
+      offset = 0;
+    }
+
+    /**
+     * Legt das Segment unter einem temporären Namen in voller Größe an und benennt es erst dann um, damit Reader nie
+     * eine unvollständige Datei mappen.
+     */
+    private MappedByteBuffer createSegment( final long number ) throws IOException
+    {
+      final Path target = segmentPath( directory, number );
+      final Path temporary = target.resolveSibling( target.getFileName() + ".tmp" );
+      // Überbleibsel eines Writers, der beim Anlegen abgestürzt ist.
+      Files.deleteIfExists( temporary );
+      final MappedByteBuffer mapped;
+      try ( final var channel = FileChannel.open( temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+          StandardOpenOption.WRITE ) )
+      {
+        // Das Mapping vergrößert die Datei und bleibt auch nach dem Schließen des Channels gültig.
+        mapped = channel.map( FileChannel.MapMode.READ_WRITE, 0, segmentSize );
+      }
+      Files.move( temporary, target, StandardCopyOption.ATOMIC_MOVE );
+      return mapped;
+    }
+
+    private static void sealAbandoned( final Path file ) throws IOException
+    {
+      try ( final var channel = FileChannel.open( file, StandardOpenOption.READ, StandardOpenOption.WRITE ) )
+      {
+        final MappedByteBuffer mapped = channel.map( FileChannel.MapMode.READ_WRITE, 0, channel.size() );
+        int position = 0;
+        while ( position + HEADER_SIZE <= mapped.capacity() )
+        {
+          final int length = (int) LENGTH.getAcquire( mapped, position );
+          if ( length == SEGMENT_END )
+          {
+            return;
+          }
+          if ( length == 0 )
+          {
+            break;
+          }
+          position += HEADER_SIZE + align( length );
+        }
+        LENGTH.setRelease( mapped, position, SEGMENT_END );
+        mapped.force();
+      }
+    }
+  }
+
+  /**
+   * Liest die Einträge in der Reihenfolge, in der sie angehängt wurden. Nicht thread-safe.
+   */
+  public static final class Reader implements Closeable
+  {
+    private final Path directory;
+
+    private long                       segment;
+    private int                        offset;
+    private @Nullable MappedByteBuffer buffer;
+
+    /**
+     * @param start Position des ersten zu lesenden Eintrags, z.B. aus {@link #oldest(Path)}
+     */
+    public Reader( final Path directory, final Position start )
+    {
+      this.directory = directory;
+      this.segment = start.segment();
+      this.offset = start.offset();
+    }
+
+    /**
+     * @return die Position des ersten Eintrags des ältesten noch vorhandenen Segments
+     */
+    public static Position oldest( final Path directory )
+    {
+      try ( final Stream<Path> files = Files.list( directory ) )
+      {
+        return new Position( files.mapToLong( CommitLog::segmentNumber ).filter( n -> n >= 0 ).min().orElse( 0 ), 0 );
+      }
+      catch ( final NoSuchFileException _ )
+      {
+        return new Position( 0, 0 );
+      }
+      catch ( final IOException exception )
+      {
+        throw new UncheckedIOException( "Commit-Log konnte nicht gelesen werden: " + directory, exception );
+      }
+    }
+
+    /**
+     * @return der nächste Eintrag, oder {@code null} falls der Writer noch keinen weiteren geschrieben hat
+     *
+     * @throws IllegalStateException falls das Segment an der Position nicht mehr existiert, der Reader also zu weit
+     *     zurückliegt
+     */
+    public byte @Nullable [] poll()
+    {
+      while ( true )
+      {
+        final MappedByteBuffer current = map();
+        if ( current == null )
+        {
+          return null;
+        }
+
+        final int length = (int) LENGTH.getAcquire( current, offset );
+        if ( length == 0 )
+        {
+          return null;
+        }
+        if ( length == SEGMENT_END )
+        {
+          segment++;
+          offset = 0;
+          buffer = null;
+          continue;
+        }
+
+        final byte[] entry = new byte[ length ];
+        current.get( offset + HEADER_SIZE, entry );
+        offset += HEADER_SIZE + align( length );
+        return entry;
+      }
+    }
+
+    /**
+     * @return die Position des nächsten Eintrags
+     */
+    public Position position()
+    {
+      return new Position( segment, offset );
+    }
+
+    @Override
+    public void close()
+    {
+      buffer = null;
+    }
+
+    /**
+     * @return das aktuelle Segment, oder {@code null} falls der Writer dieses noch nicht angelegt hat
+     */
+    private @Nullable MappedByteBuffer map()
+    {
+      if ( buffer != null )
+      {
+        return buffer;
+      }
+
+      final Path file = segmentPath( directory, segment );
+      try ( final var channel = FileChannel.open( file, StandardOpenOption.READ ) )
+      {
+        buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+        return buffer;
+      }
+      catch ( final NoSuchFileException _ )
+      {
+        if ( segment < oldest( directory ).segment() )
+        {
+          throw new IllegalStateException( "Segment " + segment + " wurde bereits gelöscht" );
+        }
+        return null;
+      }
+      catch ( final IOException exception )
+      {
+        throw new UncheckedIOException( "Segment konnte nicht gelesen werden: " + file, exception );
+      }
+    }
+  }
+
+  private static int align( final int length )
+  {
+    return ( length + ALIGNMENT - 1 ) & -ALIGNMENT;
+  }
+
+  private static Path segmentPath( final Path directory, final long number )
+  {
+    return directory.resolve( String.format( Locale.ROOT, "%020d%s", number, SUFFIX ) );
+  }
+
+  /**
+   * @return die Nummer des Segments, oder {@code -1} falls es sich um keine Segment-Datei handelt
+   */
+  private static long segmentNumber( final Path file )
+  {
+    final String name = file.getFileName().toString();
+    if ( !name.endsWith( SUFFIX ) )
+    {
+      return -1;
+    }
+    try
+    {
+      return Long.parseLong( name.substring( 0, name.length() - SUFFIX.length() ) );
+    }
+    catch ( final NumberFormatException _ )
+    {
+      return -1;
+    }
+  }
+
+  private static long lastSegment( final Path directory ) throws IOException
+  {
+    try ( final Stream<Path> files = Files.list( directory ) )
+    {
+      return files.mapToLong( CommitLog::segmentNumber ).max().orElse( -1 );
+    }
+  }
+}
@@ -0,0 +1,17 @@
+package link.biosmarcel.presentation.persistence;
+
+/**
+ * Bestimmt, wann ein {@link StorageAccess#writeAsync(java.util.function.BiFunction, Durability) asynchroner Write} als
+ * abgeschlossen gilt.
+ */
+public enum Durability
+{
+  /**
+   * Der Write gilt als abgeschlossen, sobald die Änderungen im Speicher angewendet wurden. Die Daten sind dann für alle
+   * folgenden Reads sichtbar, gehen aber bei einem Absturz vor dem Persistieren verloren. Fehler beim Persistieren
+   * werden lediglich geloggt.
+   */
+  MEMORY,
+  /** Der Write gilt erst als abgeschlossen, sobald die Änderungen persistiert wurden. */
+  DISK,
+}
@@ -0,0 +1,174 @@
+package link.biosmarcel.presentation.persistence;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.regex.Pattern;
+
+/**
+ * {@link Index} für die Volltextsuche: Texte werden über {@link #tokenize(String...)} in Terme zerlegt, gesucht wird
+ * nach einzelnen Termen oder nach Präfixen. Anders als die übrigen Indizes wird dieser über {@link FullTextPostings}
+ * persistiert, da ein Neuaufbau beim Start alle Texte laden müsste. Gesucht wird nur über die Terme, die Suche hängt
+ * also weder von der Menge der Texte ab, noch davon, ob diese geladen sind.
+ *
+ * <p>Für Präfix-Suchen werden die Terme zusätzlich sortiert im Speicher gehalten. Diese Menge wird nicht transaktional
+ * gepflegt, sondern wächst nur. Terme ohne Einträge, z.B. nach einem Rollback, werden bei der Suche übersprungen.
+ *
+ * @param <Value> Typ der indizierten Objekte
+ */
+public final class FullTextIndex<Value extends TransactionalObject> extends Index<Set<String>, Value>
+{
+  private static final Pattern SEPARATORS = Pattern.compile( "[^\\p{L}\\p{N}]+" );
+
+  private final IndexedProperty<Value, ?> id;
+  private final FullTextPostings<Value>   postings;
+  private final NavigableSet<String>      sortedTerms = new ConcurrentSkipListSet<>();
+
+  /**
+   * Muss im Lock-Kontext erstellt werden, da die persistierten Terme gelesen werden.
+   *
+   * @param id liefert eine über Neustarts stabile ID der Objekte, z.B. eine {@link java.util.UUID}
+   * @param postings die persistierten Einträge, gehören exklusiv zu diesem Index
+   */
+  public FullTextIndex(
+      final IndexedProperty<Value, Set<String>> terms,
+      final IndexedProperty<Value, ?> id,
+      final FullTextPostings<Value> postings )
+  {
+    super( terms );
+    this.id = id;
+    this.postings = postings;
+    sortedTerms.addAll( postings.terms() );
+  }
+
+  /**
+   * Zerlegt Texte in Terme: Kleinschreibung, getrennt an allem, was kein Buchstabe und keine Ziffer ist.
+   */
+  public static Set<String> tokenize( final @Nullable String... texts )
+  {
+    final var terms = new HashSet<String>();
+    for ( final var text : texts )
+    {
+      if ( text == null )
+      {
+        continue;
+      }
+      for ( final var term : SEPARATORS.split( text.toLowerCase( Locale.ROOT ) ) )
+      {
+        if ( !term.isEmpty() )
+        {
+          terms.add( term );
+        }
+      }
+    }
+    return terms;
+  }
+
+  /**
+   * @return alle Objekte, die den Term enthalten, nicht veränderbar. Der Term wird wie die Texte normalisiert.
+   */
+  public Set<Value> find( final String term )
+  {
+    refresh();
+    return postings.valuesFor( term.toLowerCase( Locale.ROOT ) );
+  }
+
+  /**
+   * @return alle Objekte, die einen Term mit diesem Präfix enthalten
+   */
+  public Set<Value> findPrefix( final String prefix )
+  {
+    refresh();
+    final String normalized = prefix.toLowerCase( Locale.ROOT );
+    final var result = new HashSet<Value>();
+    for ( final var term : sortedTerms.tailSet( normalized, true ) )
+    {
+      if ( !term.startsWith( normalized ) )
+      {
+        break;
+      }
+      result.addAll( postings.valuesFor( term ) );
+    }
+    return result;
+  }
+
+  /**
+   * @return alle Objekte, die zu jedem Term der Anfrage einen Term mit diesem Präfix enthalten, sprich eine
+   *     UND-Verknüpfung wie bei einer Suche während der Eingabe
+   */
+  public Set<Value> search( final String query )
+  {
+    Set<Value> result = null;
+    for ( final var term : tokenize( query ) )
+    {
+      final var matches = findPrefix( term );
+      if ( result == null )
+      {
+        result = matches;
+      }
+      else
+      {
+        result.retainAll( matches );
+      }
+      if ( result.isEmpty() )
+      {
+        break;
+      }
+    }
+    return result == null ? Set.of() : result;
+  }
+
+  @Override
+  protected @Nullable Set<String> indexedKey( final Value value )
+  {
+    return postings.termsOf( idOf( value ) );
+  }
+
+  @Override
+  protected void setIndexedKey( final Value value, final @Nullable Set<String> terms )
+  {
+    postings.setTerms( idOf( value ), terms );
+  }
+
+  @Override
+  protected void insert( final Set<String> terms, final Value value )
+  {
+    final Object stableId = idOf( value );
+    for ( final var term : terms )
+    {
+      postings.add( term, stableId, value );
+      sortedTerms.add( term );
+    }
+  }
+
+  @Override
+  protected void delete( final Set<String> terms, final Value value )
+  {
+    final Object stableId = idOf( value );
+    for ( final var term : terms )
+    {
+      postings.remove( term, stableId );
+    }
+  }
+
+  @Override
+  protected void deleteAll()
+  {
+    postings.clear();
+    sortedTerms.clear();
+  }
+
+  private Object idOf( final Value value )
+  {
+    final Object stableId = id.extractor().apply( value );
+    if ( stableId == null )
+    {
+      throw new IllegalStateException( "Objekt ohne ID kann nicht indiziert werden: " + id.name() );
+    }
+    return stableId;
+  }
+}
@@ -0,0 +1,212 @@
+package link.biosmarcel.presentation.persistence;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Persistierte Einträge eines {@link FullTextIndex}. Liegt als normales Feld im Besitzer des Index, z.B. im
+ * {@link link.biosmarcel.presentation.persistence.model.User User} für dessen Notizen, und wird über die
+ * {@link TransactionalSegmentedMap segmentierten Maps} inkrementell gespeichert: Ändert sich eine Notiz, werden nur die
+ * Buckets der betroffenen Terme gespeichert. Auch die Objekte eines Terms sind segmentiert, siehe {@link Postings},
+ * sodass häufige Terme einen Write nicht mit der Anzahl ihrer Objekte verteuern.
+ *
+ * <p>Neben den Objekten pro Term werden auch die Terme pro Objekt gespeichert, da die alten Terme eines geänderten
+ * Objekts sonst nur über dessen alten Inhalt bestimmbar wären.
+ *
+ * @param <Value> Typ der indizierten Objekte
+ */
+@org.eclipse.jdt.annotation.NonNullByDefault
+public final class FullTextPostings<Value extends TransactionalObject> extends TransactionalObject
+{
+  private final TransactionalSegmentedMap<String, Postings<Value>> valuesByTerm;
+  /** Die Terme pro Objekt, über eine stabile ID des Objekts, siehe {@link TransactionalSegmentedMap}. */
+  private final TransactionalSegmentedMap<Object, String[]>        termsById;
+
+  public FullTextPostings()
+  {
+    this.valuesByTerm = new TransactionalSegmentedMap<>();
+    this.termsById = new TransactionalSegmentedMap<>();
+  }
+
+  Set<String> terms()
+  {
+    return valuesByTerm.keySet();
+  }
+
+  /**
+   * @return nicht veränderbar, wie bei den übrigen Indizes nur innerhalb des Lock-Kontextes konsistent
+   */
+  Set<Value> valuesFor( final String term )
+  {
+    final var postings = valuesByTerm.get( term );
+    return postings == null ? Set.of() : postings.values();
+  }
+
+  /**
+   * @param id stabile ID des Objekts, bestimmt das Segment
+   */
+  void add( final String term, final Object id, final Value value )
+  {
+    valuesByTerm.computeIfAbsent( term, _ -> new Postings<>() ).put( id, value );
+  }
+
+  void remove( final String term, final Object id )
+  {
+    final var postings = valuesByTerm.get( term );
+    if ( postings != null && postings.remove( id ) && postings.isEmpty() )
+    {
+      valuesByTerm.remove( term );
+    }
+  }
+
+  void clear()
+  {
+    valuesByTerm.clear();
+    termsById.clear();
+  }
+
+  @Nullable Set<String> termsOf( final Object id )
+  {
+    final String[] terms = termsById.get( id );
+    return terms == null ? null : Set.of( terms );
+  }
+
+  void setTerms( final Object id, final @Nullable Set<String> terms )
+  {
+    if ( terms == null )
+    {
+      termsById.remove( id );
+    }
+    else
+    {
+      termsById.put( id, terms.toArray( new String[ 0 ] ) );
+    }
+  }
+
+  /**
+   * Die Objekte eines Terms, anhand ihrer ID auf Segmente verteilt. Bei einer Änderung wird nur das betroffene Segment
+   * gespeichert, ein Write kostet also höchstens {@link #SEGMENT_CAPACITY} Einträge statt aller Objekte mit dem Term.
+   * Läuft ein Segment über, wird die Anzahl der Segmente verdoppelt. Dabei werden einmalig alle Einträge in neue
+   * Segmente kopiert, die alten bleiben unverändert, sodass ein Rollback nur das Array zurücksetzen muss. Die Anzahl
+   * der Segmente sinkt nicht wieder, leere Terme werden aber ganz entfernt.
+   */
+  static final class Postings<Value extends TransactionalObject> extends TransactionalObject
+  {
+    /** Erreicht ein Segment diese Größe, wird die Anzahl der Segmente vor dem nächsten Einfügen verdoppelt. */
+    static final int SEGMENT_CAPACITY = 512;
+
+    private TransactionalMap<Object, Value>[] segments;
+
+    Postings()
+    {
+      this.segments = newSegments( 1 );
+    }
+
+    void put( final Object id, final Value value )
+    {
+      final var segment = segmentFor( segments, id );
+      if ( segment.size() >= SEGMENT_CAPACITY && !segment.containsKey( id ) )
+      {
+        // Vor dem Einfügen, damit das volle Segment nicht noch einmal gespeichert wird.
+        grow();
+      }
+      segmentFor( segments, id ).put( id, value );
+    }
+
+    /**
+     * @return {@code true} falls das Objekt enthalten war
+     */
+    boolean remove( final Object id )
+    {
+      final var segment = segmentFor( segments, id );
+      // Kein remove ohne Prüfung, da dies das Segment auch ohne Änderung speichern würde.
+      return segment.containsKey( id ) && segment.remove( id ) != null;
+    }
+
+    boolean isEmpty()
+    {
+      for ( final var segment : segments )
+      {
+        if ( !segment.isEmpty() )
+        {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    Set<Value> values()
+    {
+      final TransactionalMap<Object, Value>[] current = segments;
+      return new AbstractSet<>()
+      {
+        @Override
+        public Iterator<Value> iterator()
+        {
+          return Arrays.stream( current ).flatMap( segment -> segment.values().stream() ).iterator();
+        }
+
+        @Override
+        public int size()
+        {
+          int size = 0;
+          for ( final var segment : current )
+          {
+            size += segment.size();
+          }
+          return size;
+        }
+      };
+    }
+
+    private void grow()
+    {
+      markDirty();
+      final TransactionalMap<Object, Value>[] grown = newSegments( segments.length * 2 );
+      for ( final var segment : segments )
+      {
+        for ( final var entry : segment.entrySet() )
+        {
+          segmentFor( grown, entry.getKey() ).put( entry.getKey(), entry.getValue() );
+        }
+      }
+      segments = grown;
+    }
+
+    @Override
+    public Object[] storeAdditionally()
+    {
+      return new Object[]{ segments };
+    }
+
+    private static <Value> TransactionalMap<Object, Value> segmentFor(
+        final TransactionalMap<Object, Value>[] segments,
+        final Object id )
+    {
+      // Die ID muss über Neustarts einen stabilen Hash haben, wie bei TransactionalSegmentedMap.
+      final int hash = id.hashCode();
+      return segments[ ( hash ^ ( hash >>> 16 ) ) & ( segments.length - 1 ) ];
+    }
+
+    /**
+     * Das leere Array legt der Compiler mit dem vollen generischen Typ an, siehe
+     * {@code TransactionalSegmentedMap#newBuckets}.
+     */
+    @SafeVarargs
+    private static <Value> TransactionalMap<Object, Value>[] newSegments(
+        final int count,
+        final TransactionalMap<Object, Value>... empty )
+    {
+      final TransactionalMap<Object, Value>[] created = Arrays.copyOf( empty, count );
+      for ( int i = 0; i < count; i++ )
+      {
+        created[ i ] = new TransactionalMap<>();
+      }
+      return created;
+    }
+  }
+}
@@ -0,0 +1,242 @@
+package link.biosmarcel.presentation.persistence;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.serializer.persistence.types.Storer;
+import org.eclipse.serializer.reference.Lazy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Sammelt die Änderungen mehrerer Write-Transaktionen und persistiert diese mit einem einzigen
+ * {@link Storer#commit()}. Die Transaktionen werden im Lock-Kontext {@link Transaction#stage() gestaged} und warten
+ * anschließend, ohne Lock, darauf dass ihr Batch persistiert wurde.
+ *
+ * <p>Das Persistieren übernimmt dabei der erste wartende Thread (Leader). Alle Threads, die während eines laufenden
+ * Flushes stagen, landen gemeinsam im nächsten Batch. Je mehr Writes parallel anstehen, desto größer werden die Batches
+ * und desto seltener wird tatsächlich auf die Platte geschrieben.
+ *
+ * <p>Da die Objekte erst beim Flush serialisiert werden, darf ein Flush nur laufen, während kein Writer aktiv ist.
+ * Das ist die Aufgabe des Aufrufers, siehe {@link StorageImpl}. Leser können dagegen parallel weiterlaufen.
+ *
+ * <p>Die Transaktionen eines Batches haben ihre Änderungen beim Stagen bereits im Speicher veröffentlicht. Schlägt das
+ * Persistieren fehl, müssen diese per {@link #rollBackFailed()} zurückgerollt werden, bevor der nächste Writer darauf
+ * aufbaut. Bis dahin hält der Batch die Abbilder aller Transaktionen.
+ */
+@org.eclipse.jdt.annotation.NonNullByDefault
+final class GroupCommit
+{
+  private static final CompletableFuture<Void> NOTHING_STAGED = CompletableFuture.completedFuture( null );
+
+  private final Supplier<Storer> storerFactory;
+  private final StorageListener  listener;
+  private final ChangeStream     changes;
+
+  /** Wird vom Leader gehalten, damit nicht mehrere Threads gleichzeitig versuchen zu flushen. */
+  private final ReentrantLock leaderLock = new ReentrantLock();
+  /** Schützt den aktuell offenen Batch, da Aggregat-Writer parallel stagen können. */
+  private final Object        batchLock  = new Object();
+
+  private Batch batch;
+  /** Batch, dessen Persistieren fehlgeschlagen ist und dessen Transaktionen noch nicht zurückgerollt wurden. */
+  private volatile @Nullable Batch failed;
+
+  /**
+   * @param changes bekommt die Änderungen jedes persistierten Batches
+   */
+  GroupCommit( final Supplier<Storer> storerFactory, final StorageListener listener, final ChangeStream changes )
+  {
+    this.storerFactory = storerFactory;
+    this.listener = listener;
+    this.changes = changes;
+    this.batch = new Batch();
+  }
+
+  /**
+   * Übernimmt die Objekte einer Transaktion in den offenen Batch. Die {@link SaveState SaveStates} müssen zu diesem
+   * Zeitpunkt bereits durch die Transaktion gesetzt worden sein.
+   *
+   * @param registered alle in der Transaktion registrierten Objekte
+   * @param toStore die Objekte, die tatsächlich gespeichert werden müssen ({@link SaveState#DIRTY})
+   * @param unloadAfterCommit erst nach dem Persistieren zu entladende {@link Lazy}-Referenzen
+   * @param changes die Änderungen für den {@link ChangeStream}, leer falls {@link #capturesChanges()} {@code false}
+   *     war
+   * @param rollback macht die Änderungen der Transaktion rückgängig, falls der Batch nicht persistiert werden kann
+   *
+   * @return Future, welches abgeschlossen wird, sobald der Batch persistiert bzw. nach einem Fehler zurückgerollt wurde
+   */
+  CompletableFuture<Void> stage(
+      final Collection<TransactionalObject> registered,
+      final Collection<TransactionalObject> toStore,
+      final Collection<Lazy<?>> unloadAfterCommit,
+      final Collection<ChangeEvent> changes,
+      final Runnable rollback )
+  {
+    if ( registered.isEmpty() && unloadAfterCommit.isEmpty() && changes.isEmpty() )
+    {
+      return NOTHING_STAGED;
+    }
+
+    synchronized ( batchLock )
+    {
+      batch.toStore.addAll( toStore );
+      batch.unloadAfterCommit.addAll( unloadAfterCommit );
+      batch.changes.addAll( changes );
+      batch.rollbacks.add( rollback );
+      batch.transactions++;
+      return batch.durable;
+    }
+  }
+
+  /**
+   * @return {@code true} falls Transaktionen ihre Änderungen für den {@link ChangeStream} erfassen müssen
+   */
+  boolean capturesChanges()
+  {
+    return changes.isActive();
+  }
+
+  /**
+   * @return Future des offenen Batches, oder {@code null} wenn dieser leer ist.
+   */
+  @Nullable CompletableFuture<Void> pending()
+  {
+    synchronized ( batchLock )
+    {
+      return batch.isEmpty() ? null : batch.durable;
+    }
+  }
+
+  void lockLeader()
+  {
+    leaderLock.lock();
+  }
+
+  void unlockLeader()
+  {
+    leaderLock.unlock();
+  }
+
+  /**
+   * Persistiert den offenen Batch. <b>Der Aufrufer muss sicherstellen, dass währenddessen kein Writer aktiv ist.</b>
+   *
+   * @throws RuntimeException falls das Persistieren fehlschlägt. Der Batch muss dann per {@link #rollBackFailed()}
+   *     zurückgerollt werden, erst danach bekommen die wartenden Transaktionen denselben Fehler.
+   */
+  void flush()
+  {
+    final Batch flushing;
+    synchronized ( batchLock )
+    {
+      if ( batch.isEmpty() )
+      {
+        return;
+      }
+      flushing = batch;
+      batch = new Batch();
+    }
+
+    final long flushStart = System.nanoTime();
+    try
+    {
+      final Storer storer = storerFactory.get();
+      for ( final var object : flushing.toStore )
+      {
+        for ( final var toStore : object.storeAdditionally() )
+        {
+          storer.store( toStore );
+        }
+        storer.store( object );
+      }
+      storer.commit();
+    }
+    catch ( final RuntimeException exception )
+    {
+      listener.batchFailed( exception );
+      flushing.failure = exception;
+      failed = flushing;
+      throw exception;
+    }
+    listener.batchFlushed( flushing.transactions, flushing.toStore.size(), System.nanoTime() - flushStart );
+    changes.publish( flushing.changes );
+
+    for ( final var lazy : flushing.unloadAfterCommit )
+    {
+      if ( lazy.isStored() )
+      {
+        lazy.clear();
+      }
+    }
+    flushing.durable.complete( null );
+  }
+
+  /**
+   * @return {@code true} falls ein Batch nicht persistiert werden konnte und noch {@link #rollBackFailed() zurückgerollt}
+   *     werden muss. Writer dürfen bis dahin nicht beginnen, da sie sonst auf verworfenen Änderungen aufbauen würden.
+   */
+  boolean hasFailedBatch()
+  {
+    return failed != null;
+  }
+
+  /**
+   * Macht die Änderungen aller Transaktionen des fehlgeschlagenen Batches in umgekehrter Reihenfolge ihres Stagens
+   * rückgängig und lässt erst danach deren Future fehlschlagen. Neue Lazy-Referenzen werden dabei nicht entladen und die
+   * Änderungen nicht veröffentlicht. <b>Der Aufrufer muss den Root-Lock exklusiv halten.</b>
+   */
+  void rollBackFailed()
+  {
+    final Batch rollingBack = failed;
+    if ( rollingBack == null )
+    {
+      return;
+    }
+    failed = null;
+
+    final RuntimeException failure = rollingBack.failure;
+    assert failure != null;
+    for ( int i = rollingBack.rollbacks.size() - 1; i >= 0; i-- )
+    {
+      // Weitermachen, da ein halbes Rollback schlimmer wäre, als ein einzelnes fehlgeschlagenes.
+      try
+      {
+        rollingBack.rollbacks.get( i ).run();
+      }
+      catch ( final RuntimeException exception )
+      {
+        failure.addSuppressed( exception );
+      }
+    }
+    rollingBack.durable.completeExceptionally( failure );
+  }
+
+  private static final class Batch
+  {
+    private final Set<TransactionalObject> toStore           = identitySet();
+    private final List<Lazy<?>>            unloadAfterCommit = new ArrayList<>();
+    private final List<ChangeEvent>        changes           = new ArrayList<>();
+    private final List<Runnable>           rollbacks         = new ArrayList<>();
+    private final CompletableFuture<Void>  durable           = new CompletableFuture<>();
+    private       int                      transactions      = 0;
+
+    /** Der Fehler beim Persistieren, bis zum {@link #rollBackFailed() Rollback}. */
+    private @Nullable RuntimeException failure = null;
+
+    private boolean isEmpty()
+    {
+      return transactions == 0;
+    }
+
+    private static <Type> Set<Type> identitySet()
+    {
+      return Collections.newSetFromMap( new IdentityHashMap<>() );
+    }
+  }
+}
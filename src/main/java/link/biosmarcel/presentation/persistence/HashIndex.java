@@ -0,0 +1,62 @@
+package link.biosmarcel.presentation.persistence;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link Index} bei dem ein Key beliebig vielen Objekten zugeordnet sein kann. Ein Lookup kostet O(1), unterstützt
+ * aber keine Bereichsabfragen, siehe dafür {@link SortedIndex}.
+ */
+public final class HashIndex<Key, Value extends TransactionalObject> extends Index<Key, Value>
+{
+  private final ConcurrentHashMap<Key, Set<Value>> entries = new ConcurrentHashMap<>();
+
+  public HashIndex( final IndexedProperty<Value, Key> property )
+  {
+    super( property );
+  }
+
+  /**
+   * @param shared siehe {@link Index#Index(IndexedProperty, boolean)}
+   */
+  public HashIndex( final IndexedProperty<Value, Key> property, final boolean shared )
+  {
+    super( property, shared );
+  }
+
+  /**
+   * @return alle Objekte mit dem übergebenen Key, nicht veränderbar. Wie bei
+   *     {@link StorageAccess#readReturn(java.util.function.Function)} ist das Ergebnis außerhalb des Lock-Kontextes
+   *     nicht mehr garantiert konsistent.
+   */
+  public Set<Value> get( final Key key )
+  {
+    refresh();
+    final Set<Value> values = entries.get( key );
+    return values == null ? Set.of() : Collections.unmodifiableSet( values );
+  }
+
+  @Override
+  protected void insert( final Key key, final Value value )
+  {
+    entries.computeIfAbsent( key, _ -> ConcurrentHashMap.newKeySet() ).add( value );
+  }
+
+  @Override
+  protected void delete( final Key key, final Value value )
+  {
+    // Über computeIfPresent, damit ein paralleles insert nicht in einem gerade entfernten Set landet.
+    entries.computeIfPresent( key, ( _, values ) ->
+    {
+      values.remove( value );
+      return values.isEmpty() ? null : values;
+    } );
+  }
+
+  @Override
+  protected void deleteAll()
+  {
+    entries.clear();
+  }
+}
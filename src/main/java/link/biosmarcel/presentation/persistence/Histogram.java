@@ -0,0 +1,90 @@
+package link.biosmarcel.presentation.persistence;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-freies Histogramm über nicht-negative Werte, z.B. Nanosekunden oder Anzahl an Objekten. Die Werte werden in
+ * Zweierpotenz-Buckets gezählt, Perzentile sind also auf den Faktor 2 genau. Dafür kostet das Aufzeichnen nur ein paar
+ * atomare Inkremente und allokiert nichts.
+ */
+public final class Histogram
+{
+  private static final int BUCKETS = Long.SIZE;
+
+  private final AtomicLongArray buckets = new AtomicLongArray( BUCKETS );
+  private final LongAdder       sum     = new LongAdder();
+  private final LongAccumulator max     = new LongAccumulator( Math::max, 0 );
+
+  /**
+   * Die Perzentile sind jeweils die obere Grenze des Buckets, in den sie fallen.
+   */
+  public record Snapshot(long count, long sum, long max, double mean, long p50, long p99, long p999)
+  {
+  }
+
+  public void record( final long value )
+  {
+    final long clamped = Math.max( value, 0 );
+    // Bucket i enthält die Werte im Bereich [2^i, 2^(i+1)), Bucket 0 zusätzlich die 0.
+    buckets.incrementAndGet( BUCKETS - 1 - Long.numberOfLeadingZeros( clamped | 1 ) );
+    sum.add( clamped );
+    max.accumulate( clamped );
+  }
+
+  /**
+   * Da parallel weiter aufgezeichnet wird, ist der Snapshot nicht zwingend in sich konsistent, für Metriken reicht das
+   * aber aus.
+   */
+  public Snapshot snapshot()
+  {
+    final long[] counts = new long[ BUCKETS ];
+    long total = 0;
+    for ( int i = 0; i < BUCKETS; i++ )
+    {
+      counts[ i ] = buckets.get( i );
+      total += counts[ i ];
+    }
+
+    final long sumValue = sum.sum();
+    return new Snapshot(
+        total,
+        sumValue,
+        max.get(),
+        total == 0 ? 0 : (double) sumValue / total,
+        percentile( counts, total, 0.5 ),
+        percentile( counts, total, 0.99 ),
+        percentile( counts, total, 0.999 ) );
+  }
+
+  public void reset()
+  {
+    for ( int i = 0; i < BUCKETS; i++ )
+    {
+      buckets.set( i, 0 );
+    }
+    sum.reset();
+    max.reset();
+  }
+
+  private static long percentile( final long[] counts, final long total, final double quantile )
+  {
+    if ( total == 0 )
+    {
+      return 0;
+    }
+
+    final long rank = (long) Math.ceil( total * quantile );
+    long seen = 0;
+    for ( int i = 0; i < BUCKETS; i++ )
+    {
+      seen += counts[ i ];
+      if ( seen >= rank )
+      {
+        return i == BUCKETS - 1 ? Long.MAX_VALUE : ( 1L << ( i + 1 ) ) - 1;
+      }
+    }
+    return Long.MAX_VALUE;
+  }
+}
@@ -0,0 +1,203 @@
+package link.biosmarcel.presentation.persistence;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.store.storage.embedded.types.EmbeddedStorageManager;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ergänzt das Housekeeping von EclipseStore (Garbage Collection, Auflösen kaum noch genutzter Dateien, Entity-Cache)
+ * abhängig von der Last. Das eingebaute Housekeeping läuft in festen Intervallen mit festem Zeitbudget, egal wie viel
+ * gerade los ist, siehe {@link StorageSettings}. Dieser Scheduler misst über {@link StorageListener} die Anzahl der
+ * Write-Transaktionen und die Wartezeit auf Locks und räumt zusätzlich auf:
+ * <ul>
+ *   <li>In ruhigen Phasen mit großem Zeitbudget, sodass Dateien zügig kompaktiert werden.</li>
+ *   <li>Unter normaler Last mit kleinem Budget.</li>
+ *   <li>Unter hoher Last gar nicht, das eingebaute Housekeeping läuft dann trotzdem weiter.</li>
+ * </ul>
+ * Über {@link #compactNow()} kann zudem jederzeit komplett aufgeräumt werden, z.B. nach einem großen Import.
+ */
+@org.eclipse.jdt.annotation.NonNullByDefault
+public final class HousekeepingScheduler implements StorageListener
+{
+  private static final System.Logger logger = System.getLogger( HousekeepingScheduler.class.getName() );
+
+  public static final Duration DEFAULT_INTERVAL = Duration.ofSeconds( 5 );
+
+  /** Zeitbudget pro Schritt in ruhigen Phasen bzw. unter normaler Last. */
+  private static final long QUIET_BUDGET_NANOS  = TimeUnit.MILLISECONDS.toNanos( 500 );
+  private static final long NORMAL_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos( 5 );
+
+  /** Bis zu dieser Rate an Write-Transaktionen pro Sekunde gilt der Storage als ruhig. */
+  private static final double QUIET_WRITES_PER_SECOND = 10;
+  /** Ab dieser Rate bzw. durchschnittlichen Wartezeit auf Locks gilt der Storage als ausgelastet. */
+  private static final double BUSY_WRITES_PER_SECOND  = 1_000;
+  private static final long   BUSY_LOCK_WAIT_NANOS    = TimeUnit.MILLISECONDS.toNanos( 1 );
+
+  private final EmbeddedStorageManager manager;
+  private final StorageListener        listener;
+
+  private final LongAdder writes           = new LongAdder();
+  private final LongAdder lockAcquisitions = new LongAdder();
+  private final LongAdder lockWaitNanos    = new LongAdder();
+  /** Verhindert, dass {@link #compactNow()} und ein geplanter Durchlauf gleichzeitig laufen. */
+  private final ReentrantLock running = new ReentrantLock();
+
+  private @Nullable ScheduledExecutorService executor;
+  private long windowStartNanos = System.nanoTime();
+
+  /**
+   * @param listener wird über die Durchläufe informiert
+   */
+  HousekeepingScheduler( final EmbeddedStorageManager manager, final StorageListener listener )
+  {
+    this.manager = manager;
+    this.listener = listener;
+  }
+
+  enum Load
+  {
+    QUIET,
+    NORMAL,
+    BUSY
+  }
+
+  /**
+   * Startet die regelmäßige Prüfung. Ein erneuter Aufruf ändert das Intervall.
+   */
+  public synchronized void start( final Duration interval )
+  {
+    stop();
+    final var scheduler = Executors.newSingleThreadScheduledExecutor(
+        Thread.ofPlatform().name( "storage-housekeeping" ).daemon().factory() );
+    final long millis = interval.toMillis();
+    scheduler.scheduleWithFixedDelay( this::runScheduled, millis, millis, TimeUnit.MILLISECONDS );
+    executor = scheduler;
+  }
+
+  public synchronized void stop()
+  {
+    final var scheduler = executor;
+    if ( scheduler != null )
+    {
+      scheduler.shutdownNow();
+      executor = null;
+    }
+  }
+
+  /**
+   * Räumt ohne Zeitbudget komplett auf: Garbage Collection, danach das Auflösen kaum noch genutzter Dateien und das
+   * Leeren des Entity-Caches. Blockiert bis zum Ende, Reads und Writes laufen währenddessen weiter, werden aber
+   * langsamer.
+   */
+  public void compactNow()
+  {
+    running.lock();
+    try
+    {
+      final long start = System.nanoTime();
+      manager.issueFullGarbageCollection();
+      manager.issueFullFileCheck();
+      manager.issueFullCacheCheck();
+      listener.housekeepingRun( Long.MAX_VALUE, System.nanoTime() - start );
+    }
+    finally
+    {
+      running.unlock();
+    }
+  }
+
+  /**
+   * Pausiert den Scheduler bis {@link #resume()}, z.B. während eines {@link StorageBackup Backups}, da beim Aufräumen
+   * Dateien gelöscht werden. Wartet auf einen eventuell laufenden Durchlauf.
+   */
+  void pause()
+  {
+    running.lock();
+  }
+
+  void resume()
+  {
+    running.unlock();
+  }
+
+  private void runScheduled()
+  {
+    // Der Scheduler darf durch eine Exception nicht beendet werden.
+    try
+    {
+      runOnce();
+    }
+    catch ( final RuntimeException exception )
+    {
+      logger.log( System.Logger.Level.WARNING, "Housekeeping fehlgeschlagen", exception );
+    }
+  }
+
+  void runOnce()
+  {
+    final Load load = measureLoad();
+    if ( load == Load.BUSY || !running.tryLock() )
+    {
+      listener.housekeepingSkipped();
+      return;
+    }
+
+    try
+    {
+      final long budget = load == Load.QUIET ? QUIET_BUDGET_NANOS : NORMAL_BUDGET_NANOS;
+      final long start = System.nanoTime();
+      // Die Aufrufe liefern false, falls das Budget nicht gereicht hat. Der Rest wird im nächsten Durchlauf erledigt.
+      if ( manager.issueGarbageCollection( budget ) )
+      {
+        manager.issueFileCheck( budget );
+      }
+      manager.issueCacheCheck( budget );
+      listener.housekeepingRun( budget, System.nanoTime() - start );
+    }
+    finally
+    {
+      running.unlock();
+    }
+  }
+
+  /**
+   * Bewertet die Last seit dem letzten Aufruf und beginnt ein neues Messfenster.
+   */
+  private Load measureLoad()
+  {
+    final long now = System.nanoTime();
+    final double seconds = Math.max( 1e-3, ( now - windowStartNanos ) / 1e9 );
+    windowStartNanos = now;
+
+    final double writesPerSecond = writes.sumThenReset() / seconds;
+    final long acquisitions = lockAcquisitions.sumThenReset();
+    final long averageWait = acquisitions == 0 ? 0 : lockWaitNanos.sumThenReset() / acquisitions;
+
+    if ( writesPerSecond >= BUSY_WRITES_PER_SECOND || averageWait >= BUSY_LOCK_WAIT_NANOS )
+    {
+      return Load.BUSY;
+    }
+    return writesPerSecond <= QUIET_WRITES_PER_SECOND ? Load.QUIET : Load.NORMAL;
+  }
+
+  // LISTENER
+
+  @Override
+  public void lockAcquired( final LockType type, final long waitNanos )
+  {
+    lockAcquisitions.increment();
+    lockWaitNanos.add( waitNanos );
+  }
+
+  @Override
+  public void transactionStaged( final int registered, final int dirty, final long durationNanos )
+  {
+    writes.increment();
+  }
+}
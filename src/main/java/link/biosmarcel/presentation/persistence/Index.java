@@ -0,0 +1,299 @@
+package link.biosmarcel.presentation.persistence;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Basis für In-Memory-Indizes über {@link TransactionalObject transaktionale Objekte}. Ein Index wird nicht
+ * persistiert, sondern beim Start neu aufgebaut und danach transaktional gepflegt:
+ * <ul>
+ *   <li>Welche Eigenschaft indiziert wird, deklariert die Klasse der Objekte über ein {@link IndexedProperty}.</li>
+ *   <li>{@link #add(TransactionalObject)} und {@link #remove(TransactionalObject)} werden vom Besitzer des Index
+ *   aufgerufen, sobald ein Objekt in dessen Collection aufgenommen oder aus dieser entfernt wird.</li>
+ *   <li>Ändert sich ein indiziertes Objekt, meldet es sich über {@link TransactionalObject#markDirty()} bei der
+ *   Transaktion. Da dies vor der eigentlichen Änderung passiert, wird der Key erst vor dem nächsten Zugriff auf einen
+ *   Index bzw. vor dem Commit neu berechnet.</li>
+ *   <li>Alle Änderungen am Index werden bei {@link Transaction#rollback()} rückgängig gemacht.</li>
+ * </ul>
+ *
+ * <p>Indizes, deren Aufbau zu teuer wäre, können ihre Einträge auch selbst persistieren, siehe {@link FullTextIndex}.
+ * Diese überschreiben {@link #indexedKey(TransactionalObject)} und {@link #setIndexedKey(TransactionalObject, Object)}
+ * und werden beim Start nur über {@link #attach(Iterable)} bei den Objekten angemeldet.
+ *
+ * <p>Objekte werden über ihre Identität verglichen, Objekte ohne Key ({@code null}) werden nicht indiziert. Da
+ * Aggregat-Writer parallel Objekte ihres Aggregats ändern können, müssen Implementationen thread-safe sein.
+ *
+ * <p>Indizes, die nicht einem Aggregat gehören, sondern z.B. dem {@link StorageRoot}, werden als
+ * {@link #Index(IndexedProperty, boolean) gemeinsam} angelegt. Diese dürfen nur unter dem exklusiven Lock von
+ * {@link StorageAccess#write(java.util.function.BiConsumer)} verändert werden. Andernfalls wären Änderungen eines
+ * Aggregat-Writers vor dessen Commit für alle anderen sichtbar und dessen Rollback könnte mit den Änderungen eines
+ * anderen Aggregat-Writers kollidieren.
+ *
+ * @param <Key> Typ des Keys, über den gesucht wird
+ * @param <Value> Typ der indizierten Objekte
+ */
+public abstract class Index<Key, Value extends TransactionalObject>
+{
+  private final IndexedProperty<Value, Key>    property;
+  private final Function<Value, @Nullable Key> keyExtractor;
+  private final boolean                        shared;
+
+  /** Der Key, unter dem ein Objekt aktuell indiziert ist. Wird beim Neuberechnen benötigt, um den alten Key zu finden. */
+  private final Map<Value, Key> indexedKeys = new ConcurrentHashMap<>();
+
+  protected Index( final IndexedProperty<Value, Key> property )
+  {
+    this( property, false );
+  }
+
+  /**
+   * @param shared {@code true} falls der Index nicht Teil eines Aggregats ist und daher nicht in einem Aggregat-Writer
+   *     verändert werden darf
+   */
+  protected Index( final IndexedProperty<Value, Key> property, final boolean shared )
+  {
+    this.property = property;
+    this.keyExtractor = property.extractor();
+    this.shared = shared;
+  }
+
+  public IndexedProperty<Value, Key> property()
+  {
+    return property;
+  }
+
+  /**
+   * Nimmt den Key in den Index auf.
+   *
+   * @throws IllegalStateException falls der Key nicht aufgenommen werden kann, z.B. weil er bereits vergeben ist
+   */
+  protected abstract void insert( final Key key, final Value value );
+
+  /** Entfernt den Key aus dem Index. */
+  protected abstract void delete( final Key key, final Value value );
+
+  /** Leert den Index vor einem {@link #rebuild(Iterable) Neuaufbau}. */
+  protected abstract void deleteAll();
+
+  /**
+   * @return der Key, unter dem das Objekt aktuell indiziert ist, oder {@code null}
+   */
+  protected @Nullable Key indexedKey( final Value value )
+  {
+    return indexedKeys.get( value );
+  }
+
+  /**
+   * Merkt sich den Key, unter dem das Objekt aktuell indiziert ist, bzw. vergisst diesen bei {@code null}.
+   */
+  protected void setIndexedKey( final Value value, final @Nullable Key key )
+  {
+    if ( key == null )
+    {
+      indexedKeys.remove( value );
+    }
+    else
+    {
+      indexedKeys.put( value, key );
+    }
+  }
+
+  /**
+   * Nimmt ein Objekt in den Index auf. Muss in einem schreibenden Kontext aufgerufen werden.
+   */
+  public final void add( final Value value )
+  {
+    final var transaction = requireWritableTransaction();
+    requireExclusiveAccess( transaction );
+    final Key key = keyExtractor.apply( value );
+    if ( key != null )
+    {
+      insert( key, value );
+      setIndexedKey( value, key );
+    }
+    value.addIndex( new Registration( value ) );
+
+    transaction.onRollback( () ->
+    {
+      if ( key != null )
+      {
+        delete( key, value );
+        setIndexedKey( value, null );
+      }
+      value.removeIndex( this );
+    } );
+  }
+
+  /**
+   * Entfernt ein Objekt aus dem Index. Muss in einem schreibenden Kontext aufgerufen werden.
+   */
+  public final void remove( final Value value )
+  {
+    final var transaction = requireWritableTransaction();
+    requireExclusiveAccess( transaction );
+    // Falls das Objekt in dieser Transaktion geändert wurde, muss der aktuell indizierte Key entfernt werden.
+    transaction.refreshIndexes();
+
+    final Key key = indexedKey( value );
+    if ( key != null )
+    {
+      setIndexedKey( value, null );
+      delete( key, value );
+    }
+    value.removeIndex( this );
+
+    transaction.onRollback( () ->
+    {
+      if ( key != null )
+      {
+        insert( key, value );
+        setIndexedKey( value, key );
+      }
+      value.addIndex( new Registration( value ) );
+    } );
+  }
+
+  /**
+   * Berechnet den Key eines geänderten Objekts neu, siehe {@link Registration#reindex()}.
+   */
+  private void reindex( final Value value )
+  {
+    final Key oldKey = indexedKey( value );
+    final Key newKey = keyExtractor.apply( value );
+    if ( Objects.equals( oldKey, newKey ) )
+    {
+      return;
+    }
+    final var transaction = requireTransaction();
+    requireExclusiveAccess( transaction );
+
+    // Erst einfügen, damit bei einem Konflikt noch nichts verändert wurde.
+    if ( newKey != null )
+    {
+      insert( newKey, value );
+    }
+    setIndexedKey( value, newKey );
+    if ( oldKey != null )
+    {
+      delete( oldKey, value );
+    }
+
+    transaction.onRollback( () ->
+    {
+      if ( newKey != null )
+      {
+        delete( newKey, value );
+      }
+      if ( oldKey != null )
+      {
+        insert( oldKey, value );
+      }
+      setIndexedKey( value, oldKey );
+    } );
+  }
+
+  /**
+   * Baut den Index ohne Transaktionalität komplett neu auf. Darf nur genutzt werden, solange keine anderen Zugriffe
+   * möglich sind, also z.B. beim Start über {@link TransactionalObject#rebuildIndices()}.
+   */
+  final void rebuild( final Iterable<Value> values )
+  {
+    deleteAll();
+    indexedKeys.clear();
+    for ( final var value : values )
+    {
+      final Key key = keyExtractor.apply( value );
+      if ( key != null )
+      {
+        insert( key, value );
+        setIndexedKey( value, key );
+      }
+      value.addIndex( new Registration( value ) );
+    }
+  }
+
+  /**
+   * Meldet die Objekte beim Index an, ohne Keys zu berechnen. Für Indizes, die ihre Einträge selbst persistieren und
+   * daher beim Start nicht neu aufgebaut werden müssen. Danach werden Änderungen der Objekte wie gewohnt
+   * nachgezogen. Darf wie {@link #rebuild(Iterable)} nur genutzt werden, solange keine anderen Zugriffe möglich sind.
+   */
+  final void attach( final Iterable<Value> values )
+  {
+    for ( final var value : values )
+    {
+      value.addIndex( new Registration( value ) );
+    }
+  }
+
+  /**
+   * Muss vor jedem lesenden Zugriff auf den Index aufgerufen werden, damit Änderungen der aktuellen Transaktion
+   * sichtbar sind. Im Read-Kontext gibt es keine Änderungen, daher ist dies dort quasi kostenlos.
+   */
+  protected final void refresh()
+  {
+    final var transaction = requireTransaction();
+    transaction.validateForReadAccess();
+    transaction.refreshIndexes();
+  }
+
+  /**
+   * @throws IllegalStateException falls ein gemeinsamer Index in einem Aggregat-Writer verändert werden soll, z.B. weil
+   *     dort ein Benutzer umbenannt wurde
+   */
+  private void requireExclusiveAccess( final Transaction transaction )
+  {
+    if ( shared && transaction.getAggregateStripe() != Transaction.NO_AGGREGATE )
+    {
+      throw new IllegalStateException( "Der Index '" + property.name()
+          + "' ist nicht Teil des Aggregats und kann nur über StorageAccess#write verändert werden" );
+    }
+  }
+
+  /**
+   * Die Anmeldung eines Objekts beim Index, die sich das Objekt merkt. Über diese ruft die {@link Transaction} den
+   * Index mit dem Typ der indizierten Objekte auf, obwohl sie selbst nur {@link TransactionalObject} kennt.
+   */
+  final class Registration
+  {
+    private final Value value;
+
+    private Registration( final Value value )
+    {
+      this.value = value;
+    }
+
+    Index<Key, Value> index()
+    {
+      return Index.this;
+    }
+
+    /**
+     * Berechnet den Key des Objekts neu. Wird durch die {@link Transaction} aufgerufen.
+     */
+    void reindex()
+    {
+      Index.this.reindex( value );
+    }
+  }
+
+  private static Transaction requireTransaction()
+  {
+    final var transaction = Transactions.getTransaction();
+    if ( transaction == null )
+    {
+      throw new IllegalStateException( "Keine Transaktion vorhanden" );
+    }
+    return transaction;
+  }
+
+  private static Transaction requireWritableTransaction()
+  {
+    final var transaction = requireTransaction();
+    transaction.validateForWriteAccess();
+    return transaction;
+  }
+}
@@ -0,0 +1,22 @@
+package link.biosmarcel.presentation.persistence;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import java.util.function.Function;
+
+/**
+ * Deklariert eine indizierbare Eigenschaft eines {@link TransactionalObject transaktionalen Objekts}. Die Deklaration
+ * liegt als Konstante in der jeweiligen Klasse (z.B. {@code User.NAME}), die Indizes selbst werden von den Besitzern
+ * der jeweiligen Collection gehalten.
+ *
+ * <p>Der Extractor muss über die normalen Getter gehen, da Keys auch im Read-Kontext berechnet werden. Liefert er
+ * {@code null}, wird das Objekt nicht indiziert.
+ *
+ * @param name für Fehlermeldungen
+ */
+public record IndexedProperty<Value extends TransactionalObject, Key>(
+    String name,
+    Function<Value, @Nullable Key> extractor
+)
+{
+}
@@ -0,0 +1,67 @@
+package link.biosmarcel.presentation.persistence;
+
+import org.eclipse.serializer.reference.Lazy;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Findet die {@link Lazy}-Felder eines Objekts, z.B. um deren Daten nach einem Import zu entladen, ohne dass jedes
+ * Domain-Objekt seine Lazy-Referenzen selbst melden muss. Wie beim Persistieren wird nur die erste Ebene betrachtet,
+ * transiente Felder werden ignoriert.
+ */
+final class LazyFields
+{
+  private static final ClassValue<Field[]> FIELDS = new ClassValue<>()
+  {
+    @Override
+    protected Field[] computeValue( final Class<?> type )
+    {
+      final var fields = new ArrayList<Field>();
+      for ( Class<?> current = type;
+          current != null && current != Object.class && current != TransactionalObject.class;
+          current = current.getSuperclass() )
+      {
+        for ( final var field : current.getDeclaredFields() )
+        {
+          final int modifiers = field.getModifiers();
+          if ( !Modifier.isStatic( modifiers ) && !Modifier.isTransient( modifiers )
+              && Lazy.class.isAssignableFrom( field.getType() ) )
+          {
+            field.setAccessible( true );
+            fields.add( field );
+          }
+        }
+      }
+      return fields.toArray( new Field[ 0 ] );
+    }
+  };
+
+  private LazyFields()
+  {
+  }
+
+  /**
+   * Übergibt alle gesetzten Lazy-Felder des Objekts an den Consumer.
+   */
+  static void forEach( final Object object, final Consumer<Lazy<?>> consumer )
+  {
+    final Field[] fields = FIELDS.get( object.getClass() );
+    try
+    {
+      for ( final var field : fields )
+      {
+        if ( field.get( object ) instanceof final Lazy<?> lazy )
+        {
+          consumer.accept( lazy );
+        }
+      }
+    }
+    catch ( final IllegalAccessException exception )
+    {
+      throw new IllegalStateException( "Lazy-Felder konnten nicht gelesen werden: " + object.getClass(), exception );
+    }
+  }
+}
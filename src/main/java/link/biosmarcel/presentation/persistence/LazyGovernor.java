@@ -0,0 +1,265 @@
+package link.biosmarcel.presentation.persistence;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.serializer.persistence.types.PersistenceRetrieving;
+import org.eclipse.serializer.reference.Lazy;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Hält den Speicherverbrauch geladener {@link Lazy}-Referenzen unter einem Budget. Transaktionen melden beim Beenden,
+ * welche Lazy-Referenzen sie über {@link TransactionalObject#getLazy(Lazy)} verwendet haben. Wird das Budget
+ * überschritten, werden die am längsten nicht verwendeten Referenzen {@link Lazy#clear() entladen}.
+ *
+ * <p>Entladen werden nur bereits gespeicherte Referenzen und nur dann, wenn kein Writer aktiv ist und keine
+ * ungespeicherten Batches existieren, da sonst ungespeicherte Änderungen verloren gehen könnten. Das stellt der
+ * {@link StorageImpl} sicher, indem er {@link #evictIfOverBudget()} nur nach einem Flush bzw. am Ende eines Read-Calls
+ * aufruft. {@link Transaction#deferUnload(Lazy)} ist damit nur noch für Spezialfälle wie Massenverarbeitung nötig.
+ *
+ * <p>Die Größe der Daten wird nur grob geschätzt, siehe {@link #estimateSize(Object)}.
+ *
+ * <p>Zusätzlich können über {@link #prefetch(Collection)} viele Lazy-Referenzen auf einmal geladen werden.
+ */
+public final class LazyGovernor
+{
+  /** Das Budget, falls keines angegeben wird: ein Viertel des maximalen Heaps. */
+  public static final long DEFAULT_BUDGET_BYTES = Runtime.getRuntime().maxMemory() / 4;
+
+  private final ToLongFunction<Object>                  sizeEstimator;
+  private final Supplier<? extends PersistenceRetrieving> loaderFactory;
+  private final StorageListener                         listener;
+
+  /**
+   * Die geladenen Referenzen mit ihrer geschätzten Größe, in der Reihenfolge des letzten Zugriffs. Die Referenzen werden
+   * nur schwach gehalten, da ersetzte Lazy-Referenzen, z.B. nach dem Ändern des Inhalts einer Notiz, sonst samt ihrer
+   * Daten bis zur nächsten Verdrängung im Speicher blieben.
+   */
+  private final LinkedHashMap<ResidentKey, Long> resident  = new LinkedHashMap<>( 1024, 0.75f, true );
+  /** Bekommt die Keys aus {@link #resident}, deren Referenz nicht mehr erreichbar ist. */
+  private final ReferenceQueue<Lazy<?>>          collected = new ReferenceQueue<>();
+
+  private volatile long budgetBytes;
+  private volatile long residentBytes = 0;
+
+  /**
+   * @param loaderFactory liefert einen Loader für {@link #prefetch(Collection)}
+   */
+  LazyGovernor(
+      final long budgetBytes,
+      final ToLongFunction<Object> sizeEstimator,
+      final Supplier<? extends PersistenceRetrieving> loaderFactory,
+      final StorageListener listener )
+  {
+    this.budgetBytes = budgetBytes;
+    this.sizeEstimator = sizeEstimator;
+    this.loaderFactory = loaderFactory;
+    this.listener = listener;
+  }
+
+  public long getBudgetBytes()
+  {
+    return budgetBytes;
+  }
+
+  /**
+   * Ändert das Budget. Wird erst bei der nächsten Gelegenheit durchgesetzt, siehe {@link #evictIfOverBudget()}.
+   */
+  public void setBudgetBytes( final long budgetBytes )
+  {
+    this.budgetBytes = budgetBytes;
+  }
+
+  public synchronized long getResidentBytes()
+  {
+    expungeCollected();
+    return residentBytes;
+  }
+
+  /**
+   * Wird von der {@link Transaction} beim Beenden aufgerufen.
+   */
+  synchronized void touched( final Collection<Lazy<?>> lazies )
+  {
+    expungeCollected();
+    for ( final var lazy : lazies )
+    {
+      // Das get aktualisiert die Reihenfolge, der Key wird dafür nur temporär benötigt.
+      if ( resident.get( new ResidentKey( lazy, null ) ) == null )
+      {
+        final Object value = lazy.peek();
+        if ( value != null )
+        {
+          final long size = sizeEstimator.applyAsLong( value );
+          resident.put( new ResidentKey( lazy, collected ), size );
+          residentBytes += size;
+        }
+      }
+    }
+  }
+
+  /**
+   * Lädt alle noch nicht geladenen, gespeicherten Referenzen mit einer einzigen Anfrage an den Storage, statt einzeln
+   * bei jedem {@link Lazy#get()}. Die Objekt-IDs werden dabei aufsteigend sortiert, was in etwa der Reihenfolge
+   * entspricht, in der die Daten geschrieben wurden, wodurch eher sequenziell gelesen wird.
+   */
+  void prefetch( final Collection<? extends Lazy<?>> lazies )
+  {
+    final long[] objectIds = new long[ lazies.size() ];
+    int count = 0;
+    for ( final var lazy : lazies )
+    {
+      if ( lazy instanceof final Lazy.Default<?> stored && !stored.isLoaded() && stored.isStored() )
+      {
+        objectIds[ count++ ] = stored.objectId();
+      }
+    }
+    if ( count == 0 )
+    {
+      return;
+    }
+    Arrays.sort( objectIds, 0, count );
+
+    final var loaded = new ArrayList<Object>( count );
+    final Consumer<Object> collector = loaded::add;
+    loaderFactory.get().collect( collector, Arrays.copyOf( objectIds, count ) );
+
+    // Die geladenen Objekte liegen nun in der Object-Registry. Lazy#get() findet sie dort, ohne erneut auf den Storage
+    // zuzugreifen, solange sie bis dahin stark referenziert werden.
+    for ( final var lazy : lazies )
+    {
+      lazy.get();
+    }
+    Reference.reachabilityFence( loaded );
+  }
+
+  boolean isOverBudget()
+  {
+    // Ohne Synchronisation, da dies bei jedem Read-Call geprüft wird. Ein veralteter Wert verzögert nur das Entladen.
+    return residentBytes > budgetBytes;
+  }
+
+  /**
+   * Entlädt die am längsten nicht verwendeten Referenzen, bis das Budget wieder eingehalten wird. <b>Darf nur
+   * aufgerufen werden, während kein Writer aktiv ist und keine ungespeicherten Batches existieren.</b>
+   */
+  synchronized void evictIfOverBudget()
+  {
+    expungeCollected();
+    if ( residentBytes <= budgetBytes )
+    {
+      return;
+    }
+
+    int evicted = 0;
+    final long before = residentBytes;
+    final Iterator<Map.Entry<ResidentKey, Long>> iterator = resident.entrySet().iterator();
+    while ( residentBytes > budgetBytes && iterator.hasNext() )
+    {
+      final var entry = iterator.next();
+      final var lazy = entry.getKey().get();
+      if ( lazy == null || !lazy.isLoaded() )
+      {
+        // Wurde bereits anderweitig entladen, z.B. über deferUnload, oder wird nicht mehr referenziert.
+        iterator.remove();
+        residentBytes -= entry.getValue();
+      }
+      else if ( lazy.isStored() )
+      {
+        lazy.clear();
+        iterator.remove();
+        residentBytes -= entry.getValue();
+        evicted++;
+      }
+      // Noch nie gespeicherte Referenzen können nicht entladen werden, da die Daten sonst verloren wären.
+    }
+
+    if ( evicted > 0 )
+    {
+      listener.lazyEvicted( evicted, before - residentBytes );
+    }
+  }
+
+  /**
+   * Entfernt die Einträge der Referenzen, die nicht mehr erreichbar sind, z.B. weil sie durch eine neue ersetzt wurden.
+   */
+  private void expungeCollected()
+  {
+    for ( Reference<? extends Lazy<?>> key; ( key = collected.poll() ) != null; )
+    {
+      final Long size = resident.remove( key );
+      if ( size != null )
+      {
+        residentBytes -= size;
+      }
+    }
+  }
+
+  /**
+   * Grobe Schätzung des Speicherverbrauchs eines geladenen Wertes. Für Strings und Arrays wird der Inhalt
+   * berücksichtigt, für alle anderen Objekte wird eine Pauschale angenommen, da ein genaues Durchlaufen des
+   * Objekt-Graphen zu teuer wäre.
+   */
+  public static long estimateSize( final Object value )
+  {
+    return switch ( value )
+    {
+      // Ohne Compact Strings zwei Bytes pro Zeichen, wir schätzen lieber zu hoch.
+      case final String string -> 40 + 2L * string.length();
+      case final byte[] bytes -> 16 + bytes.length;
+      case final char[] chars -> 16 + 2L * chars.length;
+      case final Collection<?> collection -> 32 + 16L * collection.size();
+      default -> 64;
+    };
+  }
+
+  /**
+   * Schwacher Key für {@link #resident}. {@link Lazy} überschreibt {@link Object#equals(Object)} nicht, verglichen
+   * wird also über die Identität der Referenz. Nach dem Einsammeln ist ein Key nur noch zu sich selbst gleich, kann
+   * also weiterhin entfernt werden.
+   */
+  private static final class ResidentKey extends WeakReference<Lazy<?>>
+  {
+    private final int hash;
+
+    /**
+     * @param queue {@code null} für Keys, die nur zum Nachschlagen verwendet werden
+     */
+    private ResidentKey( final Lazy<?> lazy, final @Nullable ReferenceQueue<Lazy<?>> queue )
+    {
+      super( lazy, queue );
+      this.hash = System.identityHashCode( lazy );
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return hash;
+    }
+
+    @Override
+    public boolean equals( final Object other )
+    {
+      if ( this == other )
+      {
+        return true;
+      }
+      if ( !( other instanceof final ResidentKey key ) )
+      {
+        return false;
+      }
+      final Lazy<?> lazy = get();
+      return lazy != null && lazy == key.get();
+    }
+  }
+}
@@ -0,0 +1,222 @@
+package link.biosmarcel.presentation.persistence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Verteilt lesende Arbeit innerhalb von {@link StorageAccess#readParallel(BiFunction)} über einen
+ * {@link ForkJoinPool} auf mehrere Threads, z.B. für Reports über alle Benutzer und deren Notizen.
+ *
+ * <p>Da {@link Transactions} an den Thread gebunden ist, hätten Worker-Threads normalerweise keine Transaktion und
+ * jeder Getter würde über {@link TransactionalObject#requireReadAccess()} fehlschlagen. Daher bekommt jeder Worker für
+ * die Dauer seiner Teilaufgabe seine eigene Read-Transaktion, genau wie bei einem normalen Read-Call. Die Locks hält
+ * währenddessen der aufrufende Thread, der auf das Ergebnis wartet, somit kann kein Writer dazwischenkommen.
+ *
+ * <p>Die übergebenen Funktionen laufen parallel und müssen daher thread-safe sein. Wie bei jedem Read dürfen sie
+ * nichts verändern. Außerdem dürfen sie keine weiteren Calls auf den {@link StorageAccess} machen, auch keine Reads:
+ * Ein Worker hält selbst keinen Lock und würde sich beim Anfordern hinter einem wartenden Writer einreihen, der
+ * wiederum auf den aufrufenden Thread wartet. Der {@link StorageImpl} lehnt solche Calls daher ab.
+ *
+ * <p>Die Worker laufen in einem eigenen Pool, damit dort keine fremden Aufgaben mit eigenen Transaktionen oder Locks
+ * laufen und umgekehrt.
+ */
+@org.eclipse.jdt.annotation.NonNullByDefault
+public final class ParallelReads
+{
+  /** Anzahl der Teilaufgaben pro Thread, damit ungleich teure Elemente trotzdem gleichmäßig verteilt werden. */
+  private static final int TASKS_PER_THREAD = 4;
+
+  private final ForkJoinPool          pool;
+  private final Supplier<Transaction> readTransactions;
+
+  /**
+   * @param parallelism Anzahl der Worker
+   * @param readTransactions liefert die Read-Transaktion des aktuellen Threads
+   */
+  ParallelReads( final int parallelism, final Supplier<Transaction> readTransactions )
+  {
+    this.pool = new ForkJoinPool( parallelism, pool ->
+    {
+      final ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread( pool );
+      worker.setName( "storage-parallel-read-" + worker.getPoolIndex() );
+      worker.setDaemon( true );
+      return worker;
+    }, null, false );
+    this.readTransactions = readTransactions;
+  }
+
+  /**
+   * @return {@code true} falls der aktuelle Thread ein Worker dieses Pools ist
+   */
+  boolean isWorkerThread()
+  {
+    return Thread.currentThread() instanceof final ForkJoinWorkerThread worker && worker.getPool() == pool;
+  }
+
+  /**
+   * Beendet die Worker, laufende Teilaufgaben werden noch abgeschlossen.
+   */
+  void shutdown()
+  {
+    pool.shutdown();
+  }
+
+  /**
+   * Wie {@link java.util.stream.Stream#reduce(Object, BiFunction, BinaryOperator)}. Die Teilergebnisse werden in der
+   * Reihenfolge der Elemente kombiniert, {@code combiner} muss also nur assoziativ sein.
+   *
+   * @param identity Startwert jeder Teilaufgabe, muss neutral bezüglich {@code combiner} sein
+   */
+  public <Item, Partial> Partial reduce(
+      final List<? extends Item> items,
+      final Partial identity,
+      final BiFunction<Partial, ? super Item, Partial> accumulator,
+      final BinaryOperator<Partial> combiner )
+  {
+    validateReadContext();
+    if ( items.isEmpty() )
+    {
+      return identity;
+    }
+
+    final List<? extends Item> indexed = items instanceof RandomAccess ? items : new ArrayList<>( items );
+    final int threshold = Math.max( 1, indexed.size() / ( pool.getParallelism() * TASKS_PER_THREAD ) );
+    return pool.invoke( new ReduceTask<>( indexed, 0, indexed.size(), threshold, identity, accumulator, combiner ) );
+  }
+
+  /**
+   * @return alle Elemente, auf die das Prädikat zutrifft, in ursprünglicher Reihenfolge
+   */
+  public <Item> List<Item> filter( final List<? extends Item> items, final Predicate<? super Item> predicate )
+  {
+    final List<Item> matches = reduce( items, List.of(),
+        ( partial, item ) ->
+        {
+          if ( !predicate.test( item ) )
+          {
+            return partial;
+          }
+          final List<Item> result = partial.isEmpty() ? new ArrayList<>() : partial;
+          result.add( item );
+          return result;
+        },
+        ( left, right ) ->
+        {
+          if ( left.isEmpty() )
+          {
+            return right;
+          }
+          if ( !right.isEmpty() )
+          {
+            left.addAll( right );
+          }
+          return left;
+        } );
+    return Collections.unmodifiableList( matches );
+  }
+
+  public <Item> long count( final List<? extends Item> items, final Predicate<? super Item> predicate )
+  {
+    return reduce( items, 0L, ( count, item ) -> predicate.test( item ) ? count + 1 : count, Long::sum );
+  }
+
+  /**
+   * Die Worker verlassen sich darauf, dass der aufrufende Thread alle Read-Locks hält. Dies ist nur im äußersten
+   * Read-Call der Fall, nicht aber z.B. in einem geschachtelten Read innerhalb eines Aggregat-Writes.
+   */
+  private void validateReadContext()
+  {
+    final var transaction = Transactions.getTransaction();
+    if ( transaction == null || transaction != readTransactions.get() )
+    {
+      throw new IllegalStateException( "Parallele Reads sind nur direkt innerhalb von readParallel möglich" );
+    }
+  }
+
+  /**
+   * Führt die Arbeit immer mit der Read-Transaktion des aktuellen Threads aus und stellt danach die vorherige wieder
+   * her. Diese ist entweder dieselbe, beim aufrufenden Thread, der beim Warten selbst Teilaufgaben übernimmt, bzw. bei
+   * einem Worker, der innerhalb einer Teilaufgabe auf eine andere wartet, oder es gibt keine.
+   */
+  private <Result> Result withReadTransaction( final Supplier<Result> work )
+  {
+    final Transaction previous = Transactions.getTransaction();
+    final Transaction transaction = readTransactions.get();
+    Transactions.setTransaction( transaction );
+    try
+    {
+      return work.get();
+    }
+    finally
+    {
+      // Die Locks hält weiterhin der aufrufende Thread, Entladen ist hier also genauso sicher wie am Ende eines Reads.
+      // Der aufrufende Thread entlädt dagegen erst am Ende seines Read-Calls.
+      if ( previous != transaction )
+      {
+        transaction.releaseDeferredUnloads();
+      }
+      Transactions.setTransaction( previous );
+    }
+  }
+
+  private final class ReduceTask<Item, Partial> extends RecursiveTask<Partial>
+  {
+    private final List<? extends Item>                       items;
+    private final int                                        from;
+    private final int                                        to;
+    private final int                                        threshold;
+    private final Partial                                    identity;
+    private final BiFunction<Partial, ? super Item, Partial> accumulator;
+    private final BinaryOperator<Partial>                    combiner;
+
+    private ReduceTask(
+        final List<? extends Item> items,
+        final int from,
+        final int to,
+        final int threshold,
+        final Partial identity,
+        final BiFunction<Partial, ? super Item, Partial> accumulator,
+        final BinaryOperator<Partial> combiner )
+    {
+      this.items = items;
+      this.from = from;
+      this.to = to;
+      this.threshold = threshold;
+      this.identity = identity;
+      this.accumulator = accumulator;
+      this.combiner = combiner;
+    }
+
+    @Override
+    protected Partial compute()
+    {
+      if ( to - from <= threshold )
+      {
+        return withReadTransaction( () ->
+        {
+          Partial partial = identity;
+          for ( int i = from; i < to; i++ )
+          {
+            partial = accumulator.apply( partial, items.get( i ) );
+          }
+          return partial;
+        } );
+      }
+
+      final int middle = ( from + to ) >>> 1;
+      final var left = new ReduceTask<>( items, from, middle, threshold, identity, accumulator, combiner );
+      left.fork();
+      final Partial right = new ReduceTask<>( items, middle, to, threshold, identity, accumulator, combiner ).compute();
+      return combiner.apply( left.join(), right );
+    }
+  }
+}
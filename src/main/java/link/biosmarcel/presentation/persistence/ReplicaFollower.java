@@ -0,0 +1,224 @@
+package link.biosmarcel.presentation.persistence;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Eine nur lesbare Kopie des Datenbestands in einem anderen Prozess, die über das {@link CommitLog} eines
+ * {@link ReplicationLeader} aktuell gehalten wird. Damit lassen sich Reads auf mehrere JVMs verteilen und es steht ein
+ * Standby bereit, der bei einem Ausfall des Leaders per {@link #promote()} übernehmen kann.
+ *
+ * <p>Der Follower hat einen eigenen {@link StorageImpl} mit eigenem Verzeichnis und wendet jeden Eintrag des Logs in
+ * einem eigenen Write an. Reads sehen also immer ganze Einträge, aber nicht zwingend ganze Transaktionen des Leaders,
+ * falls diese auf mehrere Einträge verteilt wurden. Nach jedem Durchlauf wird die Position im Log in einer Datei
+ * festgehalten, damit ein Neustart dort fortsetzt. Läuft gerade ein Snapshot, ist dies die Position seines Anfangs, da
+ * sich der Follower nur im Speicher merkt, was der Snapshot bereits enthielt. Ohne erneutes Anwenden des gesamten
+ * Snapshots blieben nach einem Neustart sonst beim Leader gelöschte Objekte erhalten. Da das Anwenden idempotent ist,
+ * schadet es nicht, wenn dabei Einträge erneut angewendet werden.
+ *
+ * <p>Alle Zugriffe auf die Daten müssen über {@link #read(Consumer)} bzw. {@link #readReturn(Function)} laufen. Writes
+ * auf den übergebenen {@link StorageImpl} würden beim nächsten Snapshot des Leaders überschrieben.
+ */
+@org.eclipse.jdt.annotation.NonNullByDefault
+public final class ReplicaFollower implements Closeable
+{
+  private static final System.Logger logger = System.getLogger( ReplicaFollower.class.getName() );
+
+  public static final Duration DEFAULT_POLL_INTERVAL = Duration.ofMillis( 10 );
+
+  private final StorageImpl              replica;
+  private final CommitLog.Reader         log;
+  private final Path                     positionFile;
+  private final ReplicationCodec.Applier applier = new ReplicationCodec.Applier();
+
+  /** Eintrag, dessen Anwenden fehlgeschlagen ist und der beim nächsten Durchlauf erneut versucht wird. */
+  private byte @Nullable []                  pending;
+  /** Position von {@link #pending}. */
+  private CommitLog.Position                 pendingPosition;
+  /** Position hinter dem zuletzt angewendeten Eintrag. */
+  private CommitLog.Position                 appliedPosition;
+  /** Position des Eintrags mit dem Anfang des laufenden Snapshots, siehe {@link ReplicationCodec.Applier#inSnapshot()}. */
+  private CommitLog.Position                 snapshotPosition;
+  private @Nullable ScheduledExecutorService executor;
+
+  /**
+   * @param replica eigener Storage des Followers, darf nicht das Verzeichnis des Leaders verwenden
+   * @param positionFile hier wird die Position im Log gespeichert, fehlt die Datei, wird beim ältesten Segment begonnen
+   */
+  public ReplicaFollower( final StorageImpl replica, final Path logDirectory, final Path positionFile )
+  {
+    this.replica = replica;
+    this.positionFile = positionFile;
+    this.appliedPosition = readPosition( positionFile, logDirectory );
+    this.pendingPosition = appliedPosition;
+    this.snapshotPosition = appliedPosition;
+    this.log = new CommitLog.Reader( logDirectory, appliedPosition );
+  }
+
+  /**
+   * Beginnt das Log regelmäßig auf neue Einträge zu prüfen.
+   */
+  public synchronized void start( final Duration pollInterval )
+  {
+    stop();
+    final var scheduler = Executors.newSingleThreadScheduledExecutor(
+        Thread.ofPlatform().name( "storage-replica" ).daemon().factory() );
+    final long millis = Math.max( 1, pollInterval.toMillis() );
+    scheduler.scheduleWithFixedDelay( this::pollScheduled, 0, millis, TimeUnit.MILLISECONDS );
+    executor = scheduler;
+  }
+
+  public synchronized void stop()
+  {
+    final var scheduler = executor;
+    if ( scheduler != null )
+    {
+      scheduler.shutdownNow();
+      executor = null;
+    }
+  }
+
+  /**
+   * Wendet alle bisher geschriebenen Einträge an.
+   *
+   * @return Anzahl der angewendeten Einträge
+   */
+  public synchronized int poll()
+  {
+    int applied = 0;
+    try
+    {
+      while ( true )
+      {
+        if ( pending == null )
+        {
+          pendingPosition = log.position();
+          pending = log.poll();
+          if ( pending == null )
+          {
+            break;
+          }
+        }
+        final byte[] entry = pending;
+        final long snapshotsBegun = applier.snapshotsBegun();
+        final var step = replica.writeReturn( ( root, _ ) -> applier.apply( root, entry ) );
+        // Erst nach dem Persistieren, schlägt der Write fehl, wird der Eintrag mit unverändertem Zustand wiederholt.
+        applier.commit( step );
+        pending = null;
+        appliedPosition = log.position();
+        if ( applier.snapshotsBegun() != snapshotsBegun )
+        {
+          snapshotPosition = pendingPosition;
+        }
+        applied++;
+      }
+    }
+    finally
+    {
+      if ( applied > 0 )
+      {
+        writePosition();
+      }
+    }
+    return applied;
+  }
+
+  public void read( final Consumer<StorageRoot> reader )
+  {
+    replica.read( reader );
+  }
+
+  public <Result> Result readReturn( final Function<StorageRoot, Result> reader )
+  {
+    return replica.readReturn( reader );
+  }
+
+  /**
+   * @return die Position hinter dem zuletzt angewendeten Eintrag im Log
+   */
+  public synchronized CommitLog.Position position()
+  {
+    return appliedPosition;
+  }
+
+  /**
+   * Beendet die Replikation nach dem Anwenden aller bereits geschriebenen Einträge, z.B. wenn der Leader ausgefallen
+   * ist. Danach darf der Storage ganz normal verwendet, also auch beschrieben werden.
+   *
+   * @return der Storage des Followers
+   */
+  public synchronized StorageImpl promote()
+  {
+    stop();
+    poll();
+    log.close();
+    logger.log( System.Logger.Level.INFO, "Replikat übernimmt ab Position " + appliedPosition );
+    return replica;
+  }
+
+  @Override
+  public synchronized void close()
+  {
+    stop();
+    log.close();
+  }
+
+  private void pollScheduled()
+  {
+    // Der Scheduler darf durch eine Exception nicht beendet werden, der Eintrag wird im nächsten Durchlauf wiederholt.
+    try
+    {
+      poll();
+    }
+    catch ( final RuntimeException exception )
+    {
+      logger.log( System.Logger.Level.ERROR, "Eintrag konnte nicht angewendet werden", exception );
+    }
+  }
+
+  /**
+   * Ein fehlgeschlagener Eintrag wird nach einem Neustart also wiederholt, ein unvollständiger Snapshot komplett.
+   */
+  private void writePosition()
+  {
+    final CommitLog.Position restart = applier.inSnapshot() ? snapshotPosition : appliedPosition;
+    try
+    {
+      final Path temporary = positionFile.resolveSibling( positionFile.getFileName() + ".tmp" );
+      Files.writeString( temporary, restart.toString() );
+      Files.move( temporary, positionFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+    catch ( final IOException exception )
+    {
+      throw new UncheckedIOException( "Position konnte nicht gespeichert werden: " + positionFile, exception );
+    }
+  }
+
+  private static CommitLog.Position readPosition( final Path positionFile, final Path logDirectory )
+  {
+    if ( !Files.isRegularFile( positionFile ) )
+    {
+      return CommitLog.Reader.oldest( logDirectory );
+    }
+    try
+    {
+      return CommitLog.Position.parse( Files.readString( positionFile ) );
+    }
+    catch ( final IOException exception )
+    {
+      throw new UncheckedIOException( "Position konnte nicht gelesen werden: " + positionFile, exception );
+    }
+  }
+}
@@ -0,0 +1,455 @@
+package link.biosmarcel.presentation.persistence;
+
+import link.biosmarcel.presentation.persistence.model.Note;
+import link.biosmarcel.presentation.persistence.model.Permissions;
+import link.biosmarcel.presentation.persistence.model.User;
+import org.eclipse.jdt.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Das Format der Einträge im {@link CommitLog} zwischen {@link ReplicationLeader} und {@link ReplicaFollower}.
+ *
+ * <p>Die Records enthalten nicht die Änderung selbst, sondern den vollständigen aktuellen Stand des Benutzers bzw. der
+ * Notiz, oder dass diese nicht mehr existiert. Das Anwenden ist dadurch idempotent: Wird ein Eintrag nach einem
+ * Neustart des Followers erneut angewendet oder kommt ein Record doppelt, ergibt sich trotzdem derselbe Stand.
+ */
+@org.eclipse.jdt.annotation.NonNullByDefault
+final class ReplicationCodec
+{
+  private ReplicationCodec()
+  {
+  }
+
+  private enum RecordType
+  {
+    USER,
+    USER_REMOVED,
+    NOTE,
+    NOTE_REMOVED,
+    /** Ab hier folgt der vollständige Datenbestand, Einträge können bis {@link #SNAPSHOT_END} reichen. */
+    SNAPSHOT_BEGIN,
+    /** Alles, was seit {@link #SNAPSHOT_BEGIN} nicht vorkam, existiert beim Leader nicht mehr. */
+    SNAPSHOT_END
+  }
+
+  /**
+   * Schreibt Records und übergibt diese gebündelt als Einträge an den Sink. Die Methoden für Benutzer und Notizen lesen
+   * über die Getter und dürfen daher nur im Read-Kontext aufgerufen werden.
+   */
+  static final class Encoder
+  {
+    private final int              maxEntryBytes;
+    private final Consumer<byte[]> sink;
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream      out   = new DataOutputStream( bytes );
+
+    /**
+     * @param maxEntryBytes ab dieser Größe wird ein Eintrag abgeschlossen, auch wenn dadurch zusammengehörige
+     *     Änderungen auf mehrere Einträge verteilt werden
+     */
+    Encoder( final int maxEntryBytes, final Consumer<byte[]> sink )
+    {
+      this.maxEntryBytes = maxEntryBytes;
+      this.sink = sink;
+    }
+
+    void user( final User user )
+    {
+      write( RecordType.USER, () ->
+      {
+        writeId( user.getId() );
+        writeString( user.getName() );
+        writeString( user.getPassword() );
+        writeString( user.getPermissions().name() );
+      } );
+    }
+
+    void userRemoved( final UUID userId )
+    {
+      write( RecordType.USER_REMOVED, () -> writeId( userId ) );
+    }
+
+    void note( final UUID userId, final Note note )
+    {
+      write( RecordType.NOTE, () ->
+      {
+        writeId( userId );
+        writeId( note.getId() );
+        writeString( note.getName() );
+        final LocalDate date = note.getDate();
+        writeString( date == null ? null : date.toString() );
+        writeString( note.getContent() );
+      } );
+    }
+
+    void noteRemoved( final UUID userId, final UUID noteId )
+    {
+      write( RecordType.NOTE_REMOVED, () ->
+      {
+        writeId( userId );
+        writeId( noteId );
+      } );
+    }
+
+    void snapshotBegin()
+    {
+      write( RecordType.SNAPSHOT_BEGIN, () ->
+      {
+      } );
+    }
+
+    void snapshotEnd()
+    {
+      write( RecordType.SNAPSHOT_END, () ->
+      {
+      } );
+    }
+
+    /**
+     * Übergibt die bisher geschriebenen Records als letzten Eintrag an den Sink.
+     */
+    void flush()
+    {
+      if ( bytes.size() > 0 )
+      {
+        sink.accept( bytes.toByteArray() );
+        bytes.reset();
+      }
+    }
+
+    /**
+     * Verwirft die noch nicht übergebenen Records, z.B. nach einem Fehler mitten in einem Record.
+     */
+    void discard()
+    {
+      bytes.reset();
+    }
+
+    private void write( final RecordType type, final IoAction body )
+    {
+      try
+      {
+        out.writeByte( type.ordinal() );
+        body.run();
+      }
+      catch ( final IOException exception )
+      {
+        // Kann bei einem ByteArrayOutputStream nicht auftreten.
+        throw new UncheckedIOException( exception );
+      }
+      if ( bytes.size() >= maxEntryBytes )
+      {
+        flush();
+      }
+    }
+
+    private void writeId( final UUID id ) throws IOException
+    {
+      out.writeLong( id.getMostSignificantBits() );
+      out.writeLong( id.getLeastSignificantBits() );
+    }
+
+    /**
+     * Nicht über {@link DataOutputStream#writeUTF(String)}, da dies auf 64 KB begrenzt ist.
+     */
+    private void writeString( final @Nullable String value ) throws IOException
+    {
+      if ( value == null )
+      {
+        out.writeInt( -1 );
+        return;
+      }
+      final byte[] encoded = value.getBytes( StandardCharsets.UTF_8 );
+      out.writeInt( encoded.length );
+      out.write( encoded );
+    }
+
+    @FunctionalInterface
+    private interface IoAction
+    {
+      void run() throws IOException;
+    }
+  }
+
+  /**
+   * Wendet Einträge auf einen Datenbestand an. Muss im Write-Kontext aufgerufen werden und merkt sich zwischen den
+   * Einträgen, welche Objekte seit {@link RecordType#SNAPSHOT_BEGIN} vorkamen. Da ein Write noch beim Persistieren
+   * fehlschlagen kann, ändert {@link #apply(StorageRoot, byte[])} diesen Zustand nicht selbst, sondern liefert einen
+   * {@link Step}, der erst nach dem erfolgreichen Write per {@link #commit(Step)} übernommen wird.
+   */
+  static final class Applier
+  {
+    private @Nullable Set<UUID> snapshotUsers;
+    private @Nullable Set<UUID> snapshotNotes;
+    /** Anzahl der bisher gelesenen {@link RecordType#SNAPSHOT_BEGIN}, damit der Aufrufer deren Eintrag erkennt. */
+    private long                snapshotsBegun;
+
+    /**
+     * @return {@code true} falls seit dem letzten {@link RecordType#SNAPSHOT_BEGIN} noch kein
+     *     {@link RecordType#SNAPSHOT_END} kam. Die Mengen des Snapshots liegen nur im Speicher, nach einem Neustart
+     *     muss der Snapshot also ab seinem Anfang erneut angewendet werden.
+     */
+    boolean inSnapshot()
+    {
+      return snapshotUsers != null;
+    }
+
+    long snapshotsBegun()
+    {
+      return snapshotsBegun;
+    }
+
+    /**
+     * Wendet den Eintrag auf den Datenbestand an, ohne den Zustand des Appliers zu verändern.
+     *
+     * @return die Änderungen am Zustand, für {@link #commit(Step)}
+     */
+    Step apply( final StorageRoot root, final byte[] entry )
+    {
+      final var step = new Step( inSnapshot() );
+      final var in = new DataInputStream( new ByteArrayInputStream( entry ) );
+      try
+      {
+        while ( in.available() > 0 )
+        {
+          switch ( RecordType.values()[ in.readUnsignedByte() ] )
+          {
+            case USER -> applyUser( root, step, readId( in ), Objects.requireNonNull( readString( in ) ),
+                Objects.requireNonNull( readString( in ) ),
+                Permissions.valueOf( Objects.requireNonNull( readString( in ) ) ) );
+            case USER_REMOVED -> removeUser( root, readId( in ) );
+            case NOTE -> applyNote( root, step, readId( in ), readId( in ), readString( in ), readDate( in ),
+                readString( in ) );
+            case NOTE_REMOVED -> removeNote( root, readId( in ), readId( in ) );
+            case SNAPSHOT_BEGIN ->
+            {
+              step.active = true;
+              step.began = true;
+              step.users.clear();
+              step.notes.clear();
+              step.snapshotsBegun++;
+            }
+            case SNAPSHOT_END ->
+            {
+              if ( step.active )
+              {
+                finishSnapshot( root, step );
+              }
+              // Sonst lag der Anfang des Snapshots vor der Startposition des Followers.
+              step.active = false;
+            }
+          }
+        }
+      }
+      catch ( final IOException exception )
+      {
+        throw new IllegalStateException( "Eintrag im Commit-Log ist beschädigt", exception );
+      }
+      return step;
+    }
+
+    /**
+     * Übernimmt die Änderungen eines per {@link #apply(StorageRoot, byte[])} angewendeten Eintrags. Darf erst
+     * aufgerufen werden, wenn dessen Write persistiert ist, damit ein fehlgeschlagener Write beim Wiederholen
+     * denselben Zustand sieht.
+     */
+    void commit( final Step step )
+    {
+      if ( !step.active )
+      {
+        snapshotUsers = null;
+        snapshotNotes = null;
+      }
+      else if ( step.began )
+      {
+        snapshotUsers = step.users;
+        snapshotNotes = step.notes;
+      }
+      else
+      {
+        Objects.requireNonNull( snapshotUsers ).addAll( step.users );
+        Objects.requireNonNull( snapshotNotes ).addAll( step.notes );
+      }
+      snapshotsBegun += step.snapshotsBegun;
+    }
+
+    private void applyUser(
+        final StorageRoot root,
+        final Step step,
+        final UUID id,
+        final String name,
+        final String password,
+        final Permissions permissions )
+    {
+      if ( step.active )
+      {
+        step.users.add( id );
+      }
+
+      final User user = root.findUserById( id );
+      if ( user == null )
+      {
+        root.addUser( new User( id, name, password, permissions ) );
+        return;
+      }
+      // Nur tatsächlich geänderte Felder setzen, damit unveränderte Benutzer nicht erneut gespeichert werden.
+      if ( !user.getName().equals( name ) )
+      {
+        user.setName( name );
+      }
+      if ( !user.getPassword().equals( password ) )
+      {
+        user.setPassword( password );
+      }
+      if ( user.getPermissions() != permissions )
+      {
+        user.setPermissions( permissions );
+      }
+    }
+
+    private void applyNote(
+        final StorageRoot root,
+        final Step step,
+        final UUID userId,
+        final UUID id,
+        final @Nullable String name,
+        final @Nullable LocalDate date,
+        final @Nullable String content )
+    {
+      if ( step.active )
+      {
+        step.notes.add( id );
+      }
+
+      final User user = root.findUserById( userId );
+      if ( user == null )
+      {
+        throw new IllegalStateException( "Benutzer der Notiz " + id + " existiert nicht: " + userId );
+      }
+      Note note = user.findNoteById( id );
+      if ( note == null )
+      {
+        note = new Note( id, user );
+        note.setName( name );
+        note.setDate( date );
+        note.setContent( content );
+        user.addNote( note );
+        return;
+      }
+      if ( !Objects.equals( note.getName(), name ) )
+      {
+        note.setName( name );
+      }
+      if ( !Objects.equals( note.getDate(), date ) )
+      {
+        note.setDate( date );
+      }
+      if ( !Objects.equals( note.getContent(), content ) )
+      {
+        note.setContent( content );
+      }
+    }
+
+    private static void removeUser( final StorageRoot root, final UUID id )
+    {
+      final User user = root.findUserById( id );
+      if ( user != null )
+      {
+        root.removeUser( user );
+      }
+    }
+
+    private static void removeNote( final StorageRoot root, final UUID userId, final UUID id )
+    {
+      // Fehlt der Benutzer, wurde er samt seiner Notizen bereits entfernt.
+      final User user = root.findUserById( userId );
+      final Note note = user == null ? null : user.findNoteById( id );
+      if ( user != null && note != null )
+      {
+        user.removeNote( note );
+      }
+    }
+
+    private void finishSnapshot( final StorageRoot root, final Step step )
+    {
+      for ( final var user : new ArrayList<>( root.users() ) )
+      {
+        if ( !step.contains( step.users, snapshotUsers, user.getId() ) )
+        {
+          root.removeUser( user );
+          continue;
+        }
+        for ( final var note : new ArrayList<>( user.notes() ) )
+        {
+          if ( !step.contains( step.notes, snapshotNotes, note.getId() ) )
+          {
+            user.removeNote( note );
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Die Änderungen eines Eintrags am Zustand des {@link Applier}. Beginnt der Eintrag einen Snapshot, ersetzen die
+   * Mengen die bisherigen, sonst werden sie bei {@link Applier#commit(Step)} zu diesen hinzugefügt.
+   */
+  static final class Step
+  {
+    private final Set<UUID> users = new HashSet<>();
+    private final Set<UUID> notes = new HashSet<>();
+    /** Ob nach dem Eintrag ein Snapshot läuft. */
+    private       boolean   active;
+    /** Ob der Eintrag einen Snapshot begonnen hat. */
+    private       boolean   began;
+    private       int       snapshotsBegun;
+
+    private Step( final boolean active )
+    {
+      this.active = active;
+    }
+
+    private boolean contains( final Set<UUID> own, final @Nullable Set<UUID> committed, final UUID id )
+    {
+      return own.contains( id ) || ( !began && committed != null && committed.contains( id ) );
+    }
+  }
+
+  private static UUID readId( final DataInputStream in ) throws IOException
+  {
+    return new UUID( in.readLong(), in.readLong() );
+  }
+
+  private static @Nullable String readString( final DataInputStream in ) throws IOException
+  {
+    final int length = in.readInt();
+    if ( length < 0 )
+    {
+      return null;
+    }
+    final byte[] encoded = new byte[ length ];
+    in.readFully( encoded );
+    return new String( encoded, StandardCharsets.UTF_8 );
+  }
+
+  private static @Nullable LocalDate readDate( final DataInputStream in ) throws IOException
+  {
+    final String value = readString( in );
+    return value == null ? null : LocalDate.parse( value );
+  }
+}
@@ -0,0 +1,174 @@
+package link.biosmarcel.presentation.persistence;
+
+import link.biosmarcel.presentation.persistence.model.Note;
+import link.biosmarcel.presentation.persistence.model.User;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Schreibt alle persistierten Änderungen eines {@link StorageImpl} in ein {@link CommitLog}, aus dem
+ * {@link ReplicaFollower} in anderen Prozessen auf demselben Host ihre eigenen Kopien aktualisieren.
+ *
+ * <p>Der Leader abonniert den {@link ChangeStream} und liest zu jedem {@link ChangeEvent} den aktuellen Stand des
+ * Objekts, siehe {@link ReplicationCodec}. Der Write-Pfad wird dadurch nicht verlangsamt, die Follower hinken dafür
+ * etwas hinterher. Beim Start und immer wenn der {@link ChangeStream} Änderungen verwerfen musste, wird ein
+ * vollständiger Snapshot ins Log geschrieben, sodass Follower danach wieder konsistent sind.
+ *
+ * <p>Verfolgt werden Benutzer und Notizen, nicht jedoch die {@link StorageRoot#getLicense() Lizenz}.
+ */
+@org.eclipse.jdt.annotation.NonNullByDefault
+public final class ReplicationLeader implements Consumer<ChangeStream.ChangeSet>, Closeable
+{
+  private static final System.Logger logger = System.getLogger( ReplicationLeader.class.getName() );
+
+  /** Größere Änderungen werden auf mehrere Einträge verteilt, die der Follower einzeln anwendet. */
+  private static final int MAX_ENTRY_BYTES    = 1024 * 1024;
+  private static final int SNAPSHOT_PAGE_SIZE = 1_000;
+
+  private final StorageImpl              storage;
+  private final CommitLog.Writer         log;
+  private final ReplicationCodec.Encoder encoder;
+
+  private boolean snapshotRequired = true;
+
+  public ReplicationLeader( final StorageImpl storage, final Path logDirectory )
+  {
+    this( storage, logDirectory, CommitLog.DEFAULT_SEGMENT_SIZE );
+  }
+
+  /**
+   * @param segmentSize siehe {@link CommitLog.Writer#Writer(Path, int)}, muss größer als die größte Notiz sein
+   */
+  public ReplicationLeader( final StorageImpl storage, final Path logDirectory, final int segmentSize )
+  {
+    this.storage = storage;
+    this.log = new CommitLog.Writer( logDirectory, segmentSize );
+    this.encoder = new ReplicationCodec.Encoder( Math.min( MAX_ENTRY_BYTES, segmentSize / 2 ), log::append );
+  }
+
+  /**
+   * Abonniert die Änderungen und schreibt anschließend einen Snapshot. Änderungen während des Snapshots landen danach
+   * im Log, da immer der aktuelle Stand geschrieben wird, ist der Follower danach trotzdem aktuell.
+   */
+  public synchronized void start()
+  {
+    storage.changes().subscribe( this );
+    writeSnapshot();
+  }
+
+  @Override
+  public synchronized void accept( final ChangeStream.ChangeSet changeSet )
+  {
+    try
+    {
+      if ( snapshotRequired || changeSet.missed() > 0 )
+      {
+        logger.log( System.Logger.Level.WARNING, "Änderungen wurden verworfen, schreibe Snapshot ..." );
+        writeSnapshot();
+        return;
+      }
+      writeChanges( changeSet.changes() );
+    }
+    catch ( final RuntimeException exception )
+    {
+      // Der Follower ist nun nicht mehr aktuell, erst ein Snapshot stellt dies wieder her.
+      encoder.discard();
+      snapshotRequired = true;
+      throw exception;
+    }
+  }
+
+  /**
+   * @return die Position, an der der nächste Eintrag geschrieben wird
+   */
+  public synchronized CommitLog.Position position()
+  {
+    return log.position();
+  }
+
+  @Override
+  public synchronized void close()
+  {
+    storage.changes().unsubscribe( this );
+    log.close();
+  }
+
+  private void writeChanges( final List<ChangeEvent> changes )
+  {
+    storage.read( root ->
+    {
+      // Benutzer zuerst, da neue Notizen ihren Benutzer beim Follower bereits voraussetzen.
+      for ( final var change : changes )
+      {
+        if ( User.class.isAssignableFrom( change.type() ) )
+        {
+          final var id = (UUID) change.id();
+          final User user = root.findUserById( id );
+          if ( user == null )
+          {
+            encoder.userRemoved( id );
+          }
+          else
+          {
+            encoder.user( user );
+          }
+        }
+      }
+      for ( final var change : changes )
+      {
+        if ( Note.class.isAssignableFrom( change.type() ) )
+        {
+          final var id = (UUID) change.id();
+          final var userId = (UUID) Objects.requireNonNull( change.parentId() );
+          final User user = root.findUserById( userId );
+          final Note note = user == null ? null : user.findNoteById( id );
+          if ( note == null )
+          {
+            encoder.noteRemoved( userId, id );
+          }
+          else
+          {
+            encoder.note( userId, note );
+          }
+        }
+      }
+      encoder.flush();
+    } );
+  }
+
+  /**
+   * Schreibt alle Benutzer samt Notizen, jeden Benutzer in einem eigenen Read, damit Writer nicht für die Dauer des
+   * gesamten Snapshots blockiert werden.
+   */
+  private void writeSnapshot()
+  {
+    encoder.snapshotBegin();
+    final List<UUID> userIds = storage.readReturn( root -> root.users().stream().map( User::getId ).toList() );
+    for ( final var userId : userIds )
+    {
+      storage.read( root ->
+      {
+        final User user = root.findUserById( userId );
+        if ( user == null )
+        {
+          return;
+        }
+        encoder.user( user );
+        final int count = user.notes().size();
+        for ( int from = 0; from < count; from += SNAPSHOT_PAGE_SIZE )
+        {
+          user.forEachNoteWithContent( from, Math.min( from + SNAPSHOT_PAGE_SIZE, count ),
+              note -> encoder.note( userId, note ) );
+        }
+      } );
+    }
+    encoder.snapshotEnd();
+    encoder.flush();
+    snapshotRequired = false;
+  }
+}
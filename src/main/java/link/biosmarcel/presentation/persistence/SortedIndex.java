@@ -0,0 +1,77 @@
+package link.biosmarcel.presentation.persistence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * {@link Index} über einen sortierbaren Key, der Bereichsabfragen wie "alle Notizen zwischen zwei Daten" erlaubt. Ein
+ * Lookup kostet O(log n) plus die Anzahl der gefundenen Objekte.
+ */
+public final class SortedIndex<Key extends Comparable<? super Key>, Value extends TransactionalObject>
+    extends Index<Key, Value>
+{
+  private final ConcurrentSkipListMap<Key, Set<Value>> entries = new ConcurrentSkipListMap<>();
+
+  public SortedIndex( final IndexedProperty<Value, Key> property )
+  {
+    super( property );
+  }
+
+  /**
+   * @param shared siehe {@link Index#Index(IndexedProperty, boolean)}
+   */
+  public SortedIndex( final IndexedProperty<Value, Key> property, final boolean shared )
+  {
+    super( property, shared );
+  }
+
+  /**
+   * @return alle Objekte mit einem Key im Bereich, aufsteigend nach Key sortiert. Objekte mit gleichem Key haben keine
+   *     definierte Reihenfolge.
+   */
+  public List<Value> range( final Key fromInclusive, final Key toExclusive )
+  {
+    refresh();
+    final var result = new ArrayList<Value>();
+    for ( final var values : entries.subMap( fromInclusive, true, toExclusive, false ).values() )
+    {
+      result.addAll( values );
+    }
+    return result;
+  }
+
+  /**
+   * @return alle Objekte mit exakt diesem Key
+   */
+  public List<Value> get( final Key key )
+  {
+    refresh();
+    final Set<Value> values = entries.get( key );
+    return values == null ? List.of() : new ArrayList<>( values );
+  }
+
+  @Override
+  protected void insert( final Key key, final Value value )
+  {
+    entries.computeIfAbsent( key, _ -> ConcurrentHashMap.newKeySet() ).add( value );
+  }
+
+  @Override
+  protected void delete( final Key key, final Value value )
+  {
+    entries.computeIfPresent( key, ( _, values ) ->
+    {
+      values.remove( value );
+      return values.isEmpty() ? null : values;
+    } );
+  }
+
+  @Override
+  protected void deleteAll()
+  {
+    entries.clear();
+  }
+}
@@ -1,9 +1,13 @@
 package link.biosmarcel.presentation.persistence;
 
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 /**
  * <p>
@@ -48,4 +52,157 @@ public interface StorageAccess
    * Aufrufs jedoch nicht.
    */
   <Result> Result writeReturn( final BiFunction<StorageRoot, Transaction, Result> reader );
+
+  /**
+   * Wie {@link #writeAsync(BiFunction, Durability)} mit {@link Durability#DISK}.
+   */
+  <Result> CompletableFuture<Result> writeAsync( final BiFunction<StorageRoot, Transaction, Result> writer );
+
+  /**
+   * Wie {@link #writeReturn(BiFunction)}, jedoch wird nach dem Anwenden der Änderungen im Speicher nicht auf das
+   * Persistieren gewartet. Dieses übernimmt ein dedizierter Writer-Thread. Der Lock wird also genauso lange gehalten
+   * wie bei {@link #writeReturn(BiFunction)}, der aufrufende Thread ist aber unabhängig von der Latenz der Platte.
+   *
+   * <p>Schlägt der Writer selbst fehl, wird wie gewohnt ein Rollback durchgeführt und das Future schlägt fehl.
+   * Schlägt erst das Persistieren fehl, werden die Änderungen aller Transaktionen des Batches im Speicher
+   * zurückgerollt, bevor ein weiterer Writer beginnt. Bei {@link Durability#DISK} schlägt danach das Future fehl, bei
+   * {@link Durability#MEMORY} ist dieses bereits abgeschlossen, der Fehler wird dann nur über
+   * {@link StorageListener#batchFailed(RuntimeException)} gemeldet.
+   *
+   * @param durability wann das Future abgeschlossen wird
+   */
+  <Result> CompletableFuture<Result> writeAsync(
+      final BiFunction<StorageRoot, Transaction, Result> writer,
+      final Durability durability );
+
+  /**
+   * Wie {@link #write(BiConsumer)}, jedoch wird nicht der gesamte Datenbestand exklusiv gelockt, sondern lediglich das
+   * übergebene Aggregat (z.B. ein {@link link.biosmarcel.presentation.persistence.model.User User} samt seiner
+   * Notizen). Schreibzugriffe auf unterschiedliche Aggregate können somit parallel laufen.
+   *
+   * <p><b>Der Writer darf ausschließlich Objekte verändern, die Teil des Aggregats sind.</b> Strukturelle Änderungen
+   * am {@link StorageRoot}, wie z.B. das Hinzufügen eines Benutzers, müssen weiterhin über
+   * {@link #write(BiConsumer)} passieren. Gelesen werden kann innerhalb des Writers alles, was dem Aggregat gehört,
+   * sowie die Strukturen des {@link StorageRoot}. Ändert der Writer Eigenschaften, über welche der {@link StorageRoot}
+   * indiziert, z.B. den Namen eines Benutzers, schlägt er mit einer {@link IllegalStateException} fehl.
+   */
+  <Aggregate extends TransactionalObject> void writeAggregate(
+      final Aggregate aggregate,
+      final BiConsumer<Aggregate, Transaction> writer );
+
+  /**
+   * Wie {@link #writeAggregate(TransactionalObject, BiConsumer)}, jedoch kann hier noch ein Wert zurückgeliefert
+   * werden. Hierbei gilt das Gleiche wie bei {@link #writeReturn(BiFunction)}: Außerhalb des Lock-Kontextes sind die
+   * Daten nicht mehr garantiert konsistent.
+   */
+  <Aggregate extends TransactionalObject, Result> Result writeAggregateReturn(
+      final Aggregate aggregate,
+      final BiFunction<Aggregate, Transaction, Result> writer );
+
+  /**
+   * Wie {@link #readReturn(Function)}, jedoch kann der Reader über {@link ParallelReads} Arbeit auf mehrere Threads
+   * verteilen, z.B. für Reports, die über alle Benutzer und deren Notizen laufen. Die Worker bekommen jeweils eine
+   * eigene Read-Transaktion, sodass {@link TransactionalObject#requireReadAccess()} auch dort funktioniert. Wie bei
+   * {@link #readReturn(Function)} sind Writer für die gesamte Dauer blockiert.
+   *
+   * <p>Muss außerhalb eines Lock-Kontextes aufgerufen werden, da nur dann alle Read-Locks gehalten werden. Innerhalb
+   * der Worker sind keine weiteren Calls auf den Storage erlaubt, siehe {@link ParallelReads}.
+   */
+  <Result> Result readParallel( final BiFunction<StorageRoot, ParallelReads, Result> reader );
+
+  /**
+   * Optimistische Variante von {@link #writeReturn(BiFunction)}, bei der die eigentliche Arbeit ohne Lock passiert:
+   * <ol>
+   *   <li>{@code prepare} läuft ohne Lock, darf nur lesen und berechnet einen Plan, z.B. validierte Eingaben. Die
+   *   Versionen aller dabei gelesenen {@link TransactionalObject transaktionalen Objekte} werden aufgezeichnet.</li>
+   *   <li>{@code apply} läuft im Write-Lock, aber nur, falls sich keines der gelesenen Objekte seitdem verändert hat,
+   *   und wendet den Plan an.</li>
+   * </ol>
+   * Bei einem Konflikt wird {@code prepare} erneut ausgeführt und nach wenigen Versuchen beides zusammen im Lock.
+   * Lohnt sich, wenn {@code prepare} im Vergleich zu {@code apply} teuer ist und Konflikte selten sind.
+   *
+   * <p><b>Aufgezeichnet werden nur Objekte, deren Getter {@link TransactionalObject#requireReadAccess()}
+   * aufrufen.</b> Die transaktionalen Collections zeichnen keine Lesezugriffe auf, da dies jeden Zugriff verteuern
+   * würde. Hängt der Plan von dem Inhalt einer Collection ab (z.B. "nur wenn noch keine Notiz mit diesem Namen
+   * existiert"), muss {@code apply} dies erneut prüfen. {@code prepare} kann mehrfach und parallel zu
+   * Writern laufen, darf daher keine Seiteneffekte haben und muss damit rechnen, inkonsistente Daten zu sehen.
+   */
+  <Plan, Result> Result writeOptimistic(
+      final Function<StorageRoot, Plan> prepare,
+      final BiFunction<Plan, Transaction, Result> apply );
+
+  /**
+   * Wie {@link #writeOptimistic(Function, BiFunction)}, jedoch wird {@code apply} wie bei
+   * {@link #writeAggregateReturn(TransactionalObject, BiFunction)} nur im Lock des Aggregats ausgeführt.
+   */
+  <Aggregate extends TransactionalObject, Plan, Result> Result writeAggregateOptimistic(
+      final Aggregate aggregate,
+      final Function<Aggregate, Plan> prepare,
+      final BiFunction<Plan, Transaction, Result> apply );
+
+  /**
+   * Zweiphasiger Write, bei dem neue Objekte außerhalb des Locks vorbereitet werden:
+   * <ol>
+   *   <li>{@code prepare} läuft ohne Lock in einer eigenen Transaktion. Hier werden neue Objekte erstellt, befüllt und
+   *   validiert. Bereits gespeicherte Objekte dürfen nicht verändert und sollten nicht gelesen werden, da sie
+   *   gleichzeitig von Writern verändert werden können. Sie dürfen lediglich referenziert werden, z.B. als Parent.</li>
+   *   <li>{@code attach} läuft im Write-Lock, übernimmt die vorbereiteten Objekte in die Transaktion und hängt diese in
+   *   den Datenbestand ein.</li>
+   * </ol>
+   * Wirft {@code prepare} eine Exception, z.B. bei ungültigen Eingaben, wird diese ohne Lock und ohne Rollback
+   * weitergereicht, da die neuen Objekte nirgends referenziert werden. Anders als bei
+   * {@link #writeOptimistic(Function, BiFunction)} läuft {@code prepare} genau einmal.
+   *
+   * <p>Innerhalb eines Lock-Kontextes läuft {@code prepare} direkt in der umliegenden Transaktion.
+   */
+  <Prepared, Result> Result writePrepared(
+      final Supplier<Prepared> prepare,
+      final BiFunction<Prepared, Transaction, Result> attach );
+
+  /**
+   * Wie {@link #writePrepared(Supplier, BiFunction)}, jedoch wird {@code attach} wie bei
+   * {@link #writeAggregateReturn(TransactionalObject, BiFunction)} nur im Lock des Aggregats ausgeführt.
+   */
+  <Aggregate extends TransactionalObject, Prepared, Result> Result writeAggregatePrepared(
+      final Aggregate aggregate,
+      final Supplier<Prepared> prepare,
+      final BiFunction<Prepared, Transaction, Result> attach );
+
+  /**
+   * Importiert große Datenmengen, z.B. Millionen von Notizen, ohne dass alle neuen Objekte bis zum Ende in einer
+   * einzigen Transaktion gehalten werden und ohne Leser für die gesamte Dauer zu blockieren:
+   * <ul>
+   *   <li>Je {@code chunkSize} Datensätze werden in einem eigenen {@link #write(BiConsumer) Write} importiert, zwischen
+   *   den Chunks wird der Lock freigegeben. Das Einlesen der Datensätze passiert außerhalb des Locks.</li>
+   *   <li>Die Lazy-Felder aller in einem Chunk geschriebenen Objekte werden nach dem Persistieren automatisch
+   *   entladen, siehe {@link Transaction#deferUnload(org.eclipse.serializer.reference.Lazy)}.</li>
+   *   <li>Während ein Chunk persistiert wird, wird bereits der nächste importiert. Es wartet jedoch höchstens ein Chunk
+   *   auf das Persistieren.</li>
+   * </ul>
+   *
+   * <p>Der Import ist <b>nicht atomar</b>. Schlägt ein Chunk fehl, wird nur dieser zurückgerollt und die Exception
+   * weitergereicht, bereits importierte Chunks bleiben erhalten. Muss außerhalb eines Lock-Kontextes aufgerufen werden.
+   *
+   * @param importer übernimmt einen einzelnen Datensatz in den Datenbestand
+   *
+   * @return Anzahl der importierten Datensätze
+   */
+  <Item> long importAll(
+      final Iterator<? extends Item> records,
+      final int chunkSize,
+      final BiConsumer<StorageRoot, Item> importer );
+
+  /**
+   * Wie {@link #importAll(Iterator, int, BiConsumer)}, der Stream wird danach geschlossen.
+   */
+  default <Item> long importAll(
+      final Stream<? extends Item> records,
+      final int chunkSize,
+      final BiConsumer<StorageRoot, Item> importer )
+  {
+    try ( records )
+    {
+      return importAll( records.iterator(), chunkSize, importer );
+    }
+  }
 }
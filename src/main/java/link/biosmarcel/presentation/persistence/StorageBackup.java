@@ -0,0 +1,334 @@
+package link.biosmarcel.presentation.persistence;
+
+import org.eclipse.store.afs.nio.types.NioFileSystem;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Online-Backup des Storage-Verzeichnisses in ein lokales Zielverzeichnis, ohne den Server zu beenden und ohne Writer
+ * für die Dauer des Kopierens zu blockieren.
+ *
+ * <p>EclipseStore schreibt seine Dateien nur fortlaufend: Neue Daten werden an die aktuelle Datei eines Channels
+ * angehängt, alte Dateien werden beim Housekeeping nicht verändert, sondern irgendwann gelöscht. Daher genügt es, die
+ * Dateigrößen zu einem Zeitpunkt festzuhalten, an dem alle Transaktionen persistiert sind, und danach ohne Lock bis zu
+ * diesen Größen zu kopieren. Writer sind nur für das Festhalten der Größen blockiert. Beim nächsten Backup in dasselbe
+ * Ziel werden nur neue Dateien und die seitdem angehängten Daten kopiert, gelöschte Dateien werden auch im Ziel
+ * entfernt.
+ *
+ * <p>Das neue Backup wird in einem Verzeichnis neben dem Ziel aufgebaut, unveränderte Dateien werden dabei per
+ * Hardlink übernommen. Erst wenn es vollständig ist, ersetzt es das bisherige Backup. Ein abgebrochenes Backup lässt
+ * das bisherige also unverändert.
+ *
+ * <p>Der {@link HousekeepingScheduler} wird während des Backups pausiert. Das eingebaute Housekeeping von EclipseStore
+ * kann jedoch weiterhin Dateien löschen. Fehlt dadurch eine Datei während des Kopierens, wird stattdessen ein
+ * vollständiges Backup über {@link org.eclipse.store.storage.embedded.types.EmbeddedStorageManager#issueFullBackup}
+ * erstellt.
+ */
+@org.eclipse.jdt.annotation.NonNullByDefault
+public final class StorageBackup
+{
+  private static final System.Logger logger = System.getLogger( StorageBackup.class.getName() );
+
+  /** So viele Bytes am Ende einer bereits gesicherten Datei werden verglichen, um umgeschriebene Dateien zu erkennen. */
+  private static final int VERIFY_BYTES = 4096;
+
+  /** Das neue Backup wird erst neben dem Ziel aufgebaut und dann an dessen Stelle verschoben. */
+  private static final String STAGING_SUFFIX  = ".staging";
+  /** Das bisherige Backup, während das neue an dessen Stelle verschoben wird. */
+  private static final String PREVIOUS_SUFFIX = ".previous";
+
+  private final StorageImpl storage;
+  private final Path        sourceDirectory;
+
+  /**
+   * @param sourceDirectory das Verzeichnis des Storages, siehe {@link StorageSettings#directory()}
+   */
+  public StorageBackup( final StorageImpl storage, final Path sourceDirectory )
+  {
+    this.storage = storage;
+    this.sourceDirectory = sourceDirectory;
+  }
+
+  /**
+   * @param copiedFiles Anzahl der Dateien, von denen zumindest ein Teil kopiert wurde
+   * @param copiedBytes Anzahl der kopierten Bytes
+   * @param deletedFiles Anzahl der im Ziel gelöschten Dateien
+   * @param full {@code true} falls ein vollständiges Backup über EclipseStore erstellt werden musste
+   */
+  public record Result(int copiedFiles, long copiedBytes, int deletedFiles, boolean full)
+  {
+  }
+
+  /**
+   * Sichert den aktuellen Stand in das Zielverzeichnis. Liegt dort bereits ein Backup dieses Storages, wird nur
+   * kopiert, was sich seitdem geändert hat. Muss außerhalb eines Lock-Kontextes aufgerufen werden.
+   */
+  public Result backupTo( final Path targetDirectory )
+  {
+    storage.housekeeping().pause();
+    try
+    {
+      recover( targetDirectory );
+      final Path staging = sibling( targetDirectory, STAGING_SUFFIX );
+      final Map<Path, Long> lengths = storage.whileWritesPaused( this::recordLengths );
+      Result result;
+      try
+      {
+        result = copyIncrementally( lengths, targetDirectory, staging );
+      }
+      catch ( final NoSuchFileException exception )
+      {
+        logger.log( System.Logger.Level.INFO, "Datei wurde während des Backups gelöscht, erstelle vollständiges "
+            + "Backup: " + exception.getFile() );
+        deleteRecursively( staging );
+        result = fullBackup( targetDirectory, staging );
+      }
+      swapIn( staging, targetDirectory );
+      return result;
+    }
+    catch ( final IOException exception )
+    {
+      throw new UncheckedIOException( "Backup nach " + targetDirectory + " fehlgeschlagen", exception );
+    }
+    finally
+    {
+      storage.housekeeping().resume();
+    }
+  }
+
+  /**
+   * @return die Größe jeder Datei, relativ zum Storage-Verzeichnis
+   */
+  private Map<Path, Long> recordLengths()
+  {
+    final var lengths = new HashMap<Path, Long>();
+    try ( final Stream<Path> files = Files.walk( sourceDirectory ) )
+    {
+      for ( final var file : (Iterable<Path>) files::iterator )
+      {
+        // Lock-Dateien gehören zur laufenden Instanz und nicht zum Datenbestand.
+        if ( !Files.isRegularFile( file ) || file.getFileName().toString().endsWith( ".lock" ) )
+        {
+          continue;
+        }
+        try
+        {
+          lengths.put( sourceDirectory.relativize( file ), Files.size( file ) );
+        }
+        catch ( final NoSuchFileException _ )
+        {
+          // Gerade durch das Housekeeping gelöscht, gehört also nicht mehr zum Datenbestand.
+        }
+      }
+    }
+    catch ( final IOException exception )
+    {
+      throw new UncheckedIOException( "Storage-Verzeichnis konnte nicht gelesen werden", exception );
+    }
+    return lengths;
+  }
+
+  /**
+   * Baut das neue Backup im Staging-Verzeichnis auf. Das bisherige Backup wird dabei nur gelesen.
+   */
+  private Result copyIncrementally(
+      final Map<Path, Long> lengths,
+      final Path targetDirectory,
+      final Path staging ) throws IOException
+  {
+    int copiedFiles = 0;
+    long copiedBytes = 0;
+    for ( final var entry : lengths.entrySet() )
+    {
+      final long copied = copyPrefix(
+          sourceDirectory.resolve( entry.getKey() ),
+          targetDirectory.resolve( entry.getKey() ),
+          staging.resolve( entry.getKey() ),
+          entry.getValue() );
+      if ( copied > 0 )
+      {
+        copiedFiles++;
+        copiedBytes += copied;
+      }
+    }
+
+    // Nicht mehr vorhandene Dateien werden einfach nicht übernommen.
+    int deletedFiles = 0;
+    for ( final var file : listFiles( targetDirectory ) )
+    {
+      if ( !lengths.containsKey( targetDirectory.relativize( file ) ) )
+      {
+        deletedFiles++;
+      }
+    }
+    return new Result( copiedFiles, copiedBytes, deletedFiles, false );
+  }
+
+  /**
+   * Schreibt die ersten {@code length} Bytes der Quelldatei nach {@code target}. Ist die Datei des bisherigen Backups
+   * ein Anfang der Quelldatei, wird diese übernommen und nur der Rest angehängt. Unveränderte Dateien werden per
+   * Hardlink übernommen, veränderte kopiert, damit das bisherige Backup nie verändert wird.
+   *
+   * @return Anzahl der aus der Quelldatei kopierten Bytes
+   */
+  private static long copyPrefix(
+      final Path source,
+      final Path previous,
+      final Path target,
+      final long length ) throws IOException
+  {
+    Files.createDirectories( target.getParent() );
+    try ( final var in = FileChannel.open( source, StandardOpenOption.READ ) )
+    {
+      long position = 0;
+      if ( Files.isRegularFile( previous ) )
+      {
+        try ( final var existing = FileChannel.open( previous, StandardOpenOption.READ ) )
+        {
+          position = existing.size();
+          if ( position > length || !endsEqual( in, existing, position ) )
+          {
+            position = 0;
+          }
+        }
+        if ( position == length )
+        {
+          linkOrCopy( previous, target );
+          return 0;
+        }
+        if ( position > 0 )
+        {
+          Files.copy( previous, target );
+        }
+      }
+
+      try ( final var out = FileChannel.open( target, StandardOpenOption.CREATE, StandardOpenOption.WRITE ) )
+      {
+        final long start = position;
+        out.position( position );
+        while ( position < length )
+        {
+          position += in.transferTo( position, length - position, out );
+        }
+        out.force( true );
+        return length - start;
+      }
+    }
+  }
+
+  private static void linkOrCopy( final Path existing, final Path link ) throws IOException
+  {
+    try
+    {
+      Files.createLink( link, existing );
+    }
+    catch ( final UnsupportedOperationException | FileSystemException _ )
+    {
+      // Z.B. falls das Dateisystem keine Hardlinks unterstützt.
+      Files.copy( existing, link );
+    }
+  }
+
+  /**
+   * @return {@code true} falls die letzten Bytes vor {@code end} in beiden Dateien übereinstimmen
+   */
+  private static boolean endsEqual( final FileChannel a, final FileChannel b, final long end ) throws IOException
+  {
+    final int count = (int) Math.min( VERIFY_BYTES, end );
+    final ByteBuffer bufferA = ByteBuffer.allocate( count );
+    final ByteBuffer bufferB = ByteBuffer.allocate( count );
+    while ( bufferA.hasRemaining() && a.read( bufferA, end - count + bufferA.position() ) >= 0 )
+    {
+      // Liest, bis der Buffer voll ist.
+    }
+    while ( bufferB.hasRemaining() && b.read( bufferB, end - count + bufferB.position() ) >= 0 )
+    {
+      // Liest, bis der Buffer voll ist.
+    }
+    return !bufferA.hasRemaining() && bufferA.flip().equals( bufferB.flip() );
+  }
+
+  private Result fullBackup( final Path targetDirectory, final Path staging ) throws IOException
+  {
+    storage.manager().issueFullBackup( NioFileSystem.New().ensureDirectoryPath( staging.toString() ) );
+    return new Result( 0, 0, listFiles( targetDirectory ).size(), true );
+  }
+
+  /**
+   * Ersetzt das bisherige Backup durch das vollständig geschriebene Staging-Verzeichnis. Das bisherige Backup wird erst
+   * gelöscht, wenn das neue an seiner Stelle liegt.
+   */
+  private static void swapIn( final Path staging, final Path targetDirectory ) throws IOException
+  {
+    final Path previous = sibling( targetDirectory, PREVIOUS_SUFFIX );
+    if ( Files.exists( targetDirectory ) )
+    {
+      Files.move( targetDirectory, previous, StandardCopyOption.ATOMIC_MOVE );
+    }
+    Files.move( staging, targetDirectory, StandardCopyOption.ATOMIC_MOVE );
+    deleteRecursively( previous );
+  }
+
+  /**
+   * Räumt nach einem abgebrochenen Backup auf. Fehlt das Ziel, während das bisherige Backup bereits verschoben wurde,
+   * wurde zwischen den beiden Umbenennungen in {@link #swapIn(Path, Path)} abgebrochen. Das Staging-Verzeichnis ist
+   * dann vollständig. In allen anderen Fällen ist es unvollständig und wird verworfen.
+   */
+  private static void recover( final Path targetDirectory ) throws IOException
+  {
+    final Path staging = sibling( targetDirectory, STAGING_SUFFIX );
+    final Path previous = sibling( targetDirectory, PREVIOUS_SUFFIX );
+    if ( !Files.exists( targetDirectory ) && Files.exists( previous ) )
+    {
+      Files.move( Files.exists( staging ) ? staging : previous, targetDirectory, StandardCopyOption.ATOMIC_MOVE );
+    }
+    deleteRecursively( staging );
+    deleteRecursively( previous );
+  }
+
+  private static Path sibling( final Path directory, final String suffix )
+  {
+    return directory.resolveSibling( directory.getFileName() + suffix );
+  }
+
+  private static void deleteRecursively( final Path directory ) throws IOException
+  {
+    if ( !Files.exists( directory ) )
+    {
+      return;
+    }
+    try ( final Stream<Path> files = Files.walk( directory ) )
+    {
+      for ( final var file : (Iterable<Path>) files.sorted( Comparator.reverseOrder() )::iterator )
+      {
+        Files.delete( file );
+      }
+    }
+  }
+
+  private static List<Path> listFiles( final Path directory ) throws IOException
+  {
+    if ( !Files.isDirectory( directory ) )
+    {
+      return List.of();
+    }
+    try ( final Stream<Path> files = Files.walk( directory ) )
+    {
+      return files.filter( Files::isRegularFile ).toList();
+    }
+  }
+}
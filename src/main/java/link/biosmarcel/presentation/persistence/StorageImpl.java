@@ -1,36 +1,109 @@
 package link.biosmarcel.presentation.persistence;
 
-import org.eclipse.serializer.persistence.util.Reloader;
+import link.biosmarcel.presentation.persistence.model.User;
+import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.store.storage.embedded.types.EmbeddedStorageManager;
 
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Implementiert (vorerst) als einzige Klasse {@link StorageAccess} und ist somit im Production-Code und im Test-Code
  * zuständig für den Datenzugriff. Diese Implementation behandelt dementsprechend auch das Locking und die
  * Transaktionen.
+ *
+ * <p>Das Locking ist zweistufig: Der Root-Lock schützt die Struktur des gesamten Datenbestands, die Aggregat-Locks
+ * (gestreift über die Identität des Aggregats) schützen einzelne Aggregate. Die Locks werden immer in der Reihenfolge
+ * Root-Lock, Aggregat-Locks aufsteigend nach Index genommen.
+ * <ul>
+ *   <li>{@link #read(Consumer)}: Root-Lock lesend und alle Aggregat-Locks lesend</li>
+ *   <li>{@link #write(BiConsumer)}: Root-Lock schreibend</li>
+ *   <li>{@link #writeAggregate(TransactionalObject, BiConsumer)}: Root-Lock lesend und der Aggregat-Lock schreibend</li>
+ *   <li>{@link #readParallel(BiFunction)}: wie {@link #read(Consumer)}, die Worker-Threads selbst locken nicht</li>
+ *   <li>{@link #writeOptimistic(Function, BiFunction)}: Vorbereitung ohne Lock, Anwenden wie bei
+ *   {@link #write(BiConsumer)}</li>
+ * </ul>
+ *
+ * <p>Dass ein Read alle Aggregat-Locks nimmt, ist ein bewusster Kompromiss: Welche Aggregate ein Reader liest, ist
+ * vorher nicht bekannt, nur mit dem Root-Lock könnte er also halb fertige Aggregat-Writes sehen. Dafür kostet jeder
+ * Read pro Stripe einen weiteren Read-Lock, dessen Zähler sich alle Leser teilen, und wartet auf jeden aktiven
+ * Aggregat-Writer, nicht nur auf den des gelesenen Aggregats. Parallele Aggregat-Writer gibt es also nur auf Kosten der
+ * Reads, daher ist {@link #DEFAULT_AGGREGATE_STRIPES} klein. Wie sich die Anzahl der Stripes auf Reads auswirkt, misst
+ * der {@code StripedReadBenchmark} im Modul {@code benchmarks}.
  */
 public class StorageImpl implements StorageManager
 {
   private static final System.Logger logger = System.getLogger( StorageImpl.class.getName() );
 
+  /**
+   * Muss eine Zweierpotenz sein. Jeder Read-Call nimmt zusätzlich zum Root-Lock alle Aggregat-Locks, damit er keine
+   * halb fertigen Aggregat-Writes sieht. Mehr Locks erlauben also mehr parallele Aggregat-Writer mit weniger
+   * Kollisionen, verteuern aber jeden Read. Da Reads in der Regel deutlich häufiger sind, ist der Default klein.
+   */
+  public static final int DEFAULT_AGGREGATE_STRIPES = 4;
+
+  /** Anzahl der Versuche von {@link #writeOptimistic(Function, BiFunction)}, bevor komplett im Lock geschrieben wird. */
+  private static final int OPTIMISTIC_WRITE_ATTEMPTS = 3;
+  /**
+   * So lange warten optimistische Vorbereitungen insgesamt auf das Ende aktiver Writer, bevor doch mit Lock
+   * gearbeitet wird, z.B. weil ein einzelner Writer sehr lange läuft oder ständig neue Writer beginnen.
+   */
+  private static final long OPTIMISTIC_MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos( 10 );
+  /** Pausen beim Warten auf einen Writer wachsen bis auf diesen Wert. */
+  private static final long OPTIMISTIC_MAX_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos( 500 );
+  private static final int  OPTIMISTIC_SPINS          = 64;
+  /** Von {@link #awaitNoActiveWriter(long)}, falls die Wartezeit abgelaufen ist. */
+  private static final long NO_STAMP                  = -1;
+
   @SuppressWarnings( "FieldCanBeLocal" )
   private final ReentrantReadWriteLock           lock;
   private final ReentrantReadWriteLock.ReadLock  readLock;
   private final ReentrantReadWriteLock.WriteLock writeLock;
+  private final ReentrantReadWriteLock[]         aggregateLocks;
   private final EmbeddedStorageManager           manager;
 
-  // Aufgrund dessen, dass wir Transaktionen nun sowohl für read als auch write verwenden, müssen wir beim Erstellen
-  // der Transaktion locken, da wir sonst ggf. im read-Fall mehrere Transaktionen gleichzeitig öffnen.
-  private final Object transactionLock = new Object();
-
-  private final Reloader    reloader;
+  private final GroupCommit           groupCommit;
+  private final ChangeStream          changes;
+  private final StorageListeners      listeners = new StorageListeners();
+  private final StorageMetrics        metrics   = new StorageMetrics();
+  private final LazyGovernor          lazyGovernor;
+  private final HousekeepingScheduler housekeeping;
+  /** Persistiert die Batches von {@link #writeAsync(BiFunction, Durability)}. */
+  private final ExecutorService writerThread;
   private final StorageRoot storageRoot;
 
+  /**
+   * Jeder Thread bekommt genau eine Read-Transaktion, die für alle (nicht geschachtelten) Read-Calls dieses Threads
+   * wiederverwendet wird. Dadurch müssen sich parallele Leser weder synchronisieren, noch wird pro Read-Call eine
+   * Transaktion allokiert. Diese Transaktionen sind nie beschreibbar und werden nie beendet.
+   */
+  private final ThreadLocal<Transaction> readTransactions;
+  private final ParallelReads            parallelReads;
+
+  /**
+   * Zählen die äußersten Write- bzw. Aggregat-Write-Calls, die den Datenbestand verändern können, für
+   * {@link #writeOptimistic(Function, BiFunction)}. Sind beide gleich, ist kein Writer aktiv. Hat sich
+   * {@link #writesStarted} während einer Vorbereitung nicht verändert, hat währenddessen kein Writer etwas verändert.
+   * Das Prinzip entspricht einem Seqlock, nur dass mehrere Aggregat-Writer gleichzeitig aktiv sein können.
+   */
+  private final AtomicLong writesStarted  = new AtomicLong();
+  private final AtomicLong writesFinished = new AtomicLong();
+
   /**
    * Dieser Konstruktor ruft auch direkt {@link EmbeddedStorageManager#start()} auf, sprich der Datenzugriff ist direkt
    * nach dem Konstruktor-Aufruf möglich. Hierzu ist es wichtig, dass wir nicht bereits eine gestartete Instanz
@@ -38,15 +111,55 @@ public class StorageImpl implements StorageManager
    */
   public StorageImpl( final EmbeddedStorageManager manager )
   {
+    this( manager, DEFAULT_AGGREGATE_STRIPES );
+  }
+
+  /**
+   * @param aggregateStripes Anzahl an Locks, auf welche die Aggregate verteilt werden; muss eine Zweierpotenz sein. Zu
+   *     den Kosten siehe {@link #DEFAULT_AGGREGATE_STRIPES}.
+   *
+   * @see #StorageImpl(EmbeddedStorageManager)
+   */
+  public StorageImpl( final EmbeddedStorageManager manager, final int aggregateStripes )
+  {
+    if ( aggregateStripes <= 0 || Integer.bitCount( aggregateStripes ) != 1 )
+    {
+      throw new IllegalArgumentException( "Die Anzahl der Aggregat-Locks muss eine Zweierpotenz sein: "
+          + aggregateStripes );
+    }
+
     this.lock = new ReentrantReadWriteLock();
     this.readLock = lock.readLock();
     this.writeLock = lock.writeLock();
+    this.aggregateLocks = new ReentrantReadWriteLock[ aggregateStripes ];
+    for ( int i = 0; i < aggregateStripes; i++ )
+    {
+      aggregateLocks[ i ] = new ReentrantReadWriteLock();
+    }
 
     this.manager = manager;
 
     manager.start();
 
-    this.reloader = Reloader.New( manager.persistenceManager() );
+    listeners.add( metrics );
+    this.housekeeping = new HousekeepingScheduler( manager, listeners );
+    listeners.add( housekeeping );
+    this.lazyGovernor = new LazyGovernor(
+        LazyGovernor.DEFAULT_BUDGET_BYTES,
+        LazyGovernor::estimateSize,
+        () -> manager.persistenceManager().createLoader(),
+        listeners );
+    this.changes = new ChangeStream( ChangeStream.DEFAULT_CAPACITY, listeners );
+    this.groupCommit = new GroupCommit( manager::createLazyStorer, listeners, changes );
+    this.writerThread = Executors.newSingleThreadExecutor(
+        Thread.ofPlatform().name( "storage-writer" ).daemon().factory() );
+    this.readTransactions = ThreadLocal.withInitial( () ->
+    {
+      final var transaction = new Transaction( null /* Wir schreiben eh nicht */, null, lazyGovernor, listeners );
+      transaction.setWritable( false );
+      return transaction;
+    } );
+    this.parallelReads = new ParallelReads( Runtime.getRuntime().availableProcessors(), readTransactions::get );
 
     // Wenn wir den Storage das erste Mal starten, gibt es noch kein Objekt.
     if ( manager.root() == null )
@@ -57,7 +170,9 @@ public class StorageImpl implements StorageManager
           // immer nur im Write-Kontext verwenden, nicht aber im Read-Kontext, daher initialisieren wir diesen eager.
           // Falls sich das in der Zukunft ändert, sollten wir das in ein Lambda auslagern.
           manager.createLazyStorer(),
-          reloader );
+          null,
+          null,
+          listeners );
       Transactions.setTransaction( transaction );
 
       // Wir setzen dieses dann um uns in der Zukunft darauf verlassen zu können, dass es vom korrekten Typ ist.
@@ -71,6 +186,23 @@ public class StorageImpl implements StorageManager
     }
 
     storageRoot = (StorageRoot) manager.root();
+    // Indizes werden nicht persistiert. Für frisch angelegte Roots passiert dies bereits im Konstruktor, schadet aber
+    // auch nicht. Im Read-Kontext, da die Keys über die normalen Getter gelesen werden.
+    read( StorageRoot::rebuildIndices );
+
+    // Benutzer, die vor Einführung der Volltextsuche gespeichert wurden, werden einmalig indiziert. Jeder Benutzer in
+    // einer eigenen Transaktion, damit nicht alle Notizen in einer einzigen Transaktion landen.
+    final List<User> unindexed = readReturn( root -> root.users().stream()
+        .filter( User::needsSearchIndexMigration )
+        .toList() );
+    if ( !unindexed.isEmpty() )
+    {
+      logger.log( System.Logger.Level.INFO, "Volltextindex wird für " + unindexed.size() + " Benutzer aufgebaut ..." );
+    }
+    for ( final var user : unindexed )
+    {
+      writeAggregate( user, ( u, _ ) -> u.migrateSearchIndex() );
+    }
   }
 
   @Override
@@ -87,54 +219,162 @@ public class StorageImpl implements StorageManager
   @Override
   public <Result> Result readReturn( final Function<StorageRoot, Result> reader )
   {
-    Transaction currentTransaction = null;
+    rejectParallelWorker();
+    // Da die Transaktion an den Thread gebunden ist, kann diese hier ohne Synchronisation gelesen werden.
+    final Transaction outerTransaction = Transactions.getTransaction();
+    final long lockStart = System.nanoTime();
+    readLock.lock();
     try
     {
-      readLock.lock();
-
-      // Wenn wir geschachtelte Calls in der Form Write(Read(...), Write(...)) haben, dann müssen wir die Transaktion
-      // temporär (während des Read-Calls) als Read-Only markieren und bei Eintritt des zweiten (geschachtelten)
-      // Write-Calls wieder als beschreibbar.
-      boolean oldAllowWrite = false;
-
-      synchronized ( transactionLock )
+      if ( outerTransaction == null )
       {
-        currentTransaction = Transactions.getTransaction();
-        if ( currentTransaction == null )
+        final Transaction readTransaction = readTransactions.get();
+        lockAllAggregatesForRead();
+        listeners.lockAcquired( StorageListener.LockType.READ, System.nanoTime() - lockStart );
+        Transactions.setTransaction( readTransaction );
+        try
         {
-          currentTransaction = new Transaction( null /* Wir schreiben eh nicht */, reloader );
-          Transactions.setTransaction( currentTransaction );
+          return reader.apply( storageRoot );
         }
-        else
+        finally
         {
-          oldAllowWrite = currentTransaction.isWritable();
+          readTransaction.releaseDeferredUnloads();
+          Transactions.setTransaction( null );
+          evictLazies();
+          unlockAllAggregatesForRead();
         }
-        currentTransaction.setWritable( false );
-        currentTransaction.incUsages();
       }
 
-      final Result result = reader.apply( storageRoot );
+      // Geschachtelte Reads brauchen keine Aggregat-Locks: Ein umliegender Write hält den Root-Lock exklusiv, ein
+      // umliegender Aggregat-Write darf per Definition nur sein Aggregat und die Root-Struktur lesen.
+      // Wenn wir geschachtelte Calls in der Form Write(Read(...), Write(...)) haben, dann müssen wir die Transaktion
+      // temporär (während des Read-Calls) als Read-Only markieren und bei Eintritt des zweiten (geschachtelten)
+      // Write-Calls wieder als beschreibbar.
+      final boolean oldAllowWrite = outerTransaction.isWritable();
+      outerTransaction.setWritable( false );
+      try
+      {
+        return reader.apply( storageRoot );
+      }
+      // Ein Catch für Rollback ist nicht nötig, da die Exception an den umliegenden Write-Call weitergeleitet wird.
+      finally
+      {
+        outerTransaction.setWritable( oldAllowWrite );
+      }
+    }
+    finally
+    {
+      readLock.unlock();
+    }
+  }
 
-      currentTransaction.setWritable( oldAllowWrite );
+  /**
+   * Wartet, bis kein Writer mehr aktiv ist, erst aktiv und dann mit wachsenden Pausen. Ein Writer, der länger als die
+   * Spin-Phase läuft, wird so weder durch Cache-Traffic gebremst, noch blockiert er den Wartenden über einen Lock.
+   *
+   * @return der Stand von {@link #writesStarted} für {@link #isUnchangedSince(long)}, oder {@link #NO_STAMP} falls bis
+   *     zur Deadline ({@link System#nanoTime()}) immer ein Writer aktiv war
+   */
+  private long awaitNoActiveWriter( final long deadline )
+  {
+    long parkNanos = OPTIMISTIC_MAX_PARK_NANOS >> 6;
+    for ( int spins = 0; ; spins++ )
+    {
+      // Erst finished, dann started lesen, damit ein dazwischen startender Writer in jedem Fall auffällt.
+      final long finished = writesFinished.get();
+      final long started = writesStarted.get();
+      if ( started == finished )
+      {
+        return started;
+      }
+      if ( System.nanoTime() - deadline >= 0 )
+      {
+        return NO_STAMP;
+      }
 
-      return result;
+      if ( spins < OPTIMISTIC_SPINS )
+      {
+        Thread.onSpinWait();
+      }
+      else
+      {
+        LockSupport.parkNanos( parkNanos );
+        parkNanos = Math.min( parkNanos * 2, OPTIMISTIC_MAX_PARK_NANOS );
+      }
     }
-    // Ein Catch für Rollback ist nicht nötig, da die Exception an den umliegenden Write-Call weitergeleitet wird.
-    finally
+  }
+
+  /**
+   * Gibt die beim Lesen ohne Lock aufgeschobenen Unloads frei, sofern alle Read-Locks sofort verfügbar sind. Andernfalls
+   * bleiben diese in der Read-Transaktion des Threads und werden beim nächsten Read mit Lock freigegeben.
+   */
+  private void releaseDeferredUnloadsIfUnlocked( final Transaction readTransaction )
+  {
+    if ( !readTransaction.hasDeferredUnloads() || !readLock.tryLock() )
     {
-      synchronized ( transactionLock )
+      return;
+    }
+    try
+    {
+      for ( int locked = 0; locked < aggregateLocks.length; locked++ )
       {
-        // Im Read-Fall dürfen wir die Transaktion nur abräumen, wenn es keine andere lesende Instanz mehr gibt.
-        // Dies wird durch die getrackten Usages sichergestellt.
-        if ( currentTransaction != null && currentTransaction.decUsages() )
+        if ( !aggregateLocks[ locked ].readLock().tryLock() )
         {
-          Transactions.setTransaction( null );
+          for ( int i = locked - 1; i >= 0; i-- )
+          {
+            aggregateLocks[ i ].readLock().unlock();
+          }
+          return;
         }
       }
+      try
+      {
+        readTransaction.releaseDeferredUnloads();
+        evictLazies();
+      }
+      finally
+      {
+        unlockAllAggregatesForRead();
+      }
+    }
+    finally
+    {
       readLock.unlock();
     }
   }
 
+  @Override
+  public <Result> Result readParallel( final BiFunction<StorageRoot, ParallelReads, Result> reader )
+  {
+    if ( Transactions.getTransaction() != null )
+    {
+      throw new IllegalStateException( "readParallel ist nur außerhalb eines Lock-Kontextes möglich, da die Worker "
+          + "sonst nicht durch die Read-Locks geschützt sind." );
+    }
+    return readReturn( root -> reader.apply( root, parallelReads ) );
+  }
+
+  /**
+   * Worker von {@link ParallelReads} halten selbst keinen Lock. Würden diese einen anfordern, könnten sie hinter einem
+   * wartenden Writer hängen bleiben, der wiederum auf den aufrufenden Thread wartet.
+   */
+  private void rejectParallelWorker()
+  {
+    if ( parallelReads.isWorkerThread() )
+    {
+      throw new IllegalStateException( "Innerhalb von readParallel sind keine weiteren Zugriffe auf den Storage "
+          + "möglich, die Daten können direkt gelesen werden." );
+    }
+  }
+
+  private boolean isUnchangedSince( final long started )
+  {
+    // Die Reads der Vorbereitung dürfen nicht hinter die Prüfung verschoben werden, siehe StampedLock#validate. Da
+    // writesStarted vor jeder Änderung erhöht wird, fällt so jeder Writer auf, der währenddessen aktiv war.
+    VarHandle.acquireFence();
+    return writesStarted.get() == started;
+  }
+
   @Override
   public void write( final BiConsumer<StorageRoot, Transaction> writer )
   {
@@ -149,37 +389,94 @@ public class StorageImpl implements StorageManager
   @Override
   public <Result> Result writeReturn( final BiFunction<StorageRoot, Transaction, Result> writer )
   {
+    final Staged<Result> staged = applyAndStage( writer );
+
+    // Auf das Persistieren warten wir bewusst ohne Lock, damit sich in der Zwischenzeit weitere Writes dem Batch
+    // anschließen können.
+    if ( staged.durable() != null )
+    {
+      awaitDurable( staged.durable() );
+    }
+    return staged.result();
+  }
+
+  @Override
+  public <Result> CompletableFuture<Result> writeAsync( final BiFunction<StorageRoot, Transaction, Result> writer )
+  {
+    return writeAsync( writer, Durability.DISK );
+  }
+
+  @Override
+  public <Result> CompletableFuture<Result> writeAsync(
+      final BiFunction<StorageRoot, Transaction, Result> writer,
+      final Durability durability )
+  {
+    final Staged<Result> staged;
+    try
+    {
+      staged = applyAndStage( writer );
+    }
+    catch ( final RuntimeException exception )
+    {
+      return CompletableFuture.failedFuture( exception );
+    }
+
+    final var durable = staged.durable();
+    if ( durable == null )
+    {
+      // Geschachtelter Call oder nichts zu speichern.
+      return CompletableFuture.completedFuture( staged.result() );
+    }
+
+    final long stagedAt = System.nanoTime();
+    durable.thenRun( () -> listeners.transactionDurable( System.nanoTime() - stagedAt ) );
+    writerThread.execute( () -> flushUntilDone( durable ) );
+    return switch ( durability )
+    {
+      case MEMORY -> CompletableFuture.completedFuture( staged.result() );
+      case DISK -> durable.thenApply( _ -> staged.result() );
+    };
+  }
+
+  /**
+   * Führt den Writer im Lock-Kontext aus und staged die Transaktion im {@link GroupCommit}, wartet jedoch nicht auf
+   * das Persistieren.
+   */
+  private <Result> Staged<Result> applyAndStage( final BiFunction<StorageRoot, Transaction, Result> writer )
+  {
+    rejectParallelWorker();
     if ( lock.getReadHoldCount() > 0 )
     {
-      throw new IllegalStateException(
-          "Read(Write(...)) wird nicht unterstützt, da so writes im read-Kontext möglich wären." );
+      throw new IllegalStateException( "Read(Write(...)) und WriteAggregate(Write(...)) werden nicht unterstützt, "
+          + "da so writes im read-Kontext möglich wären, bzw. der Root-Lock nicht upgegradet werden kann." );
     }
 
+    final Result result;
+    CompletableFuture<Void> durable = null;
     try
     {
+      final long lockStart = System.nanoTime();
       writeLock.lock();
 
-      Transaction currentTransaction;
-      synchronized ( transactionLock )
+      Transaction currentTransaction = Transactions.getTransaction();
+      if ( currentTransaction == null )
       {
-        currentTransaction = Transactions.getTransaction();
-        if ( currentTransaction == null )
-        {
-          currentTransaction = new Transaction( manager.createLazyStorer(), reloader );
-          Transactions.setTransaction( currentTransaction );
-        }
-        currentTransaction.setWritable( true );
-        currentTransaction.decUsages();
+        listeners.lockAcquired( StorageListener.LockType.WRITE, System.nanoTime() - lockStart );
+        writesStarted.incrementAndGet();
+        // Der Writer darf nicht auf Änderungen eines fehlgeschlagenen Batches aufbauen.
+        groupCommit.rollBackFailed();
+        // Persistiert wird über den GroupCommit, daher brauchen wir keinen eigenen Storer.
+        currentTransaction = new Transaction( null, groupCommit, lazyGovernor, listeners );
+        Transactions.setTransaction( currentTransaction );
       }
-      final Result result = writer.apply( storageRoot, currentTransaction );
+      currentTransaction.setWritable( true );
+      result = writer.apply( storageRoot, currentTransaction );
 
       // Wenn wir mehrere nested Calls haben, wollen wir erst vor dem Lösen des letzten Locks committen.
       if ( writeLock.getHoldCount() == 1 )
       {
-        currentTransaction.commit();
+        durable = currentTransaction.stage();
       }
-
-      return result;
     }
     catch ( final RuntimeException exception )
     {
@@ -197,13 +494,572 @@ public class StorageImpl implements StorageManager
       // (nesting).
       if ( writeLock.getHoldCount() == 1 )
       {
-        // Da wir keine Parallelen write-Calls haben, können wir die Usages hier ignorieren.
         Transactions.setTransaction( null );
+        writesFinished.incrementAndGet();
+      }
+      writeLock.unlock();
+    }
+
+    return new Staged<>( result, durable );
+  }
+
+  /**
+   * @param durable {@code null} bei geschachtelten Calls, da dort erst der äußerste Call staged
+   */
+  private record Staged<Result>(Result result, @Nullable CompletableFuture<Void> durable)
+  {
+  }
+
+  @Override
+  public <Plan, Result> Result writeOptimistic(
+      final Function<StorageRoot, Plan> prepare,
+      final BiFunction<Plan, Transaction, Result> apply )
+  {
+    return runOptimistic( storageRoot, prepare, apply,
+        writer -> writeReturn( ( _, transaction ) -> writer.apply( transaction ) ) );
+  }
+
+  @Override
+  public <Aggregate extends TransactionalObject, Plan, Result> Result writeAggregateOptimistic(
+      final Aggregate aggregate,
+      final Function<Aggregate, Plan> prepare,
+      final BiFunction<Plan, Transaction, Result> apply )
+  {
+    return runOptimistic( aggregate, prepare, apply,
+        writer -> writeAggregateReturn( aggregate, ( _, transaction ) -> writer.apply( transaction ) ) );
+  }
+
+  /**
+   * Ergebnis eines Versuchs von {@link #runOptimistic(Object, Function, BiFunction, Function)} im Lock.
+   *
+   * @param conflict {@code true} falls sich gelesene Objekte seit der Vorbereitung verändert haben und {@code apply}
+   *     daher nicht ausgeführt wurde
+   */
+  private record Applied<Result>(Result result, boolean conflict)
+  {
+    static <Result> Applied<Result> of( final Result result )
+    {
+      return new Applied<>( result, false );
+    }
+
+    static <Result> Applied<Result> conflicted()
+    {
+      return new Applied<>( null, true );
+    }
+  }
+
+  /**
+   * @param locked führt den übergebenen Writer im jeweiligen Lock-Kontext aus
+   */
+  private <Input, Plan, Result> Result runOptimistic(
+      final Input input,
+      final Function<Input, Plan> prepare,
+      final BiFunction<Plan, Transaction, Result> apply,
+      final Function<Function<Transaction, Applied<Result>>, Applied<Result>> locked )
+  {
+    // Innerhalb eines Lock-Kontextes gibt es keine Konflikte, bzw. würden wir uns beim Lesen ohne Lock selbst sehen.
+    if ( Transactions.getTransaction() != null )
+    {
+      return locked.apply( transaction -> Applied.of( apply.apply( prepare.apply( input ), transaction ) ) ).result();
+    }
+
+    final Transaction readTransaction = readTransactions.get();
+    final long deadline = System.nanoTime() + OPTIMISTIC_MAX_WAIT_NANOS;
+    int attempt = 1;
+    try
+    {
+      for ( ; attempt <= OPTIMISTIC_WRITE_ATTEMPTS; attempt++ )
+      {
+        // Während ein Writer aktiv ist, wäre die Vorbereitung ungültig und eine Exception ließe sich nicht zuordnen.
+        final long started = awaitNoActiveWriter( deadline );
+        if ( started == NO_STAMP )
+        {
+          break;
+        }
+
+        final var prepareTransaction = new Transaction( null, null, lazyGovernor, listeners );
+        prepareTransaction.setWritable( false );
+        prepareTransaction.recordReads();
+
+        final Plan plan;
+        Transactions.setTransaction( prepareTransaction );
+        try
+        {
+          plan = prepare.apply( input );
+        }
+        catch ( final RuntimeException exception )
+        {
+          // Die Exception kann durch einen parallelen Writer entstanden sein.
+          if ( isUnchangedSince( started ) && prepareTransaction.isReadSetUnchanged() )
+          {
+            listeners.optimisticWrite( attempt, false );
+            throw exception;
+          }
+          continue;
+        }
+        finally
+        {
+          // Die Vorbereitung lief ohne Lock, entladen wird daher erst im Lock-Kontext.
+          prepareTransaction.handOverDeferredUnloads( readTransaction );
+          prepareTransaction.finish();
+          Transactions.setTransaction( null );
+        }
+
+        final Applied<Result> applied = locked.apply( transaction -> prepareTransaction.isReadSetUnchanged()
+            ? Applied.of( apply.apply( plan, transaction ) )
+            : Applied.conflicted() );
+        if ( !applied.conflict() )
+        {
+          listeners.optimisticWrite( attempt, false );
+          return applied.result();
+        }
+      }
+    }
+    finally
+    {
+      releaseDeferredUnloadsIfUnlocked( readTransaction );
+    }
+
+    listeners.optimisticWrite( Math.min( attempt, OPTIMISTIC_WRITE_ATTEMPTS ), true );
+    return locked.apply( transaction -> Applied.of( apply.apply( prepare.apply( input ), transaction ) ) ).result();
+  }
+
+  @Override
+  public <Prepared, Result> Result writePrepared(
+      final Supplier<Prepared> prepare,
+      final BiFunction<Prepared, Transaction, Result> attach )
+  {
+    return runPrepared( prepare, attach, writer -> writeReturn( ( _, transaction ) -> writer.apply( transaction ) ) );
+  }
+
+  @Override
+  public <Aggregate extends TransactionalObject, Prepared, Result> Result writeAggregatePrepared(
+      final Aggregate aggregate,
+      final Supplier<Prepared> prepare,
+      final BiFunction<Prepared, Transaction, Result> attach )
+  {
+    return runPrepared( prepare, attach,
+        writer -> writeAggregateReturn( aggregate, ( _, transaction ) -> writer.apply( transaction ) ) );
+  }
+
+  /**
+   * @param locked führt den übergebenen Writer im passenden Lock-Kontext aus
+   */
+  private <Prepared, Result> Result runPrepared(
+      final Supplier<Prepared> prepare,
+      final BiFunction<Prepared, Transaction, Result> attach,
+      final Function<Function<Transaction, Result>, Result> locked )
+  {
+    if ( Transactions.getTransaction() != null )
+    {
+      return locked.apply( transaction -> attach.apply( prepare.get(), transaction ) );
+    }
+
+    final var preparation = Transaction.detached( listeners );
+    final Prepared prepared;
+    Transactions.setTransaction( preparation );
+    try
+    {
+      prepared = prepare.get();
+    }
+    catch ( final RuntimeException exception )
+    {
+      // Die neuen Objekte werden nirgends referenziert, es gibt also nichts zurückzurollen.
+      preparation.finish();
+      listeners.preparationRejected();
+      throw exception;
+    }
+    finally
+    {
+      Transactions.setTransaction( null );
+    }
+
+    return locked.apply( transaction ->
+    {
+      transaction.adopt( preparation );
+      return attach.apply( prepared, transaction );
+    } );
+  }
+
+  @Override
+  public <Item> long importAll(
+      final Iterator<? extends Item> records,
+      final int chunkSize,
+      final BiConsumer<StorageRoot, Item> importer )
+  {
+    if ( chunkSize <= 0 )
+    {
+      throw new IllegalArgumentException( "Die Chunk-Größe muss positiv sein: " + chunkSize );
+    }
+    if ( Transactions.getTransaction() != null )
+    {
+      throw new IllegalStateException( "Importe sind nur außerhalb eines Lock-Kontextes möglich, da der Lock zwischen "
+          + "den Chunks freigegeben wird." );
+    }
+
+    long imported = 0;
+    CompletableFuture<Void> previousChunk = null;
+    final var chunk = new ArrayList<Item>( chunkSize );
+    while ( records.hasNext() )
+    {
+      chunk.clear();
+      while ( chunk.size() < chunkSize && records.hasNext() )
+      {
+        chunk.add( records.next() );
+      }
+
+      final Staged<Void> staged = applyAndStage( ( root, transaction ) ->
+      {
+        transaction.setUnloadWrittenLazies( true );
+        for ( final var item : chunk )
+        {
+          importer.accept( root, item );
+        }
+        return null;
+      } );
+
+      // Der vorherige Chunk wurde während des Imports dieses Chunks persistiert. Erst hier zu warten begrenzt den
+      // Speicherbedarf auf zwei Chunks und lässt Fehler beim Persistieren zeitnah auffallen.
+      if ( previousChunk != null )
+      {
+        awaitDurable( previousChunk );
       }
+      final var durable = staged.durable();
+      if ( durable != null )
+      {
+        writerThread.execute( () -> flushUntilDone( durable ) );
+      }
+      previousChunk = durable;
+      imported += chunk.size();
+    }
+
+    if ( previousChunk != null )
+    {
+      awaitDurable( previousChunk );
+    }
+    return imported;
+  }
+
+  @Override
+  public <Aggregate extends TransactionalObject> void writeAggregate(
+      final Aggregate aggregate,
+      final BiConsumer<Aggregate, Transaction> writer )
+  {
+    // Der Einfachheit halber, rufen wir hier writeAggregateReturn auf, um keinen Code zu duplizieren.
+    writeAggregateReturn( aggregate, ( a, transaction ) ->
+    {
+      writer.accept( a, transaction );
+      return null;
+    } );
+  }
+
+  @Override
+  public <Aggregate extends TransactionalObject, Result> Result writeAggregateReturn(
+      final Aggregate aggregate,
+      final BiFunction<Aggregate, Transaction, Result> writer )
+  {
+    rejectParallelWorker();
+    // Innerhalb eines Writes ist bereits alles exklusiv gelockt, wir hängen uns also einfach an diese Transaktion.
+    if ( writeLock.isHeldByCurrentThread() )
+    {
+      return writeReturn( ( _, transaction ) -> writer.apply( aggregate, transaction ) );
+    }
+
+    final int stripe = aggregateStripe( aggregate );
+    final Transaction outerTransaction = Transactions.getTransaction();
+    if ( outerTransaction != null )
+    {
+      if ( outerTransaction.isWritable() && outerTransaction.getAggregateStripe() == stripe )
+      {
+        // Geschachtelter Call auf dasselbe Aggregat, committet wird erst durch den äußersten Call.
+        return writer.apply( aggregate, outerTransaction );
+      }
+
+      throw new IllegalStateException( "WriteAggregate ist nur außerhalb eines Lock-Kontextes oder geschachtelt "
+          + "für dasselbe Aggregat erlaubt, da es sonst zu Deadlocks zwischen Aggregaten kommen kann." );
+    }
+
+    final ReentrantReadWriteLock.WriteLock aggregateLock = aggregateLocks[ stripe ].writeLock();
+    final long lockStart = System.nanoTime();
+    readLock.lock();
+    aggregateLock.lock();
+    while ( groupCommit.hasFailedBatch() )
+    {
+      // Der Writer darf nicht auf Änderungen eines fehlgeschlagenen Batches aufbauen, für das Rollback brauchen wir
+      // aber den Root-Lock exklusiv.
+      aggregateLock.unlock();
+      readLock.unlock();
+      rollBackFailedBatch();
+      readLock.lock();
+      aggregateLock.lock();
+    }
+    listeners.lockAcquired( StorageListener.LockType.AGGREGATE, System.nanoTime() - lockStart );
+    writesStarted.incrementAndGet();
+
+    final var transaction = new Transaction( null, groupCommit, lazyGovernor, listeners );
+    transaction.setAggregateStripe( stripe );
+    Transactions.setTransaction( transaction );
+    final Result result;
+    final CompletableFuture<Void> durable;
+    try
+    {
+      result = writer.apply( aggregate, transaction );
+      durable = transaction.stage();
+    }
+    catch ( final RuntimeException exception )
+    {
+      logger.log( System.Logger.Level.ERROR, "Automatisches Rollback ist aufgetreten ..." );
+      transaction.rollback();
+      throw exception;
+    }
+    finally
+    {
+      Transactions.setTransaction( null );
+      writesFinished.incrementAndGet();
+      aggregateLock.unlock();
+      readLock.unlock();
+    }
+
+    awaitDurable( durable );
+    return result;
+  }
+
+  /**
+   * Wartet bis der Batch, in dem die Transaktion gestaged wurde, persistiert ist. Darf nur ohne gehaltene Locks
+   * aufgerufen werden.
+   *
+   * @throws RuntimeException falls das Persistieren des Batches fehlgeschlagen ist
+   */
+  private void awaitDurable( final CompletableFuture<Void> durable )
+  {
+    final long stagedAt = System.nanoTime();
+    flushUntilDone( durable );
+    try
+    {
+      durable.join();
+      listeners.transactionDurable( System.nanoTime() - stagedAt );
+    }
+    catch ( final CompletionException exception )
+    {
+      if ( exception.getCause() instanceof final RuntimeException cause )
+      {
+        throw cause;
+      }
+      throw new IllegalStateException( "Persistieren des Batches fehlgeschlagen", exception.getCause() );
+    }
+  }
+
+  /**
+   * Übernimmt, falls nötig, die Rolle des Leaders und persistiert den offenen Batch. Ist bereits ein anderer Thread
+   * Leader, warten wir auf diesen, da unser Batch dann eventuell bereits mit persistiert wird.
+   */
+  private void flushUntilDone( final CompletableFuture<Void> durable )
+  {
+    if ( durable.isDone() )
+    {
+      return;
+    }
+
+    groupCommit.lockLeader();
+    try
+    {
+      if ( !durable.isDone() )
+      {
+        // Die Objekte werden beim Flush serialisiert, es darf also kein Writer aktiv sein. Leser stören dagegen nicht.
+        readLock.lock();
+        lockAllAggregatesForRead();
+        try
+        {
+          groupCommit.flush();
+          evictLazies();
+        }
+        catch ( final RuntimeException exception )
+        {
+          // Der Fehler landet nach dem Rollback über das Future bei allen Transaktionen des Batches.
+          logger.log( System.Logger.Level.ERROR, "Persistieren des Batches fehlgeschlagen", exception );
+        }
+        finally
+        {
+          unlockAllAggregatesForRead();
+          readLock.unlock();
+        }
+        // Als Leader halten wir weiterhin den Leader-Lock, es kann also kein neuer Flush beginnen.
+        rollBackFailedBatch();
+      }
+    }
+    finally
+    {
+      groupCommit.unlockLeader();
+    }
+  }
+
+  /**
+   * Führt die Aktion aus, während kein Writer aktiv ist und alle gestagten Transaktionen persistiert sind, z.B. um
+   * einen konsistenten Stand der Dateien festzuhalten, siehe {@link StorageBackup}. Leser laufen weiter. Die Aktion
+   * sollte kurz sein, da währenddessen alle Writer blockiert sind.
+   */
+  <Result> Result whileWritesPaused( final Supplier<Result> action )
+  {
+    if ( Transactions.getTransaction() != null )
+    {
+      throw new IllegalStateException( "Writes können nur außerhalb eines Lock-Kontextes pausiert werden" );
+    }
+
+    writeLock.lock();
+    try
+    {
+      // Ein Leader kann nicht gleichzeitig flushen, da er dafür den Root-Lock lesend braucht, siehe destroy().
+      flushExclusively();
+      return action.get();
+    }
+    finally
+    {
       writeLock.unlock();
     }
   }
 
+  /**
+   * Persistiert den offenen Batch, während der Aufrufer den Root-Lock exklusiv hält. Schlägt dies fehl, werden dessen
+   * Transaktionen direkt zurückgerollt.
+   */
+  private void flushExclusively()
+  {
+    try
+    {
+      groupCommit.flush();
+    }
+    finally
+    {
+      rollBackFailedLocked();
+    }
+  }
+
+  /**
+   * Rollt einen fehlgeschlagenen Batch zurück, siehe {@link GroupCommit#rollBackFailed()}. Darf nur ohne gehaltene
+   * Locks aufgerufen werden.
+   */
+  private void rollBackFailedBatch()
+  {
+    if ( !groupCommit.hasFailedBatch() )
+    {
+      return;
+    }
+
+    writeLock.lock();
+    try
+    {
+      rollBackFailedLocked();
+    }
+    finally
+    {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Wie {@link #rollBackFailedBatch()}, jedoch muss der Aufrufer den Root-Lock bereits exklusiv halten.
+   */
+  private void rollBackFailedLocked()
+  {
+    if ( !groupCommit.hasFailedBatch() )
+    {
+      return;
+    }
+
+    // Das Rollback verändert Objekte, optimistische Leser müssen dies also wie einen Write bemerken.
+    writesStarted.incrementAndGet();
+    try
+    {
+      groupCommit.rollBackFailed();
+    }
+    finally
+    {
+      writesFinished.incrementAndGet();
+    }
+  }
+
+  /**
+   * Setzt das Budget des {@link LazyGovernor} durch. <b>Der Aufrufer muss den Root-Lock und alle Aggregat-Locks
+   * mindestens lesend halten</b>, sprich es ist kein Writer aktiv. Liegen noch ungespeicherte Batches vor, wird nichts
+   * entladen, da diese Lazy-Referenzen enthalten könnten, deren Daten noch nicht persistiert sind.
+   */
+  private void evictLazies()
+  {
+    if ( lazyGovernor.isOverBudget() && groupCommit.pending() == null )
+    {
+      lazyGovernor.evictIfOverBudget();
+    }
+  }
+
+  private int aggregateStripe( final Object aggregate )
+  {
+    final int hash = System.identityHashCode( aggregate );
+    return ( hash ^ ( hash >>> 16 ) ) & ( aggregateLocks.length - 1 );
+  }
+
+  private void lockAllAggregatesForRead()
+  {
+    for ( final var aggregateLock : aggregateLocks )
+    {
+      aggregateLock.readLock().lock();
+    }
+  }
+
+  private void unlockAllAggregatesForRead()
+  {
+    for ( int i = aggregateLocks.length - 1; i >= 0; i-- )
+    {
+      aggregateLocks[ i ].readLock().unlock();
+    }
+  }
+
+  /**
+   * @return die Metriken dieses Storages, siehe {@link StorageMetrics#registerMBean()} für JMX
+   */
+  public StorageMetrics metrics()
+  {
+    return metrics;
+  }
+
+  /**
+   * @return der Governor über die geladenen Lazy-Referenzen, z.B. um dessen Budget anzupassen
+   */
+  public LazyGovernor lazyGovernor()
+  {
+    return lazyGovernor;
+  }
+
+  /**
+   * @return der Scheduler für lastabhängiges Housekeeping, muss über
+   *     {@link HousekeepingScheduler#start(java.time.Duration)} gestartet werden
+   */
+  public HousekeepingScheduler housekeeping()
+  {
+    return housekeeping;
+  }
+
+  /**
+   * @return die persistierten Änderungen, z.B. für die Invalidierung von Caches
+   */
+  public ChangeStream changes()
+  {
+    return changes;
+  }
+
+  /**
+   * Registriert einen zusätzlichen Listener, z.B. für Tracing. Sollte beim Start passieren, da Listener erst ab dem
+   * nächsten Aufruf informiert werden.
+   */
+  public void addListener( final StorageListener listener )
+  {
+    listeners.add( listener );
+  }
+
+  public void removeListener( final StorageListener listener )
+  {
+    listeners.remove( listener );
+  }
+
   @Override
   public EmbeddedStorageManager manager()
   {
@@ -214,11 +1070,18 @@ public class StorageImpl implements StorageManager
   public void destroy()
   {
     logger.log( System.Logger.Level.INFO, "Storage Manager wird beendet ..." );
+    housekeeping.stop();
     // Wichtig dass wir hier write-locken, da sonst ggf. laufende Transactions nicht committed werden können.
     write( ( __, ___ ) ->
     {
+      // Noch nicht persistierte Batches müssen vor dem Schließen geschrieben werden.
+      flushExclusively();
       manager.close();
     } );
+    // Eventuell noch eingereihte Flushes haben nichts mehr zu tun.
+    writerThread.shutdown();
+    parallelReads.shutdown();
+    changes.close();
     logger.log( System.Logger.Level.INFO, "Storage Manager wurde beendet." );
   }
 }
@@ -0,0 +1,140 @@
+package link.biosmarcel.presentation.persistence;
+
+/**
+ * Wird vom {@link StorageImpl} über Locking, Transaktionen und das Persistieren informiert. Gedacht für Metriken,
+ * Tracing und ähnliches, siehe {@link StorageMetrics}. Listener werden über
+ * {@link StorageImpl#addListener(StorageListener)} registriert.
+ *
+ * <p>Alle Methoden werden synchron, teilweise im Lock-Kontext, aufgerufen. Implementationen müssen daher schnell und
+ * thread-safe sein, dürfen keine Exceptions werfen und dürfen nicht auf den Storage zugreifen.
+ */
+public interface StorageListener
+{
+  enum LockType
+  {
+    /** Root-Lock und alle Aggregat-Locks lesend, siehe {@link StorageAccess#read} */
+    READ,
+    /** Root-Lock schreibend, siehe {@link StorageAccess#write} */
+    WRITE,
+    /** Root-Lock lesend und ein Aggregat-Lock schreibend, siehe {@link StorageAccess#writeAggregate} */
+    AGGREGATE
+  }
+
+  /**
+   * Ein äußerster Read- bzw. Write-Call hat seine Locks bekommen.
+   *
+   * @param waitNanos Wartezeit auf die Locks
+   */
+  default void lockAcquired( final LockType type, final long waitNanos )
+  {
+  }
+
+  /**
+   * Ein {@link StorageAccess#writeOptimistic(java.util.function.Function, java.util.function.BiFunction) optimistischer
+   * Write} wurde beendet.
+   *
+   * @param attempts Anzahl der Versuche, deren Vorbereitung ohne Lock lief
+   * @param fallback {@code true} falls am Ende komplett im Lock geschrieben wurde
+   */
+  default void optimisticWrite( final int attempts, final boolean fallback )
+  {
+  }
+
+  /**
+   * Die Vorbereitung eines {@link StorageAccess#writePrepared(java.util.function.Supplier,
+   * java.util.function.BiFunction) zweiphasigen Writes} ist fehlgeschlagen, z.B. bei der Validierung. Es wurde also
+   * weder gelockt noch zurückgerollt.
+   */
+  default void preparationRejected()
+  {
+  }
+
+  /**
+   * Eine Transaktion wurde erfolgreich an den {@link GroupCommit} übergeben, ist aber noch nicht persistiert.
+   *
+   * @param registered Anzahl der in der Transaktion registrierten Objekte
+   * @param dirty davon tatsächlich zu speichernde Objekte
+   * @param durationNanos Dauer vom Beginn der Transaktion bis zum Stagen
+   */
+  default void transactionStaged( final int registered, final int dirty, final long durationNanos )
+  {
+  }
+
+  /**
+   * @param registered Anzahl der zurückgesetzten Objekte
+   * @param rollbackNanos Dauer des Rollbacks selbst
+   */
+  default void transactionRolledBack( final int registered, final long rollbackNanos )
+  {
+  }
+
+  /**
+   * Ein Write-Call hat auf das Persistieren seiner Transaktion gewartet.
+   *
+   * @param latencyNanos Dauer vom Stagen bis zum Abschluss des Persistierens
+   */
+  default void transactionDurable( final long latencyNanos )
+  {
+  }
+
+  /**
+   * Es wurde {@link Transaction#deferUnload(org.eclipse.serializer.reference.Lazy)} aufgerufen.
+   */
+  default void unloadDeferred()
+  {
+  }
+
+  /**
+   * Der {@link LazyGovernor} hat Lazy-Referenzen entladen, um sein Budget einzuhalten.
+   *
+   * @param count Anzahl der entladenen Referenzen
+   * @param bytes geschätzte Größe der entladenen Daten
+   */
+  default void lazyEvicted( final int count, final long bytes )
+  {
+  }
+
+  /**
+   * Der {@link HousekeepingScheduler} hat aufgeräumt.
+   *
+   * @param budgetNanos Zeitbudget pro Schritt, {@link Long#MAX_VALUE} bei {@link HousekeepingScheduler#compactNow()}
+   * @param durationNanos tatsächliche Dauer
+   */
+  default void housekeepingRun( final long budgetNanos, final long durationNanos )
+  {
+  }
+
+  /**
+   * Der {@link HousekeepingScheduler} hat wegen hoher Last nicht aufgeräumt.
+   */
+  default void housekeepingSkipped()
+  {
+  }
+
+  /**
+   * Ein Batch des {@link GroupCommit} wurde persistiert.
+   *
+   * @param transactions Anzahl der Transaktionen im Batch
+   * @param stored Anzahl der gespeicherten Objekte
+   * @param durationNanos Dauer des Persistierens
+   */
+  default void batchFlushed( final int transactions, final int stored, final long durationNanos )
+  {
+  }
+
+  /**
+   * Die Änderungen eines persistierten Batches wurden verworfen, da die Queue des {@link ChangeStream} voll war.
+   *
+   * @param changes Anzahl der verworfenen Events
+   */
+  default void changeSetDropped( final int changes )
+  {
+  }
+
+  /**
+   * Das Persistieren eines Batches ist fehlgeschlagen.
+   */
+  default void batchFailed( final RuntimeException exception )
+  {
+  }
+}
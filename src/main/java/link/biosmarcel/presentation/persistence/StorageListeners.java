@@ -0,0 +1,150 @@
+package link.biosmarcel.presentation.persistence;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Verteilt die Aufrufe an alle registrierten {@link StorageListener}. Da Listener praktisch nur beim Start registriert
+ * werden, wird beim Verteilen nicht synchronisiert.
+ */
+final class StorageListeners implements StorageListener
+{
+  private static final System.Logger logger = System.getLogger( StorageListeners.class.getName() );
+
+  private final List<StorageListener> listeners = new CopyOnWriteArrayList<>();
+
+  void add( final StorageListener listener )
+  {
+    listeners.add( listener );
+  }
+
+  void remove( final StorageListener listener )
+  {
+    listeners.remove( listener );
+  }
+
+  @Override
+  public void lockAcquired( final LockType type, final long waitNanos )
+  {
+    for ( final var listener : listeners )
+    {
+      listener.lockAcquired( type, waitNanos );
+    }
+  }
+
+  @Override
+  public void optimisticWrite( final int attempts, final boolean fallback )
+  {
+    for ( final var listener : listeners )
+    {
+      listener.optimisticWrite( attempts, fallback );
+    }
+  }
+
+  @Override
+  public void preparationRejected()
+  {
+    for ( final var listener : listeners )
+    {
+      listener.preparationRejected();
+    }
+  }
+
+  @Override
+  public void housekeepingRun( final long budgetNanos, final long durationNanos )
+  {
+    for ( final var listener : listeners )
+    {
+      listener.housekeepingRun( budgetNanos, durationNanos );
+    }
+  }
+
+  @Override
+  public void housekeepingSkipped()
+  {
+    for ( final var listener : listeners )
+    {
+      listener.housekeepingSkipped();
+    }
+  }
+
+  @Override
+  public void transactionStaged( final int registered, final int dirty, final long durationNanos )
+  {
+    for ( final var listener : listeners )
+    {
+      listener.transactionStaged( registered, dirty, durationNanos );
+    }
+  }
+
+  @Override
+  public void transactionRolledBack( final int registered, final long rollbackNanos )
+  {
+    for ( final var listener : listeners )
+    {
+      listener.transactionRolledBack( registered, rollbackNanos );
+    }
+  }
+
+  @Override
+  public void transactionDurable( final long latencyNanos )
+  {
+    for ( final var listener : listeners )
+    {
+      listener.transactionDurable( latencyNanos );
+    }
+  }
+
+  @Override
+  public void unloadDeferred()
+  {
+    for ( final var listener : listeners )
+    {
+      listener.unloadDeferred();
+    }
+  }
+
+  @Override
+  public void lazyEvicted( final int count, final long bytes )
+  {
+    for ( final var listener : listeners )
+    {
+      listener.lazyEvicted( count, bytes );
+    }
+  }
+
+  @Override
+  public void batchFlushed( final int transactions, final int stored, final long durationNanos )
+  {
+    for ( final var listener : listeners )
+    {
+      listener.batchFlushed( transactions, stored, durationNanos );
+    }
+  }
+
+  @Override
+  public void changeSetDropped( final int changes )
+  {
+    for ( final var listener : listeners )
+    {
+      listener.changeSetDropped( changes );
+    }
+  }
+
+  @Override
+  public void batchFailed( final RuntimeException exception )
+  {
+    for ( final var listener : listeners )
+    {
+      try
+      {
+        listener.batchFailed( exception );
+      }
+      catch ( final RuntimeException listenerException )
+      {
+        // Der eigentliche Fehler darf dadurch nicht verloren gehen.
+        logger.log( System.Logger.Level.ERROR, "Listener ist fehlgeschlagen", listenerException );
+      }
+    }
+  }
+}
@@ -0,0 +1,341 @@
+package link.biosmarcel.presentation.persistence;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Standard-{@link StorageListener}, der Zähler und {@link Histogram Histogramme} über Locking, Transaktionen und das
+ * Persistieren sammelt. Jeder {@link StorageImpl} hat genau eine Instanz, siehe {@link StorageImpl#metrics()}, die
+ * über {@link #registerMBean()} per JMX verfügbar gemacht werden kann.
+ */
+public final class StorageMetrics implements StorageListener, StorageMetricsMXBean
+{
+  public static final String OBJECT_NAME = "link.biosmarcel.presentation:type=StorageMetrics";
+
+  private final Histogram readLockWait         = new Histogram();
+  private final Histogram writeLockWait        = new Histogram();
+  private final Histogram aggregateLockWait    = new Histogram();
+  private final Histogram transactionDuration  = new Histogram();
+  private final Histogram commitLatency        = new Histogram();
+  private final Histogram rollbackDuration     = new Histogram();
+  private final Histogram registeredObjects    = new Histogram();
+  private final Histogram dirtyObjects         = new Histogram();
+  private final Histogram flushDuration        = new Histogram();
+  private final Histogram transactionsPerFlush = new Histogram();
+  private final Histogram housekeepingDuration = new Histogram();
+
+  private final LongAdder optimisticWrites         = new LongAdder();
+  private final LongAdder optimisticWriteFallbacks = new LongAdder();
+  private final LongAdder stagedTransactions       = new LongAdder();
+  private final LongAdder rolledBackTransactions   = new LongAdder();
+  private final LongAdder deferredUnloads          = new LongAdder();
+  private final LongAdder evictedLazies            = new LongAdder();
+  private final LongAdder evictedLazyBytes         = new LongAdder();
+  private final LongAdder skippedHousekeepings     = new LongAdder();
+  private final LongAdder failedFlushes            = new LongAdder();
+  private final LongAdder droppedChangeSets        = new LongAdder();
+  private final LongAdder rejectedPreparations     = new LongAdder();
+
+  StorageMetrics()
+  {
+  }
+
+  /**
+   * Registriert die Metriken unter {@link #OBJECT_NAME} beim Platform-MBeanServer. Existiert bereits eine Instanz,
+   * z.B. weil mehrere Storages im selben Prozess laufen, wird diese ersetzt.
+   */
+  public void registerMBean()
+  {
+    final var server = ManagementFactory.getPlatformMBeanServer();
+    final ObjectName name;
+    try
+    {
+      name = new ObjectName( OBJECT_NAME );
+    }
+    catch ( final MalformedObjectNameException exception )
+    {
+      throw new IllegalStateException( exception );
+    }
+
+    try
+    {
+      try
+      {
+        server.registerMBean( this, name );
+      }
+      catch ( final InstanceAlreadyExistsException _ )
+      {
+        server.unregisterMBean( name );
+        server.registerMBean( this, name );
+      }
+    }
+    catch ( final JMException exception )
+    {
+      throw new IllegalStateException( "MBean konnte nicht registriert werden", exception );
+    }
+  }
+
+  // LISTENER
+
+  @Override
+  public void lockAcquired( final LockType type, final long waitNanos )
+  {
+    switch ( type )
+    {
+      case READ -> readLockWait.record( waitNanos );
+      case WRITE -> writeLockWait.record( waitNanos );
+      case AGGREGATE -> aggregateLockWait.record( waitNanos );
+    }
+  }
+
+  @Override
+  public void optimisticWrite( final int attempts, final boolean fallback )
+  {
+    optimisticWrites.increment();
+    if ( fallback )
+    {
+      optimisticWriteFallbacks.increment();
+    }
+  }
+
+  @Override
+  public void transactionStaged( final int registered, final int dirty, final long durationNanos )
+  {
+    stagedTransactions.increment();
+    registeredObjects.record( registered );
+    dirtyObjects.record( dirty );
+    transactionDuration.record( durationNanos );
+  }
+
+  @Override
+  public void transactionRolledBack( final int registered, final long rollbackNanos )
+  {
+    rolledBackTransactions.increment();
+    rollbackDuration.record( rollbackNanos );
+  }
+
+  @Override
+  public void transactionDurable( final long latencyNanos )
+  {
+    commitLatency.record( latencyNanos );
+  }
+
+  @Override
+  public void unloadDeferred()
+  {
+    deferredUnloads.increment();
+  }
+
+  @Override
+  public void lazyEvicted( final int count, final long bytes )
+  {
+    evictedLazies.add( count );
+    evictedLazyBytes.add( bytes );
+  }
+
+  @Override
+  public void batchFlushed( final int transactions, final int stored, final long durationNanos )
+  {
+    flushDuration.record( durationNanos );
+    transactionsPerFlush.record( transactions );
+  }
+
+  @Override
+  public void batchFailed( final RuntimeException exception )
+  {
+    failedFlushes.increment();
+  }
+
+  @Override
+  public void housekeepingRun( final long budgetNanos, final long durationNanos )
+  {
+    housekeepingDuration.record( durationNanos );
+  }
+
+  @Override
+  public void housekeepingSkipped()
+  {
+    skippedHousekeepings.increment();
+  }
+
+  @Override
+  public void preparationRejected()
+  {
+    rejectedPreparations.increment();
+  }
+
+  @Override
+  public void changeSetDropped( final int changes )
+  {
+    droppedChangeSets.increment();
+  }
+
+  // MXBEAN
+
+  @Override
+  public Histogram.Snapshot getReadLockWait()
+  {
+    return readLockWait.snapshot();
+  }
+
+  @Override
+  public Histogram.Snapshot getWriteLockWait()
+  {
+    return writeLockWait.snapshot();
+  }
+
+  @Override
+  public Histogram.Snapshot getAggregateLockWait()
+  {
+    return aggregateLockWait.snapshot();
+  }
+
+  @Override
+  public Histogram.Snapshot getTransactionDuration()
+  {
+    return transactionDuration.snapshot();
+  }
+
+  @Override
+  public Histogram.Snapshot getCommitLatency()
+  {
+    return commitLatency.snapshot();
+  }
+
+  @Override
+  public Histogram.Snapshot getRollbackDuration()
+  {
+    return rollbackDuration.snapshot();
+  }
+
+  @Override
+  public Histogram.Snapshot getRegisteredObjects()
+  {
+    return registeredObjects.snapshot();
+  }
+
+  @Override
+  public Histogram.Snapshot getDirtyObjects()
+  {
+    return dirtyObjects.snapshot();
+  }
+
+  @Override
+  public Histogram.Snapshot getFlushDuration()
+  {
+    return flushDuration.snapshot();
+  }
+
+  @Override
+  public Histogram.Snapshot getTransactionsPerFlush()
+  {
+    return transactionsPerFlush.snapshot();
+  }
+
+  @Override
+  public long getStagedTransactions()
+  {
+    return stagedTransactions.sum();
+  }
+
+  @Override
+  public long getRolledBackTransactions()
+  {
+    return rolledBackTransactions.sum();
+  }
+
+  @Override
+  public double getRollbackRate()
+  {
+    final long rolledBack = rolledBackTransactions.sum();
+    final long total = rolledBack + stagedTransactions.sum();
+    return total == 0 ? 0 : (double) rolledBack / total;
+  }
+
+  @Override
+  public long getOptimisticWrites()
+  {
+    return optimisticWrites.sum();
+  }
+
+  @Override
+  public double getOptimisticWriteFallbackRate()
+  {
+    final long total = optimisticWrites.sum();
+    return total == 0 ? 0 : (double) optimisticWriteFallbacks.sum() / total;
+  }
+
+  @Override
+  public long getDeferredUnloads()
+  {
+    return deferredUnloads.sum();
+  }
+
+  @Override
+  public long getEvictedLazies()
+  {
+    return evictedLazies.sum();
+  }
+
+  @Override
+  public long getEvictedLazyBytes()
+  {
+    return evictedLazyBytes.sum();
+  }
+
+  @Override
+  public long getFailedFlushes()
+  {
+    return failedFlushes.sum();
+  }
+
+  @Override
+  public Histogram.Snapshot getHousekeepingDuration()
+  {
+    return housekeepingDuration.snapshot();
+  }
+
+  @Override
+  public long getSkippedHousekeepings()
+  {
+    return skippedHousekeepings.sum();
+  }
+
+  @Override
+  public long getDroppedChangeSets()
+  {
+    return droppedChangeSets.sum();
+  }
+
+  @Override
+  public long getRejectedPreparations()
+  {
+    return rejectedPreparations.sum();
+  }
+
+  @Override
+  public void reset()
+  {
+    for ( final var histogram : new Histogram[]{
+        readLockWait, writeLockWait, aggregateLockWait, transactionDuration, commitLatency, rollbackDuration,
+        registeredObjects, dirtyObjects, flushDuration, transactionsPerFlush, housekeepingDuration } )
+    {
+      histogram.reset();
+    }
+    optimisticWrites.reset();
+    optimisticWriteFallbacks.reset();
+    stagedTransactions.reset();
+    rolledBackTransactions.reset();
+    deferredUnloads.reset();
+    evictedLazies.reset();
+    evictedLazyBytes.reset();
+    failedFlushes.reset();
+    skippedHousekeepings.reset();
+    droppedChangeSets.reset();
+    rejectedPreparations.reset();
+  }
+}
@@ -0,0 +1,64 @@
+package link.biosmarcel.presentation.persistence;
+
+/**
+ * JMX-Sicht auf die {@link StorageMetrics}. Zeiten sind in Nanosekunden angegeben.
+ */
+public interface StorageMetricsMXBean
+{
+  Histogram.Snapshot getReadLockWait();
+
+  Histogram.Snapshot getWriteLockWait();
+
+  Histogram.Snapshot getAggregateLockWait();
+
+  /** Dauer vom Beginn einer Write-Transaktion bis zum Stagen */
+  Histogram.Snapshot getTransactionDuration();
+
+  /** Dauer vom Stagen bis zum Abschluss des Persistierens */
+  Histogram.Snapshot getCommitLatency();
+
+  Histogram.Snapshot getRollbackDuration();
+
+  Histogram.Snapshot getRegisteredObjects();
+
+  Histogram.Snapshot getDirtyObjects();
+
+  Histogram.Snapshot getFlushDuration();
+
+  Histogram.Snapshot getTransactionsPerFlush();
+
+  long getStagedTransactions();
+
+  long getRolledBackTransactions();
+
+  /** Anteil der Rollbacks an allen beendeten Write-Transaktionen */
+  double getRollbackRate();
+
+  long getOptimisticWrites();
+
+  /** Anteil der optimistischen Writes, die wegen wiederholter Konflikte komplett im Lock liefen */
+  double getOptimisticWriteFallbackRate();
+
+  long getDeferredUnloads();
+
+  long getEvictedLazies();
+
+  /** Geschätzte Größe aller durch den {@link LazyGovernor} entladenen Daten */
+  long getEvictedLazyBytes();
+
+  long getFailedFlushes();
+
+  /** Dauer der Durchläufe des {@link HousekeepingScheduler} */
+  Histogram.Snapshot getHousekeepingDuration();
+
+  /** Anzahl der wegen hoher Last ausgelassenen Durchläufe des {@link HousekeepingScheduler} */
+  long getSkippedHousekeepings();
+
+  /** Anzahl der wegen voller Queue nicht zugestellten Batches des {@link ChangeStream} */
+  long getDroppedChangeSets();
+
+  /** Anzahl der zweiphasigen Writes, die bereits bei der Vorbereitung ohne Lock abgelehnt wurden */
+  long getRejectedPreparations();
+
+  void reset();
+}
@@ -1,10 +1,14 @@
 package link.biosmarcel.presentation.persistence;
 
 import link.biosmarcel.presentation.persistence.model.License;
+import link.biosmarcel.presentation.persistence.model.Permissions;
 import link.biosmarcel.presentation.persistence.model.User;
 import org.eclipse.jdt.annotation.Nullable;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
 
 /**
  * Diese Klasse repräsentiert die komplette serverseitige Datenstruktur. Es ist unser Root-Objekt, sprich alle
@@ -28,15 +32,99 @@ public class StorageRoot extends TransactionalObject
 
   private @Nullable License license;
 
+  // Die Indizes werden nicht persistiert, sondern beim Start über rebuildIndices aufgebaut.
+  private transient UniqueIndex<String, User>    usersByName;
+  private transient UniqueIndex<UUID, User>      usersById;
+  private transient HashIndex<Permissions, User> usersByPermissions;
+  private transient List<User>                   usersView;
+
   public StorageRoot()
   {
     this.users = new TransactionalList<>();
+    rebuildIndices();
   }
 
+  /**
+   * @return alle Benutzer, nicht veränderbar. Benutzer werden über {@link #addUser(User)} und
+   *     {@link #removeUser(User)} hinzugefügt bzw. entfernt, damit die Indizes gepflegt werden.
+   */
   public List<User> users()
   {
     requireReadAccess();
-    return users;
+    return usersView;
+  }
+
+  /**
+   * @throws IllegalStateException falls es bereits einen Benutzer mit diesem Namen gibt
+   */
+  public void addUser( final User user )
+  {
+    // Zuerst die Indizes, damit ein doppelter Name die Liste gar nicht erst verändert.
+    usersByName.add( user );
+    usersById.add( user );
+    usersByPermissions.add( user );
+    users.add( user );
+  }
+
+  public void removeUser( final User user )
+  {
+    if ( users.remove( user ) )
+    {
+      usersByName.remove( user );
+      usersById.remove( user );
+      usersByPermissions.remove( user );
+      recordRemoval( user );
+    }
+  }
+
+  /**
+   * @return Benutzer mit dem übergebenen Namen, oder {@code null}. Kostet O(1).
+   */
+  public @Nullable User findUserByName( final String name )
+  {
+    requireReadAccess();
+    return usersByName.get( name );
+  }
+
+  /**
+   * @return Benutzer mit der übergebenen ID, oder {@code null}. Kostet O(1).
+   */
+  public @Nullable User findUserById( final UUID id )
+  {
+    requireReadAccess();
+    return usersById.get( id );
+  }
+
+  /**
+   * @return alle Benutzer mit den übergebenen Berechtigungen, nicht veränderbar
+   */
+  public Set<User> findUsersByPermissions( final Permissions permissions )
+  {
+    requireReadAccess();
+    return usersByPermissions.get( permissions );
+  }
+
+  /**
+   * Baut die nicht persistierten Indizes auf Basis der geladenen Daten neu auf, inklusive der Indizes der Benutzer.
+   * Wird einmalig beim Start durch den {@link StorageImpl} aufgerufen, bevor andere Zugriffe möglich sind.
+   *
+   * @throws IllegalStateException falls die geladenen Daten einen Unique-Constraint verletzen
+   */
+  @Override
+  protected final void rebuildIndices()
+  {
+    usersView = Collections.unmodifiableList( users );
+    // Gemeinsam, da Aggregat-Writer eines Benutzers sonst dessen Namen parallel zu anderen Writern ändern könnten.
+    usersByName = new UniqueIndex<>( User.NAME, true );
+    usersById = new UniqueIndex<>( User.ID, true );
+    usersByPermissions = new HashIndex<>( User.PERMISSIONS, true );
+    rebuildIndex( usersByName, users );
+    rebuildIndex( usersById, users );
+    rebuildIndex( usersByPermissions, users );
+    for ( final var user : users )
+    {
+      rebuildIndicesOf( user );
+    }
   }
 
   public @Nullable License getLicense() {
@@ -0,0 +1,258 @@
+package link.biosmarcel.presentation.persistence;
+
+import org.eclipse.store.afs.nio.types.NioFileSystem;
+import org.eclipse.store.storage.embedded.types.EmbeddedStorageFoundation;
+import org.eclipse.store.storage.embedded.types.EmbeddedStorageManager;
+import org.eclipse.store.storage.types.StorageChannelCountProvider;
+import org.eclipse.store.storage.types.StorageConfiguration;
+import org.eclipse.store.storage.types.StorageDataFileEvaluator;
+import org.eclipse.store.storage.types.StorageEntityCacheEvaluator;
+import org.eclipse.store.storage.types.StorageHousekeepingController;
+import org.eclipse.store.storage.types.StorageLiveFileProvider;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Einstellungen des Storages, damit dieser ohne Neukompilieren an die jeweilige Umgebung angepasst werden kann. Die
+ * Einstellungen basieren auf einem {@link Preset} und können über Properties einzeln überschrieben werden, siehe
+ * {@link #load(Path)}. Alle Keys beginnen mit {@code storage.}:
+ * <ul>
+ *   <li>{@code storage.preset}: Name des {@link Preset}, z.B. {@code high-throughput}</li>
+ *   <li>{@code storage.directory}: Verzeichnis der Daten</li>
+ *   <li>{@code storage.channel-count}: Anzahl der Storage-Channels (Threads und Dateien), muss eine Zweierpotenz
+ *   sein. <b>Kann für bestehende Daten nicht geändert werden.</b></li>
+ *   <li>{@code storage.housekeeping.interval-ms}, {@code storage.housekeeping.time-budget-ns}: wie oft und wie lange
+ *   pro Channel aufgeräumt wird (Garbage Collection, Cache, Dateien)</li>
+ *   <li>{@code storage.housekeeping.scheduler-interval-ms}: Intervall des {@link HousekeepingScheduler}, der
+ *   zusätzlich abhängig von der Last aufräumt, {@code 0} deaktiviert diesen</li>
+ *   <li>{@code storage.entity-cache.threshold}, {@code storage.entity-cache.timeout-ms}: ab welcher Größe bzw. nach
+ *   welcher Zeit der Storage gecachte Daten verwirft</li>
+ *   <li>{@code storage.data-file.minimum-size}, {@code storage.data-file.maximum-size},
+ *   {@code storage.data-file.minimum-use-ratio}: Größe der Datendateien in Bytes und ab welchem Anteil noch
+ *   verwendeter Daten eine Datei aufgelöst wird</li>
+ *   <li>{@code storage.aggregate-stripes}: siehe {@link StorageImpl#StorageImpl(EmbeddedStorageManager, int)}</li>
+ *   <li>{@code storage.lazy-budget-bytes}: siehe {@link LazyGovernor#setBudgetBytes(long)}</li>
+ * </ul>
+ */
+public record StorageSettings(
+    Path directory,
+    int channelCount,
+    long housekeepingIntervalMs,
+    long housekeepingTimeBudgetNs,
+    long housekeepingSchedulerIntervalMs,
+    long entityCacheThreshold,
+    long entityCacheTimeoutMs,
+    int dataFileMinimumSize,
+    int dataFileMaximumSize,
+    double dataFileMinimumUseRatio,
+    int aggregateStripes,
+    long lazyBudgetBytes
+)
+{
+  public static final String PREFIX = "storage.";
+
+  private static final int MEGABYTE = 1024 * 1024;
+
+  public enum Preset
+  {
+    /** Die Defaults von EclipseStore, ein Channel. */
+    DEFAULT,
+    /**
+     * Kurze, dafür häufigere Housekeeping-Pausen und möglichst wenige Aggregat-Locks, da jeder Read alle nehmen muss.
+     * Für interaktive Zugriffe, bei denen einzelne Ausreißer mehr stören als der Durchsatz.
+     */
+    LOW_LATENCY,
+    /**
+     * Ein Channel pro Kern (bis 16), große Dateien, seltenes, dafür langes Housekeeping und mehr Aggregat-Locks. Für
+     * Importe und viele parallele Writer auf großen Datenbeständen, Reads werden dadurch etwas teurer.
+     */
+    HIGH_THROUGHPUT,
+    /** Ein Channel, kleiner Entity-Cache und kleines Budget für Lazy-Referenzen. Für kleine Instanzen und Tests. */
+    LOW_MEMORY;
+
+    public StorageSettings settings()
+    {
+      final int cores = Integer.highestOneBit( Runtime.getRuntime().availableProcessors() );
+      final long maxMemory = Runtime.getRuntime().maxMemory();
+      final Path directory = Path.of( "./storage" );
+      final long scheduler = HousekeepingScheduler.DEFAULT_INTERVAL.toMillis();
+      return switch ( this )
+      {
+        case DEFAULT -> new StorageSettings( directory, 1, 1_000, 10_000_000, scheduler, 1_000_000_000, 86_400_000,
+            MEGABYTE, 8 * MEGABYTE, 0.75, StorageImpl.DEFAULT_AGGREGATE_STRIPES, LazyGovernor.DEFAULT_BUDGET_BYTES );
+        // Das eingebaute Housekeeping bekommt nur ein kleines Budget, aufgeräumt wird vor allem in ruhigen Phasen.
+        case LOW_LATENCY -> new StorageSettings( directory, Math.min( cores, 4 ), 250, 2_000_000, scheduler,
+            1_000_000_000, 86_400_000, MEGABYTE, 8 * MEGABYTE, 0.75, 2, LazyGovernor.DEFAULT_BUDGET_BYTES );
+        case HIGH_THROUGHPUT -> new StorageSettings( directory, Math.min( cores, 16 ), 5_000, 50_000_000, scheduler,
+            2_000_000_000, 86_400_000, 8 * MEGABYTE, 64 * MEGABYTE, 0.6, 16, maxMemory / 3 );
+        case LOW_MEMORY -> new StorageSettings( directory, 1, 1_000, 10_000_000, scheduler, 100_000_000, 600_000,
+            MEGABYTE, 4 * MEGABYTE, 0.75, 2, maxMemory / 10 );
+      };
+    }
+
+    /**
+     * @param name z.B. {@code high-throughput} oder {@code HIGH_THROUGHPUT}
+     */
+    public static Preset parse( final String name )
+    {
+      return valueOf( name.trim().replace( '-', '_' ).toUpperCase( Locale.ROOT ) );
+    }
+  }
+
+  public StorageSettings
+  {
+    if ( channelCount <= 0 || Integer.bitCount( channelCount ) != 1 )
+    {
+      throw new IllegalArgumentException( "Die Anzahl der Channels muss eine Zweierpotenz sein: " + channelCount );
+    }
+    if ( dataFileMinimumSize <= 0 || dataFileMaximumSize < dataFileMinimumSize )
+    {
+      throw new IllegalArgumentException( "Ungültige Dateigrößen: " + dataFileMinimumSize + " - "
+          + dataFileMaximumSize );
+    }
+    if ( dataFileMinimumUseRatio <= 0 || dataFileMinimumUseRatio > 1 )
+    {
+      throw new IllegalArgumentException( "Der Anteil muss zwischen 0 und 1 liegen: " + dataFileMinimumUseRatio );
+    }
+  }
+
+  /**
+   * Liest die Einstellungen aus der Datei, sofern diese existiert. System-Properties mit {@link #PREFIX} überschreiben
+   * die Werte aus der Datei, z.B. {@code -Dstorage.preset=low-memory}.
+   */
+  public static StorageSettings load( final Path file )
+  {
+    final var properties = new Properties();
+    if ( Files.isRegularFile( file ) )
+    {
+      try ( final Reader reader = Files.newBufferedReader( file ) )
+      {
+        properties.load( reader );
+      }
+      catch ( final IOException exception )
+      {
+        throw new UncheckedIOException( "Einstellungen konnten nicht gelesen werden: " + file, exception );
+      }
+    }
+    for ( final var name : System.getProperties().stringPropertyNames() )
+    {
+      if ( name.startsWith( PREFIX ) )
+      {
+        properties.setProperty( name, System.getProperty( name ) );
+      }
+    }
+    return fromProperties( properties );
+  }
+
+  /**
+   * Basierend auf {@code storage.preset} (Default {@link Preset#DEFAULT}), überschrieben durch die einzelnen Keys.
+   *
+   * @throws IllegalArgumentException bei ungültigen Werten
+   */
+  public static StorageSettings fromProperties( final Properties properties )
+  {
+    final var base = Preset.parse( properties.getProperty( PREFIX + "preset", Preset.DEFAULT.name() ) ).settings();
+    return new StorageSettings(
+        Path.of( properties.getProperty( PREFIX + "directory", base.directory().toString() ) ),
+        intProperty( properties, "channel-count", base.channelCount() ),
+        longProperty( properties, "housekeeping.interval-ms", base.housekeepingIntervalMs() ),
+        longProperty( properties, "housekeeping.time-budget-ns", base.housekeepingTimeBudgetNs() ),
+        longProperty( properties, "housekeeping.scheduler-interval-ms", base.housekeepingSchedulerIntervalMs() ),
+        longProperty( properties, "entity-cache.threshold", base.entityCacheThreshold() ),
+        longProperty( properties, "entity-cache.timeout-ms", base.entityCacheTimeoutMs() ),
+        intProperty( properties, "data-file.minimum-size", base.dataFileMinimumSize() ),
+        intProperty( properties, "data-file.maximum-size", base.dataFileMaximumSize() ),
+        doubleProperty( properties, "data-file.minimum-use-ratio", base.dataFileMinimumUseRatio() ),
+        intProperty( properties, "aggregate-stripes", base.aggregateStripes() ),
+        longProperty( properties, "lazy-budget-bytes", base.lazyBudgetBytes() )
+    );
+  }
+
+  private static int intProperty( final Properties properties, final String key, final int fallback )
+  {
+    return Math.toIntExact( longProperty( properties, key, fallback ) );
+  }
+
+  private static long longProperty( final Properties properties, final String key, final long fallback )
+  {
+    final String value = properties.getProperty( PREFIX + key );
+    if ( value == null )
+    {
+      return fallback;
+    }
+    try
+    {
+      return Long.parseLong( value.trim().replace( "_", "" ) );
+    }
+    catch ( final NumberFormatException exception )
+    {
+      throw new IllegalArgumentException( "Ungültiger Wert für " + PREFIX + key + ": " + value, exception );
+    }
+  }
+
+  private static double doubleProperty( final Properties properties, final String key, final double fallback )
+  {
+    final String value = properties.getProperty( PREFIX + key );
+    if ( value == null )
+    {
+      return fallback;
+    }
+    try
+    {
+      return Double.parseDouble( value.trim() );
+    }
+    catch ( final NumberFormatException exception )
+    {
+      throw new IllegalArgumentException( "Ungültiger Wert für " + PREFIX + key + ": " + value, exception );
+    }
+  }
+
+  /**
+   * @return die Konfiguration für EclipseStore, ohne die Einstellungen von {@link StorageImpl} selbst
+   */
+  public StorageConfiguration toConfiguration()
+  {
+    return StorageConfiguration
+        .Builder()
+        .setStorageFileProvider( StorageLiveFileProvider.New(
+            NioFileSystem.New().ensureDirectoryPath( directory.toString() )
+        ) )
+        .setChannelCountProvider( StorageChannelCountProvider.New( channelCount ) )
+        .setHousekeepingController( StorageHousekeepingController.New(
+            housekeepingIntervalMs,
+            housekeepingTimeBudgetNs
+        ) )
+        .setEntityCacheEvaluator( StorageEntityCacheEvaluator.New( entityCacheTimeoutMs, entityCacheThreshold ) )
+        .setDataFileEvaluator( StorageDataFileEvaluator.New(
+            dataFileMinimumSize,
+            dataFileMaximumSize,
+            dataFileMinimumUseRatio
+        ) )
+        .createConfiguration();
+  }
+
+  /**
+   * Erstellt den {@link EmbeddedStorageManager} und startet darüber den {@link StorageImpl}.
+   */
+  public StorageImpl start()
+  {
+    final EmbeddedStorageManager manager = EmbeddedStorageFoundation
+        .New()
+        .setConfiguration( toConfiguration() )
+        .createEmbeddedStorageManager();
+    final var storage = new StorageImpl( manager, aggregateStripes );
+    storage.lazyGovernor().setBudgetBytes( lazyBudgetBytes );
+    if ( housekeepingSchedulerIntervalMs > 0 )
+    {
+      storage.housekeeping().start( Duration.ofMillis( housekeepingSchedulerIntervalMs ) );
+    }
+    return storage;
+  }
+}
@@ -2,12 +2,17 @@ package link.biosmarcel.presentation.persistence;
 
 import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.serializer.persistence.types.Storer;
-import org.eclipse.serializer.persistence.util.Reloader;
 import org.eclipse.serializer.reference.Lazy;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Hier wird eine Transaktion implementiert, angelehnt an die Transaktionen die man aus SQL kennt.
@@ -24,8 +29,12 @@ import java.util.HashSet;
 @org.eclipse.jdt.annotation.NonNullByDefault
 public final class Transaction
 {
-  private final @Nullable Storer   storer;
-  private final           Reloader reloader;
+  private final @Nullable Storer          storer;
+  private final @Nullable GroupCommit     groupCommit;
+  private final @Nullable LazyGovernor    lazyGovernor;
+  private final           StorageListener listener;
+  /** Für Metriken, bei den pro Thread wiederverwendeten Read-Transaktionen also ohne Bedeutung. */
+  private final           long            startNanos = System.nanoTime();
 
   /**
    * Alle potenziell zu speichernden Objekte. In einer ersten Iteration haben wir hier über ein {@link HashSet}
@@ -40,21 +49,82 @@ public final class Transaction
    * {@link Lazy#clear()} Calls weniger kostspielig sind, als die Lazy-Objekte zu deduplizieren.
    */
   private final Collection<Lazy<?>>             unloadAfterTransaction = new HashSet<>();
+  /**
+   * Objekte, die Teil eines {@link Index} sind und seit dem letzten {@link #refreshIndexes()} als dirty markiert
+   * wurden. Da {@link #markDirty(TransactionalObject)} vor der Änderung aufgerufen wird, können die Keys erst später
+   * neu berechnet werden.
+   */
+  private final Set<TransactionalObject>        reindexPending         = Collections.newSetFromMap(
+      new IdentityHashMap<>() );
+  /** Über {@link TransactionalObject#getLazy(Lazy)} verwendete Referenzen, für den {@link LazyGovernor}. */
+  private final List<Lazy<?>>                   touchedLazies          = new ArrayList<>();
+  /** Wird bei {@link #rollback()} rückwärts ausgeführt, um Änderungen rückgängig zu machen, die nicht im Storage liegen. */
+  private final List<Runnable>                  rollbackActions        = new ArrayList<>();
+  /** Über {@link #recordRemoval(TransactionalObject)} gemeldete Objekte, für den {@link ChangeStream}. */
+  private final List<ChangeEvent>               removals               = new ArrayList<>();
+
+  /**
+   * Die Versionen aller gelesenen Objekte, sofern es sich um die Vorbereitung einer optimistischen Transaktion handelt,
+   * sonst {@code null}. Siehe {@link StorageAccess#writeOptimistic(java.util.function.Function,
+   * java.util.function.BiFunction)}.
+   */
+  private @Nullable Map<TransactionalObject, Long> readVersions = null;
+
+  /**
+   * Ob beim {@link #stage()} die Lazy-Felder aller neuen und geänderten Objekte automatisch über
+   * {@link #deferUnload(Lazy)} entladen werden, siehe {@link StorageAccess#importAll(java.util.Iterator, int,
+   * java.util.function.BiConsumer)}.
+   */
+  private boolean unloadWrittenLazies = false;
+
+  /**
+   * Ob es sich um die Vorbereitung eines {@link StorageAccess#writePrepared(java.util.function.Supplier,
+   * java.util.function.BiFunction) zweiphasigen Writes} außerhalb des Locks handelt, siehe {@link #detached}.
+   */
+  private boolean detached = false;
 
   /** Markiert die Transaction als beendet, um zu verhindern, dass wir mehrmals Rollback oder commit ausführen. */
   private boolean finished = false;
   private boolean writable = true;
 
-  private final Object usagesLock = new Object();
-  private       int    usages     = 0;
+  /**
+   * Index des Aggregat-Locks, den diese Transaktion hält, oder {@link #NO_AGGREGATE} wenn es sich um eine Transaktion
+   * auf dem gesamten Datenbestand handelt.
+   */
+  private int aggregateStripe = NO_AGGREGATE;
+
+  static final int NO_AGGREGATE = -1;
 
+  /**
+   * @param lazyStorer wird für {@link #commit()} benötigt, darf also bei Read-Transaktionen und Transaktionen die über
+   *     {@link #stage()} abgeschlossen werden {@code null} sein.
+   * @param groupCommit wird für {@link #stage()} benötigt, {@code null} falls direkt committet wird
+   * @param lazyGovernor bekommt beim Beenden die verwendeten Lazy-Referenzen gemeldet, {@code null} falls nicht nötig
+   * @param listener wird über Stagen, Rollbacks und {@link #deferUnload(Lazy)} informiert
+   */
   Transaction(
       final @Nullable Storer lazyStorer,
-      final Reloader reloader
+      final @Nullable GroupCommit groupCommit,
+      final @Nullable LazyGovernor lazyGovernor,
+      final StorageListener listener
   )
   {
     this.storer = lazyStorer;
-    this.reloader = reloader;
+    this.groupCommit = groupCommit;
+    this.lazyGovernor = lazyGovernor;
+    this.listener = listener;
+  }
+
+  /**
+   * Erstellt eine Transaktion für die Vorbereitung eines Writes außerhalb des Locks. Neue Objekte registrieren sich wie
+   * gewohnt und dürfen verändert werden, bereits gespeicherte Objekte dagegen nicht, da diese ohne Lock von anderen
+   * Threads gelesen werden. Die neuen Objekte werden anschließend im Lock per {@link #adopt(Transaction)} übernommen.
+   */
+  static Transaction detached( final StorageListener listener )
+  {
+    final var transaction = new Transaction( null, null, null, listener );
+    transaction.detached = true;
+    return transaction;
   }
 
   /**
@@ -91,6 +161,38 @@ public final class Transaction
   public void deferUnload( final Lazy<?> anyLazy )
   {
     unloadAfterTransaction.add( anyLazy );
+    listener.unloadDeferred();
+  }
+
+  void setUnloadWrittenLazies( final boolean unloadWrittenLazies )
+  {
+    this.unloadWrittenLazies = unloadWrittenLazies;
+  }
+
+  void touchLazy( final Lazy<?> lazy )
+  {
+    if ( lazyGovernor != null )
+    {
+      touchedLazies.add( lazy );
+    }
+  }
+
+  /**
+   * Siehe {@link TransactionalObject#prefetch(Collection)}.
+   */
+  void prefetch( final Collection<? extends Lazy<?>> lazies )
+  {
+    validateForReadAccess();
+    if ( lazyGovernor == null )
+    {
+      return;
+    }
+
+    lazyGovernor.prefetch( lazies );
+    for ( final var lazy : lazies )
+    {
+      touchLazy( lazy );
+    }
   }
 
   /**
@@ -110,6 +212,11 @@ public final class Transaction
     validateForWriteAccess();
 
     final SaveState saveState = object.getSaveState();
+    if ( detached && ( saveState == SaveState.SAVED || saveState == SaveState.DIRTY ) )
+    {
+      throw new IllegalStateException( "Bei der Vorbereitung außerhalb des Locks dürfen nur neue Objekte verändert "
+          + "werden: " + object.getClass().getSimpleName() );
+    }
     if ( saveState != SaveState.DIRTY )
     {
       if ( saveState != SaveState.REGISTERED )
@@ -119,6 +226,19 @@ public final class Transaction
           throw new IllegalStateException(
               "FRESH Entities sollten über register bereits bei new() hinzugefügt werden" );
         }
+        // Da markDirty vor der Änderung aufgerufen wird, können wir hier den bisherigen Zustand für einen Rollback
+        // festhalten. Neue Objekte (REGISTERED) brauchen kein Abbild, da sie nach einem Rollback nicht mehr
+        // referenziert werden.
+        for ( final var additional : object.storeAdditionally() )
+        {
+          rollbackActions.add( BeforeImage.capture( additional ) );
+        }
+        // Transaktionale Collections halten ihren Inhalt in den Objekten aus storeAdditionally, deren Abbilder genügen.
+        // Ein Abbild der Collection selbst würde bei jedem markDirty den gesamten Inhalt kopieren.
+        if ( !( object instanceof Collection<?> ) && !( object instanceof Map<?, ?> ) )
+        {
+          rollbackActions.add( BeforeImage.capture( object ) );
+        }
         registered.add( object );
       }
 
@@ -128,6 +248,12 @@ public final class Transaction
         object.setSaveState( SaveState.DIRTY );
       }
     }
+
+    // Auch bei bereits dirty Objekten, da refreshIndexes zwischen zwei Änderungen laufen und die Menge leeren kann.
+    if ( object.getIndexes() != null )
+    {
+      reindexPending.add( object );
+    }
   }
 
   /**
@@ -153,6 +279,120 @@ public final class Transaction
     }
   }
 
+  /**
+   * Übernimmt alle in einer {@link #detached(StorageListener) vorbereitenden Transaktion} angelegten Objekte samt
+   * Rollback-Aktionen und zu entladenden Lazy-Referenzen. Die vorbereitende Transaktion ist danach beendet.
+   */
+  void adopt( final Transaction preparation )
+  {
+    validateForWriteAccess();
+    if ( !preparation.detached || preparation.isFinished() )
+    {
+      throw new IllegalStateException( "Nur nicht beendete, vorbereitende Transaktionen können übernommen werden" );
+    }
+
+    // Die Objekte sind alle REGISTERED, da die Vorbereitung keine gespeicherten Objekte verändern darf.
+    registered.addAll( preparation.registered );
+    reindexPending.addAll( preparation.reindexPending );
+    rollbackActions.addAll( preparation.rollbackActions );
+    unloadAfterTransaction.addAll( preparation.unloadAfterTransaction );
+    preparation.unloadAfterTransaction.clear();
+    preparation.finish();
+  }
+
+  /**
+   * Berechnet die Keys aller seit dem letzten Aufruf geänderten, indizierten Objekte neu. Wird vor jedem Zugriff auf
+   * einen {@link Index} und vor dem Commit aufgerufen.
+   */
+  void refreshIndexes()
+  {
+    if ( reindexPending.isEmpty() )
+    {
+      return;
+    }
+
+    for ( final var object : reindexPending )
+    {
+      final var indexes = object.getIndexes();
+      if ( indexes != null )
+      {
+        for ( final var registration : indexes )
+        {
+          registration.reindex();
+        }
+      }
+    }
+    reindexPending.clear();
+  }
+
+  /**
+   * Registriert eine Aktion, die bei einem {@link #rollback()} ausgeführt wird. Neben den {@link BeforeImage Abbildern}
+   * der veränderten Objekte wird dies z.B. für {@link Index Indizes} benötigt, die nicht persistiert werden.
+   */
+  void onRollback( final Runnable action )
+  {
+    rollbackActions.add( action );
+  }
+
+  /**
+   * Siehe {@link TransactionalObject#recordRemoval(TransactionalObject)}.
+   */
+  void recordRemoval( final TransactionalObject object )
+  {
+    validateForWriteAccess();
+    if ( groupCommit == null || !groupCommit.capturesChanges() )
+    {
+      return;
+    }
+
+    final Object id = object.changeId();
+    if ( id != null )
+    {
+      removals.add( new ChangeEvent( object.getClass(), id, object.changeParentId(), ChangeEvent.Kind.REMOVED ) );
+    }
+  }
+
+  /**
+   * Ab jetzt werden die Versionen aller über {@link TransactionalObject#requireReadAccess()} gelesenen Objekte
+   * aufgezeichnet.
+   */
+  void recordReads()
+  {
+    readVersions = new IdentityHashMap<>();
+  }
+
+  void recordRead( final TransactionalObject object )
+  {
+    final var versions = readVersions;
+    if ( versions != null )
+    {
+      // Die erste gelesene Version ist entscheidend, spätere Änderungen fallen bei der Validierung auf.
+      versions.putIfAbsent( object, object.getVersion() );
+    }
+  }
+
+  /**
+   * @return {@code true} wenn seit dem Lesen keines der aufgezeichneten Objekte verändert wurde. Ist nur im
+   *     Lock-Kontext verlässlich.
+   */
+  boolean isReadSetUnchanged()
+  {
+    final var versions = readVersions;
+    if ( versions == null )
+    {
+      return true;
+    }
+
+    for ( final var entry : versions.entrySet() )
+    {
+      if ( entry.getKey().getVersion() != entry.getValue() )
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * @throws IllegalStateException falls die Transaktion nicht im korrekten Zustand ist.
    */
@@ -189,41 +429,23 @@ public final class Transaction
     this.writable = writable;
   }
 
-  /**
-   * @return {@code true} wenn die Transaktion in einem Kontext verwendet wird, in dem die Benutzung von mutierenden
-   *     Methoden erlaubt ist.
-   */
-  public boolean isWritable()
+  int getAggregateStripe()
   {
-    return writable;
+    return aggregateStripe;
   }
 
-  /** Inkrementiert wie viele Nutzer (lockende Aufrufe) es gerade für diese Transaktion gibt. */
-  void incUsages()
+  void setAggregateStripe( final int aggregateStripe )
   {
-    synchronized ( usagesLock )
-    {
-      usages++;
-    }
+    this.aggregateStripe = aggregateStripe;
   }
 
   /**
-   * Dekrementiert wie viele Nutzer (lockende Aufrufe) es gerade für diese Transaktion gibt. Wenn es keine usages mehr
-   * gibt, wird die Transaktion beendet und es wird {@code true} geliefert.
+   * @return {@code true} wenn die Transaktion in einem Kontext verwendet wird, in dem die Benutzung von mutierenden
+   *     Methoden erlaubt ist.
    */
-  boolean decUsages()
+  public boolean isWritable()
   {
-    synchronized ( usagesLock )
-    {
-      usages--;
-      if ( usages == 0 )
-      {
-        finish();
-        return true;
-      }
-
-      return false;
-    }
+    return writable;
   }
 
   /**
@@ -242,6 +464,7 @@ public final class Transaction
     //noinspection OverlyBroadCatchBlock
     try
     {
+      refreshIndexes();
       for ( final var object : registered )
       {
         switch ( object.getSaveState() )
@@ -287,32 +510,82 @@ public final class Transaction
   }
 
   /**
-   * Macht die Änderungen an allen in der Transaktion veränderten Daten wieder rückgängig, indem die Daten aus dem
-   * unterliegenden Speicher-System neu-geladen werden und in die im Speicher lebenden Objekte überführt werden.
+   * Alternative zu {@link #commit()}: Statt selbst zu persistieren, werden die zu speichernden Objekte an den
+   * {@link GroupCommit} übergeben und zusammen mit den Objekten anderer Transaktionen persistiert. Die Transaktion ist
+   * danach beendet, die Daten sind jedoch erst persistiert, wenn das zurückgelieferte Future abgeschlossen ist.
+   * Sollte beim Stagen ein Fehler auftreten, wird {@link #rollback()} aufgerufen. Schlägt das Persistieren des Batches
+   * fehl, werden die Änderungen über die an den {@link GroupCommit} übergebenen Abbilder zurückgerollt, siehe
+   * {@link GroupCommit#rollBackFailed()}.
    */
-  public void rollback()
+  CompletableFuture<Void> stage()
   {
+    assert groupCommit != null;
+
     if ( finished )
     {
-      return;
+      return CompletableFuture.completedFuture( null );
     }
 
+    //noinspection OverlyBroadCatchBlock
     try
     {
+      refreshIndexes();
+      final var toStore = new ArrayList<TransactionalObject>();
+      // Einmal auswerten, da sich währenddessen Abonnenten an- oder abmelden können.
+      final boolean captureChanges = groupCommit.capturesChanges();
+      final List<ChangeEvent> changes = captureChanges ? new ArrayList<>() : List.of();
       for ( final var object : registered )
       {
-        for ( final var toStore : object.storeAdditionally() )
+        if ( unloadWrittenLazies && object.getSaveState() != SaveState.SAVED )
         {
-          reloader.reloadFlat( toStore );
+          deferUnloadOfLazyFields( object );
         }
+        if ( captureChanges )
+        {
+          captureChange( object, changes );
+        }
+        switch ( object.getSaveState() )
+        {
+          case FRESH ->
+          {
+            throw new IllegalStateException(
+                "Objekt ist frisch, aber Teil einer Transaktion. Es sollte erst auf registriert gesetzt werden" );
+          }
+          case REGISTERED ->
+          {
+            // Noch nicht gespeichert, passiert aber implizit durch save des Parents.
+            object.setSaveState( SaveState.SAVED );
+          }
+          case SAVED ->
+          {
+            // Bereits gespeichert und unverändert.
+          }
+          case DIRTY ->
+          {
+            toStore.add( object );
+            object.setSaveState( SaveState.SAVED );
+            // Alle Änderungen sind abgeschlossen, optimistische Transaktionen die das Objekt gelesen haben, sind
+            // somit ab jetzt ungültig.
+            object.incrementVersion();
+          }
+        }
+      }
 
-        reloader.reloadFlat( object );
-
-        // Theoretisch kann es passieren, dass wir ein zuvor als NOT_STORED markiertes Objekt als STORED markieren.
-        // Da wir jedoch die parents sowieso reverten, werden diese Objekte nicht mehr referenziert und sorgen somit
-        // nicht für weitere Probleme.
-        object.setSaveState( SaveState.SAVED );
+      if ( captureChanges )
+      {
+        changes.addAll( removals );
       }
+
+      final var durable = groupCommit.stage( registered, toStore, unloadAfterTransaction, changes, stagedRollback() );
+      // Neue Lazy-Referenzen sind erst nach dem Persistieren stored, daher entlädt der GroupCommit diese.
+      unloadAfterTransaction.clear();
+      listener.transactionStaged( registered.size(), toStore.size(), System.nanoTime() - startNanos );
+      return durable;
+    }
+    catch ( final RuntimeException exception )
+    {
+      rollback();
+      throw exception;
     }
     finally
     {
@@ -320,6 +593,111 @@ public final class Transaction
     }
   }
 
+  /**
+   * Muss vor dem Setzen des neuen {@link SaveState} aufgerufen werden.
+   */
+  private static void captureChange( final TransactionalObject object, final List<ChangeEvent> changes )
+  {
+    final SaveState saveState = object.getSaveState();
+    if ( saveState != SaveState.REGISTERED && saveState != SaveState.DIRTY )
+    {
+      return;
+    }
+
+    final Object id = object.changeId();
+    if ( id != null )
+    {
+      changes.add( new ChangeEvent( object.getClass(), id, object.changeParentId(), saveState == SaveState.REGISTERED
+          ? ChangeEvent.Kind.CREATED
+          : ChangeEvent.Kind.UPDATED ) );
+    }
+  }
+
+  private void deferUnloadOfLazyFields( final TransactionalObject object )
+  {
+    LazyFields.forEach( object, this::deferUnload );
+    for ( final var additional : object.storeAdditionally() )
+    {
+      LazyFields.forEach( additional, this::deferUnload );
+    }
+  }
+
+  /**
+   * Macht die Änderungen an allen in der Transaktion veränderten Daten wieder rückgängig. Dazu werden die bei
+   * {@link #markDirty(TransactionalObject)} erstellten {@link BeforeImage Abbilder} in umgekehrter Reihenfolge
+   * zurückgespielt. Der Storage wird dabei nicht gelesen, ein Rollback kostet also nur Speicherzugriffe.
+   */
+  public void rollback()
+  {
+    if ( finished )
+    {
+      return;
+    }
+
+    final long rollbackStart = System.nanoTime();
+    try
+    {
+      undo( rollbackActions, registered );
+      reindexPending.clear();
+      listener.transactionRolledBack( registered.size(), System.nanoTime() - rollbackStart );
+    }
+    finally
+    {
+      finish();
+    }
+  }
+
+  /**
+   * Hält die Abbilder und registrierten Objekte über das Ende der Transaktion hinaus fest, damit diese nach einem
+   * fehlgeschlagenen Persistieren noch zurückgerollt werden kann.
+   *
+   * <p>Der {@link GroupCommit} rollt ohne gebundene Transaktion zurück. Die Aktionen der {@link Index Indizes} lesen
+   * jedoch über die Getter und verändern z.B. die {@link FullTextPostings} über deren transaktionale Maps. Daher wird
+   * währenddessen eine eigene Transaktion gebunden, die selbst nie persistiert. Die dabei veränderten Objekte entsprechen
+   * danach wieder dem persistierten Stand.
+   */
+  private Runnable stagedRollback()
+  {
+    final List<Runnable> actions = List.copyOf( rollbackActions );
+    final List<TransactionalObject> objects = List.copyOf( registered );
+    return () ->
+    {
+      final long rollbackStart = System.nanoTime();
+      final var undoTransaction = new Transaction( null, null, null, listener );
+      final Transaction outer = Transactions.getTransaction();
+      Transactions.setTransaction( undoTransaction );
+      try
+      {
+        undo( actions, objects );
+        undo( List.of(), undoTransaction.registered );
+      }
+      finally
+      {
+        Transactions.setTransaction( outer );
+        undoTransaction.finish();
+      }
+      listener.transactionRolledBack( objects.size(), System.nanoTime() - rollbackStart );
+    };
+  }
+
+  private static void undo( final List<Runnable> actions, final Collection<TransactionalObject> objects )
+  {
+    for ( int i = actions.size() - 1; i >= 0; i-- )
+    {
+      actions.get( i ).run();
+    }
+
+    for ( final var object : objects )
+    {
+      // Theoretisch kann es passieren, dass wir ein zuvor als NOT_STORED markiertes Objekt als STORED markieren.
+      // Da wir jedoch die parents sowieso reverten, werden diese Objekte nicht mehr referenziert und sorgen somit
+      // nicht für weitere Probleme.
+      object.setSaveState( SaveState.SAVED );
+      // Optimistische Transaktionen könnten die verworfenen Werte gesehen haben.
+      object.incrementVersion();
+    }
+  }
+
   /**
    * Markiert die Transaktion unabhängig davon, ob erfolgreich oder nicht als beendet und räumt auf. Außerdem werden
    * hier die in {@link #deferUnload(Lazy)} angegebenen {@link Lazy}-Instanzen {@link Lazy#clear() gecleart}.
@@ -331,6 +709,38 @@ public final class Transaction
       return;
     }
 
+    releaseDeferredUnloads();
+    if ( storer != null )
+    {
+      storer.clear();
+    }
+    registered.clear();
+    reindexPending.clear();
+    rollbackActions.clear();
+    removals.clear();
+
+    finished = true;
+  }
+
+  /**
+   * {@link Lazy#clear() Cleart} die in {@link #deferUnload(Lazy)} angegebenen {@link Lazy}-Instanzen, ohne die
+   * Transaktion zu beenden. Dies wird für die pro Thread wiederverwendete Read-Transaktion benötigt, die nie beendet
+   * wird, aber beim Verlassen des äußersten Read-Calls trotzdem aufräumen muss. Zusätzlich werden die verwendeten
+   * Lazy-Referenzen an den {@link LazyGovernor} gemeldet.
+   */
+  void releaseDeferredUnloads()
+  {
+    if ( lazyGovernor != null && !touchedLazies.isEmpty() )
+    {
+      lazyGovernor.touched( touchedLazies );
+      touchedLazies.clear();
+    }
+
+    if ( unloadAfterTransaction.isEmpty() )
+    {
+      return;
+    }
+
     for ( final var lazy : unloadAfterTransaction )
     {
       if ( lazy.isStored() )
@@ -340,12 +750,26 @@ public final class Transaction
     }
 
     unloadAfterTransaction.clear();
-    if ( storer != null )
-    {
-      storer.clear();
-    }
-    registered.clear();
+  }
 
-    finished = true;
+  /**
+   * @return {@code true} falls {@link #releaseDeferredUnloads()} etwas zu tun hätte
+   */
+  boolean hasDeferredUnloads()
+  {
+    return !unloadAfterTransaction.isEmpty() || !touchedLazies.isEmpty();
+  }
+
+  /**
+   * Übergibt die in {@link #deferUnload(Lazy)} angegebenen und die verwendeten {@link Lazy}-Referenzen an eine andere
+   * Transaktion, damit diese erst im Lock-Kontext freigegeben werden, siehe
+   * {@link StorageAccess#writeOptimistic(java.util.function.Function, java.util.function.BiFunction)}.
+   */
+  void handOverDeferredUnloads( final Transaction target )
+  {
+    target.unloadAfterTransaction.addAll( unloadAfterTransaction );
+    target.touchedLazies.addAll( touchedLazies );
+    unloadAfterTransaction.clear();
+    touchedLazies.clear();
   }
 }
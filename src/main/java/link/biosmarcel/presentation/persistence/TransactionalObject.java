@@ -1,6 +1,11 @@
 package link.biosmarcel.presentation.persistence;
 
 import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.serializer.reference.Lazy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 /**
  * Allgemeine Klasse für (fast) alle modifizierbaren Objekte, die in EclipseStore gelagert werden sollen. Dies schließt
@@ -17,6 +22,20 @@ public class TransactionalObject
 
   private transient @Nullable SaveState state;
 
+  /**
+   * Die Anmeldungen bei den {@link Index Indizes}, in denen das Objekt enthalten ist. Wird nicht persistiert, sondern
+   * beim Aufbau der Indizes gesetzt, und ist {@code null}, solange das Objekt in keinem Index ist.
+   */
+  private transient @Nullable List<Index<?, ?>.Registration> indexes;
+
+  /**
+   * Wird bei jedem Abschluss einer Transaktion erhöht, in der das Objekt verändert wurde, siehe
+   * {@link StorageAccess#writeOptimistic(java.util.function.Function, java.util.function.BiFunction)}. Volatile, da
+   * optimistische Transaktionen die Version ohne Lock lesen und anhand dieser entscheiden, ob die gelesenen Werte
+   * aktuell sind.
+   */
+  private transient volatile long version;
+
   protected TransactionalObject()
   {
     // Der initiale State ist immer FRESH, da Konstruktoren immer nur bei der ersten Initialisierung des Objekts
@@ -66,9 +85,86 @@ public class TransactionalObject
     requireTransaction().markDirty( this );
   }
 
+  /**
+   * Registriert eine Aktion, die bei einem Rollback der aktuellen Transaktion ausgeführt wird, z.B. um nicht
+   * persistierte Felder zurückzusetzen, die kein {@link BeforeImage} erfasst.
+   *
+   * @throws IllegalStateException falls die Transaktion nicht vorhanden / nicht im korrekten Zustand ist.
+   */
+  protected final void onRollback( final Runnable action )
+  {
+    final var transaction = requireTransaction();
+    transaction.validateForWriteAccess();
+    transaction.onRollback( action );
+  }
+
   protected final void requireReadAccess()
   {
-    requireTransaction().validateForReadAccess();
+    final var transaction = requireTransaction();
+    transaction.validateForReadAccess();
+    transaction.recordRead( this );
+  }
+
+  /**
+   * Lädt den Wert einer {@link Lazy}-Referenz und meldet diese beim {@link LazyGovernor} an, der die Referenz bei
+   * Speicherknappheit wieder entladen kann. Getter sollten Lazy-Referenzen immer hierüber auflösen, statt direkt
+   * {@link Lazy#get()} aufzurufen.
+   *
+   * @return der Wert, oder {@code null} falls die Referenz {@code null} ist
+   */
+  protected final <Type> @Nullable Type getLazy( final @Nullable Lazy<Type> lazy )
+  {
+    if ( lazy == null )
+    {
+      return null;
+    }
+    final Type value = lazy.get();
+    requireTransaction().touchLazy( lazy );
+    return value;
+  }
+
+  /**
+   * Lädt mehrere {@link Lazy}-Referenzen in einem Durchgang, statt jede einzeln beim ersten {@link #getLazy(Lazy)}.
+   * Lohnt sich, wenn anschließend ohnehin auf alle Referenzen zugegriffen wird, z.B. beim Anzeigen aller Notizen samt
+   * Inhalt. Die Referenzen werden wie bei {@link #getLazy(Lazy)} beim {@link LazyGovernor} angemeldet.
+   */
+  protected final void prefetch( final Collection<? extends Lazy<?>> lazies )
+  {
+    requireTransaction().prefetch( lazies );
+  }
+
+  /**
+   * Wie {@link #prefetch(Collection)}, jedoch werden alle Referenzen, die erst hierdurch geladen wurden, nach
+   * {@code action} direkt wieder entladen. Bereits zuvor geladene Referenzen bleiben geladen. Dadurch bleibt der
+   * Speicherbedarf auch dann begrenzt, wenn innerhalb eines einzigen Lock-Kontextes seitenweise über sehr viele
+   * Referenzen iteriert wird, z.B. bei einem Export. Ungespeicherte Referenzen werden nie entladen.
+   */
+  protected final void withPrefetched( final Collection<? extends Lazy<?>> lazies, final Runnable action )
+  {
+    final var notLoaded = new ArrayList<Lazy<?>>();
+    for ( final var lazy : lazies )
+    {
+      if ( !lazy.isLoaded() )
+      {
+        notLoaded.add( lazy );
+      }
+    }
+
+    prefetch( lazies );
+    try
+    {
+      action.run();
+    }
+    finally
+    {
+      for ( final var lazy : notLoaded )
+      {
+        if ( lazy.isStored() )
+        {
+          lazy.clear();
+        }
+      }
+    }
   }
 
   /**
@@ -81,6 +177,36 @@ public class TransactionalObject
     return NOTHING;
   }
 
+  /**
+   * Identifiziert das Objekt in den {@link ChangeEvent ChangeEvents} des {@link ChangeStream}. Objekte ohne eigene
+   * Identität, z.B. Collections, liefern {@code null} und werden nicht gemeldet. Wird im Lock-Kontext aufgerufen, der
+   * Wert sollte unveränderlich sein, z.B. eine {@link java.util.UUID}.
+   */
+  protected @Nullable Object changeId()
+  {
+    return null;
+  }
+
+  /**
+   * Die {@link #changeId()} des Objekts, über das dieses Objekt erreichbar ist, z.B. der Benutzer einer Notiz. Damit
+   * können Empfänger des {@link ChangeStream} das Objekt finden, ohne alle möglichen Eltern zu durchsuchen, auch wenn
+   * es bereits entfernt wurde. Gelten dieselben Bedingungen wie für {@link #changeId()}.
+   */
+  protected @Nullable Object changeParentId()
+  {
+    return null;
+  }
+
+  /**
+   * Meldet das Objekt im {@link ChangeStream} als entfernt, z.B. beim Entfernen aus einer Collection. Dies muss
+   * explizit passieren, da das Entfernen nur den Container verändert, nicht das Objekt selbst. Bei einem
+   * {@link Transaction#rollback()} wird die Meldung verworfen.
+   */
+  protected static void recordRemoval( final TransactionalObject object )
+  {
+    object.requireTransaction().recordRemoval( object );
+  }
+
   /**
    * @return aktueller {@link SaveState} des Objekts, aber nie {@code null}.
    */
@@ -98,4 +224,89 @@ public class TransactionalObject
   {
     this.state = state;
   }
+
+  /**
+   * Hook für Klassen, die {@link Index Indizes} über ihre Collections halten. Da Indizes nicht persistiert werden,
+   * müssen diese nach dem Laden neu aufgebaut werden. Implementationen müssen auch die Indizes ihrer Kind-Objekte über
+   * {@link #rebuildIndicesOf(TransactionalObject)} neu aufbauen.
+   */
+  protected void rebuildIndices()
+  {
+  }
+
+  /**
+   * Ruft {@link #rebuildIndices()} auf einem anderen Objekt auf, z.B. auf den Kindern in einer Collection.
+   */
+  protected static void rebuildIndicesOf( final TransactionalObject object )
+  {
+    object.rebuildIndices();
+  }
+
+  /**
+   * Befüllt einen Index ohne Transaktionalität, siehe {@link #rebuildIndices()}.
+   */
+  protected static <Value extends TransactionalObject> void rebuildIndex(
+      final Index<?, Value> index,
+      final Iterable<Value> values )
+  {
+    index.rebuild( values );
+  }
+
+  /**
+   * Meldet die Objekte bei einem persistierten Index an, ohne diesen neu aufzubauen, siehe {@link #rebuildIndices()}.
+   */
+  protected static <Value extends TransactionalObject> void attachIndex(
+      final Index<?, Value> index,
+      final Iterable<Value> values )
+  {
+    index.attach( values );
+  }
+
+  final long getVersion()
+  {
+    return version;
+  }
+
+  /**
+   * Darf nur aufgerufen werden, nachdem alle Änderungen am Objekt abgeschlossen sind, und nur durch die Transaktion,
+   * die das Objekt exklusiv verändern darf.
+   */
+  final void incrementVersion()
+  {
+    //noinspection NonAtomicOperationOnVolatileField
+    version = version + 1;
+  }
+
+  final @Nullable List<Index<?, ?>.Registration> getIndexes()
+  {
+    return indexes;
+  }
+
+  final void addIndex( final Index<?, ?>.Registration registration )
+  {
+    if ( indexes == null )
+    {
+      indexes = new ArrayList<>( 2 );
+    }
+    indexes.add( registration );
+  }
+
+  final void removeIndex( final Index<?, ?> index )
+  {
+    if ( indexes != null )
+    {
+      for ( int i = 0; i < indexes.size(); i++ )
+      {
+        if ( indexes.get( i ).index() == index )
+        {
+          indexes.remove( i );
+          break;
+        }
+      }
+      if ( indexes.isEmpty() )
+      {
+        indexes = null;
+      }
+    }
+  }
 }
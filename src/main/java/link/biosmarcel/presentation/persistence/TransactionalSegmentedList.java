@@ -0,0 +1,585 @@
+package link.biosmarcel.presentation.persistence;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * Transaktionale Liste für große Datenmengen. Anders als bei {@link TransactionalList} liegen die Elemente nicht in
+ * einer einzigen {@link ArrayList}, sondern sind auf Segmente fester Maximalgröße verteilt. Jedes Segment ist ein
+ * eigenes {@link TransactionalObject}, sprich bei einer Mutation wird nur das betroffene Segment als
+ * {@link TransactionalObject#markDirty() dirty} markiert und beim Commit gespeichert. Ein Anhängen oder Ersetzen eines
+ * Elements kostet beim Speichern also O(Segmentgröße) statt O(n).
+ *
+ * <p>Die Liste selbst wird nur dirty, wenn Segmente hinzukommen oder wegfallen. Ist ein Segment beim Einfügen voll,
+ * wird es in zwei Hälften geteilt, leere Segmente werden entfernt.
+ *
+ * <p>Zugriffe über den Index müssen das passende Segment suchen und kosten daher O(n / Segmentgröße). Für sequenzielle
+ * Zugriffe sollte daher {@link #iterator()} verwendet werden.
+ *
+ * @param <Type> in der Liste enthaltener Datentyp
+ */
+public class TransactionalSegmentedList<Type> extends TransactionalObject implements List<Type>
+{
+  public static final int DEFAULT_SEGMENT_CAPACITY = 512;
+
+  private final List<Segment<Type>> segments;
+  private final int                 segmentCapacity;
+
+  public TransactionalSegmentedList()
+  {
+    this( DEFAULT_SEGMENT_CAPACITY );
+  }
+
+  /**
+   * @param segmentCapacity maximale Anzahl an Elementen pro Segment, also auch die maximale Anzahl an Elementen, die
+   *     bei einer einzelnen Mutation gespeichert werden muss
+   */
+  public TransactionalSegmentedList( final int segmentCapacity )
+  {
+    if ( segmentCapacity < 2 )
+    {
+      throw new IllegalArgumentException( "Ein Segment muss mindestens zwei Elemente fassen können" );
+    }
+    this.segments = new ArrayList<>();
+    this.segmentCapacity = segmentCapacity;
+  }
+
+  /**
+   * Ein Segment der Liste. Wird immer nur als Ganzes gespeichert.
+   */
+  static final class Segment<Type> extends TransactionalObject
+  {
+    private final ArrayList<Type> elements;
+
+    private Segment( final int capacity )
+    {
+      this.elements = new ArrayList<>( capacity );
+    }
+
+    @Override
+    public Object[] storeAdditionally()
+    {
+      return new Object[]{ elements };
+    }
+  }
+
+  // WRITE
+
+  @Override
+  public boolean add( final Type type )
+  {
+    final Segment<Type> last = segments.isEmpty() ? null : segments.getLast();
+    if ( last == null || last.elements.size() >= segmentCapacity )
+    {
+      // Beim Anhängen teilen wir nicht, sondern fangen ein neues Segment an, damit die Segmente voll bleiben.
+      markDirty();
+      final var segment = new Segment<Type>( segmentCapacity );
+      segment.elements.add( type );
+      segments.add( segment );
+    }
+    else
+    {
+      last.markDirty();
+      last.elements.add( type );
+    }
+    return true;
+  }
+
+  @Override
+  public void add( final int index, final Type element )
+  {
+    if ( index == size() )
+    {
+      add( element );
+      return;
+    }
+
+    final int segmentIndex = segmentIndexOf( index );
+    final Segment<Type> segment = segments.get( segmentIndex );
+    segment.markDirty();
+    segment.elements.add( index - offsetOf( segmentIndex ), element );
+
+    if ( segment.elements.size() > segmentCapacity )
+    {
+      split( segmentIndex );
+    }
+  }
+
+  @Override
+  public void addFirst( final Type element )
+  {
+    add( 0, element );
+  }
+
+  @Override
+  public void addLast( final Type element )
+  {
+    add( element );
+  }
+
+  @Override
+  public Type set( final int index, final Type element )
+  {
+    final int segmentIndex = segmentIndexOf( index );
+    final Segment<Type> segment = segments.get( segmentIndex );
+    segment.markDirty();
+    return segment.elements.set( index - offsetOf( segmentIndex ), element );
+  }
+
+  @Override
+  public boolean addAll( final Collection<? extends Type> c )
+  {
+    for ( final var element : c )
+    {
+      add( element );
+    }
+    return !c.isEmpty();
+  }
+
+  @Override
+  public boolean addAll( final int index, final Collection<? extends Type> c )
+  {
+    int insertAt = index;
+    for ( final var element : c )
+    {
+      add( insertAt++, element );
+    }
+    return !c.isEmpty();
+  }
+
+  @Override
+  public boolean removeAll( final Collection<?> c )
+  {
+    return removeIf( c::contains );
+  }
+
+  @Override
+  public boolean retainAll( final Collection<?> c )
+  {
+    return removeIf( element -> !c.contains( element ) );
+  }
+
+  @Override
+  public boolean removeIf( final Predicate<? super Type> filter )
+  {
+    boolean removed = false;
+    for ( int i = segments.size() - 1; i >= 0; i-- )
+    {
+      final Segment<Type> segment = segments.get( i );
+      // Nur Segmente, die sich tatsächlich ändern, dürfen dirty werden.
+      if ( segment.elements.stream().anyMatch( filter ) )
+      {
+        segment.markDirty();
+        segment.elements.removeIf( filter );
+        removeIfEmpty( i );
+        removed = true;
+      }
+    }
+    return removed;
+  }
+
+  @Override
+  public void clear()
+  {
+    markDirty();
+    segments.clear();
+  }
+
+  @Override
+  public boolean remove( final Object o )
+  {
+    final int index = indexOf( o );
+    if ( index < 0 )
+    {
+      return false;
+    }
+    remove( index );
+    return true;
+  }
+
+  @Override
+  public Type remove( final int index )
+  {
+    final int segmentIndex = segmentIndexOf( index );
+    final Segment<Type> segment = segments.get( segmentIndex );
+    segment.markDirty();
+    final Type removed = segment.elements.remove( index - offsetOf( segmentIndex ) );
+    removeIfEmpty( segmentIndex );
+    return removed;
+  }
+
+  @Override
+  public Type removeFirst()
+  {
+    if ( segments.isEmpty() )
+    {
+      throw new NoSuchElementException();
+    }
+    return remove( 0 );
+  }
+
+  @Override
+  public Type removeLast()
+  {
+    if ( segments.isEmpty() )
+    {
+      throw new NoSuchElementException();
+    }
+    return remove( size() - 1 );
+  }
+
+  @Override
+  public void replaceAll( final UnaryOperator<Type> operator )
+  {
+    for ( final var segment : segments )
+    {
+      segment.markDirty();
+      segment.elements.replaceAll( operator );
+    }
+  }
+
+  @Override
+  public void sort( final Comparator<? super Type> c )
+  {
+    // Sortieren betrifft potenziell alle Segmente, wir sortieren also eine Kopie und schreiben diese zurück. Nicht über
+    // new ArrayList<>( this ), da dies toArray aufruft.
+    final var sorted = new ArrayList<Type>( size() );
+    for ( final var segment : segments )
+    {
+      sorted.addAll( segment.elements );
+    }
+    sorted.sort( c );
+    int index = 0;
+    for ( final var segment : segments )
+    {
+      segment.markDirty();
+      for ( int i = 0; i < segment.elements.size(); i++ )
+      {
+        segment.elements.set( i, sorted.get( index++ ) );
+      }
+    }
+  }
+
+  private void split( final int segmentIndex )
+  {
+    final Segment<Type> segment = segments.get( segmentIndex );
+    final List<Type> upperHalf = segment.elements.subList( segment.elements.size() / 2, segment.elements.size() );
+
+    markDirty();
+    final var newSegment = new Segment<Type>( segmentCapacity );
+    newSegment.elements.addAll( upperHalf );
+    upperHalf.clear();
+    segments.add( segmentIndex + 1, newSegment );
+  }
+
+  private void removeIfEmpty( final int segmentIndex )
+  {
+    if ( segments.get( segmentIndex ).elements.isEmpty() )
+    {
+      markDirty();
+      segments.remove( segmentIndex );
+    }
+  }
+
+  // Die Iteratoren können zwar Mutation herbeiführen, leiten diese aber an die Methoden der Liste weiter, wodurch die
+  // Transaktionalität automatisch gegeben ist.
+
+  @Override
+  public Iterator<Type> iterator()
+  {
+    return new SegmentIterator();
+  }
+
+  /**
+   * Der {@link ListIterator} greift über den Index zu und ist daher langsamer als {@link #iterator()}.
+   */
+  @Override
+  public ListIterator<Type> listIterator()
+  {
+    return new IndexedView().listIterator();
+  }
+
+  /**
+   * Der {@link ListIterator} greift über den Index zu und ist daher langsamer als {@link #iterator()}.
+   */
+  @Override
+  public ListIterator<Type> listIterator( final int index )
+  {
+    return new IndexedView().listIterator( index );
+  }
+
+  // READ ONLY
+
+  @Override
+  public int size()
+  {
+    // Die Größe wird bewusst nicht als Feld gehalten, da die Liste sonst bei jedem add dirty werden würde.
+    int size = 0;
+    for ( final var segment : segments )
+    {
+      size += segment.elements.size();
+    }
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty()
+  {
+    // Es gibt keine leeren Segmente.
+    return segments.isEmpty();
+  }
+
+  @Override
+  public boolean contains( final Object o )
+  {
+    return indexOf( o ) >= 0;
+  }
+
+  @Override
+  public Object[] toArray()
+  {
+    return copyInto( new Object[ size() ] );
+  }
+
+  @Override
+  public <T> T[] toArray( final T[] a )
+  {
+    final int size = size();
+    final T[] array = a.length >= size ? a : Arrays.copyOf( a, size );
+    copyInto( array );
+    if ( array.length > size )
+    {
+      array[ size ] = null;
+    }
+    return array;
+  }
+
+  /**
+   * Kopiert die Elemente der Segmente an den Anfang des Arrays, das mindestens {@link #size()} groß sein muss.
+   *
+   * @throws ArrayStoreException falls ein Element nicht zum Typ des Arrays passt
+   */
+  private <T> T[] copyInto( final T[] array )
+  {
+    // Über Object[], die Typprüfung übernimmt das Array selbst.
+    final Object[] target = array;
+    int index = 0;
+    for ( final var segment : segments )
+    {
+      for ( final var element : segment.elements )
+      {
+        target[ index++ ] = element;
+      }
+    }
+    return array;
+  }
+
+  @Override
+  public int indexOf( final Object o )
+  {
+    int offset = 0;
+    for ( final var segment : segments )
+    {
+      final int index = segment.elements.indexOf( o );
+      if ( index >= 0 )
+      {
+        return offset + index;
+      }
+      offset += segment.elements.size();
+    }
+    return -1;
+  }
+
+  @Override
+  public int lastIndexOf( final Object o )
+  {
+    int offset = size();
+    for ( int i = segments.size() - 1; i >= 0; i-- )
+    {
+      final Segment<Type> segment = segments.get( i );
+      offset -= segment.elements.size();
+      final int index = segment.elements.lastIndexOf( o );
+      if ( index >= 0 )
+      {
+        return offset + index;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public List<Type> subList( final int fromIndex, final int toIndex )
+  {
+    return new IndexedView().subList( fromIndex, toIndex );
+  }
+
+  @Override
+  public Type get( final int index )
+  {
+    final int segmentIndex = segmentIndexOf( index );
+    return segments.get( segmentIndex ).elements.get( index - offsetOf( segmentIndex ) );
+  }
+
+  @Override
+  public boolean containsAll( final Collection<?> c )
+  {
+    for ( final var element : c )
+    {
+      if ( !contains( element ) )
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return Index des Segments, welches das Element am übergebenen Index enthält
+   *
+   * @throws IndexOutOfBoundsException falls der Index außerhalb der Liste liegt
+   */
+  private int segmentIndexOf( final int index )
+  {
+    if ( index >= 0 )
+    {
+      int remaining = index;
+      for ( int i = 0; i < segments.size(); i++ )
+      {
+        final int segmentSize = segments.get( i ).elements.size();
+        if ( remaining < segmentSize )
+        {
+          return i;
+        }
+        remaining -= segmentSize;
+      }
+    }
+    throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + size() );
+  }
+
+  /**
+   * @return Index des ersten Elements des Segments bezogen auf die gesamte Liste
+   */
+  private int offsetOf( final int segmentIndex )
+  {
+    int offset = 0;
+    for ( int i = 0; i < segmentIndex; i++ )
+    {
+      offset += segments.get( i ).elements.size();
+    }
+    return offset;
+  }
+
+  @Override
+  public Object[] storeAdditionally()
+  {
+    return new Object[]{ segments };
+  }
+
+  /**
+   * Läuft die Segmente direkt ab, statt jedes Element über den Index zu suchen.
+   */
+  private final class SegmentIterator implements Iterator<Type>
+  {
+    private int     segmentIndex = 0;
+    private int     offset       = 0;
+    private boolean canRemove    = false;
+
+    @Override
+    public boolean hasNext()
+    {
+      return segmentIndex < segments.size()
+          && ( offset < segments.get( segmentIndex ).elements.size() || segmentIndex + 1 < segments.size() );
+    }
+
+    @Override
+    public Type next()
+    {
+      if ( !hasNext() )
+      {
+        throw new NoSuchElementException();
+      }
+      if ( offset >= segments.get( segmentIndex ).elements.size() )
+      {
+        segmentIndex++;
+        offset = 0;
+      }
+      canRemove = true;
+      return segments.get( segmentIndex ).elements.get( offset++ );
+    }
+
+    @Override
+    public void remove()
+    {
+      if ( !canRemove )
+      {
+        throw new IllegalStateException();
+      }
+      canRemove = false;
+
+      final Segment<Type> segment = segments.get( segmentIndex );
+      segment.markDirty();
+      segment.elements.remove( --offset );
+      if ( segment.elements.isEmpty() )
+      {
+        removeIfEmpty( segmentIndex );
+        // Das nächste Segment rückt auf den aktuellen Index nach. Wir stellen uns also hinter das letzte Element des
+        // vorherigen Segments, bzw. vor das erste Element des nachgerückten Segments.
+        if ( segmentIndex == 0 )
+        {
+          offset = 0;
+        }
+        else
+        {
+          segmentIndex--;
+          offset = segments.get( segmentIndex ).elements.size();
+        }
+      }
+    }
+  }
+
+  /**
+   * Sicht auf die Liste über den Index, wird für {@link ListIterator} und {@link #subList(int, int)} genutzt. Alle
+   * Mutationen gehen über die Methoden der Liste.
+   */
+  private final class IndexedView extends AbstractList<Type>
+  {
+    @Override
+    public Type get( final int index )
+    {
+      return TransactionalSegmentedList.this.get( index );
+    }
+
+    @Override
+    public Type set( final int index, final Type element )
+    {
+      return TransactionalSegmentedList.this.set( index, element );
+    }
+
+    @Override
+    public void add( final int index, final Type element )
+    {
+      TransactionalSegmentedList.this.add( index, element );
+    }
+
+    @Override
+    public Type remove( final int index )
+    {
+      return TransactionalSegmentedList.this.remove( index );
+    }
+
+    @Override
+    public int size()
+    {
+      return TransactionalSegmentedList.this.size();
+    }
+  }
+}
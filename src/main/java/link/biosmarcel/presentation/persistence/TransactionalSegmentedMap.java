@@ -0,0 +1,370 @@
+package link.biosmarcel.presentation.persistence;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+/**
+ * Transaktionale Map für große Datenmengen. Anders als bei {@link TransactionalMap} liegen die Einträge nicht in einer
+ * einzigen {@link HashMap}, sondern sind anhand des Hashes ihres Keys auf eine feste Anzahl an Buckets verteilt. Jeder
+ * Bucket ist ein eigenes {@link TransactionalObject}, sprich bei einer Mutation wird nur der betroffene Bucket als
+ * {@link TransactionalObject#markDirty() dirty} markiert und beim Commit gespeichert. Die Map selbst ändert sich nach
+ * dem Erstellen nie.
+ *
+ * <p><b>Da die Zuordnung von Key zu Bucket persistiert wird, muss {@link Object#hashCode()} der Keys über Neustarts
+ * hinweg stabil sein.</b> Das ist z.B. bei {@link String}, {@link java.util.UUID} oder {@link Long} der Fall, nicht
+ * jedoch bei Enums oder Objekten ohne eigene {@link Object#hashCode()}-Implementation.
+ *
+ * <p>Die Default-Methoden aus {@link Map} (z.B. {@link Map#computeIfAbsent}) werden hier nicht reimplementiert, da diese
+ * über {@link #get(Object)}, {@link #put(Object, Object)} und {@link #remove(Object)} laufen und somit bereits nur den
+ * betroffenen Bucket dirty machen.
+ */
+public class TransactionalSegmentedMap<Key, Value> extends TransactionalObject implements Map<Key, Value>
+{
+  public static final int DEFAULT_BUCKET_COUNT = 256;
+
+  private final Bucket<Key, Value>[] buckets;
+
+  public TransactionalSegmentedMap()
+  {
+    this( DEFAULT_BUCKET_COUNT );
+  }
+
+  /**
+   * @param bucketCount Anzahl der Buckets, muss eine Zweierpotenz sein. Bei n Einträgen muss bei einer Mutation etwa
+   *     n / bucketCount an Einträgen gespeichert werden.
+   */
+  public TransactionalSegmentedMap( final int bucketCount )
+  {
+    if ( bucketCount <= 0 || Integer.bitCount( bucketCount ) != 1 )
+    {
+      throw new IllegalArgumentException( "Die Anzahl der Buckets muss eine Zweierpotenz sein: " + bucketCount );
+    }
+
+    this.buckets = newBuckets( bucketCount );
+  }
+
+  /**
+   * Ein Array mit generischem Komponententyp kann nicht direkt erzeugt werden. Über den leeren Varargs-Parameter legt
+   * der Compiler ein passendes Array an, das nur kopiert und nie nach außen gegeben wird, daher ist
+   * {@link SafeVarargs} hier korrekt.
+   */
+  @SafeVarargs
+  private static <Key, Value> Bucket<Key, Value>[] newBuckets( final int count, final Bucket<Key, Value>... empty )
+  {
+    final Bucket<Key, Value>[] created = Arrays.copyOf( empty, count );
+    for ( int i = 0; i < count; i++ )
+    {
+      created[ i ] = new Bucket<>();
+    }
+    return created;
+  }
+
+  /**
+   * Ein Bucket der Map. Wird immer nur als Ganzes gespeichert.
+   */
+  static final class Bucket<Key, Value> extends TransactionalObject
+  {
+    private final HashMap<Key, Value> entries = new HashMap<>();
+
+    @Override
+    public Object[] storeAdditionally()
+    {
+      return new Object[]{ entries };
+    }
+  }
+
+  private Bucket<Key, Value> bucketFor( final Object key )
+  {
+    final int hash = key == null ? 0 : key.hashCode();
+    return buckets[ ( hash ^ ( hash >>> 16 ) ) & ( buckets.length - 1 ) ];
+  }
+
+  @Override
+  public Value put( final Key key, final Value value )
+  {
+    final var bucket = bucketFor( key );
+    bucket.markDirty();
+    return bucket.entries.put( key, value );
+  }
+
+  @Override
+  public Value remove( final Object key )
+  {
+    final var bucket = bucketFor( key );
+    // Nicht vorhandene Keys sollen den Bucket nicht unnötig dirty machen.
+    if ( !bucket.entries.containsKey( key ) )
+    {
+      return null;
+    }
+    bucket.markDirty();
+    return bucket.entries.remove( key );
+  }
+
+  @Override
+  public void putAll( final Map<? extends Key, ? extends Value> m )
+  {
+    for ( final var entry : m.entrySet() )
+    {
+      put( entry.getKey(), entry.getValue() );
+    }
+  }
+
+  @Override
+  public void clear()
+  {
+    for ( final var bucket : buckets )
+    {
+      if ( !bucket.entries.isEmpty() )
+      {
+        bucket.markDirty();
+        bucket.entries.clear();
+      }
+    }
+  }
+
+  @Override
+  public void replaceAll( final BiFunction<? super Key, ? super Value, ? extends Value> function )
+  {
+    for ( final var bucket : buckets )
+    {
+      if ( !bucket.entries.isEmpty() )
+      {
+        bucket.markDirty();
+        bucket.entries.replaceAll( function );
+      }
+    }
+  }
+
+  // READ
+
+  @Override
+  public int size()
+  {
+    // Die Größe wird bewusst nicht als Feld gehalten, da die Map sonst bei jedem put dirty werden würde.
+    int size = 0;
+    for ( final var bucket : buckets )
+    {
+      size += bucket.entries.size();
+    }
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty()
+  {
+    for ( final var bucket : buckets )
+    {
+      if ( !bucket.entries.isEmpty() )
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean containsKey( final Object key )
+  {
+    return bucketFor( key ).entries.containsKey( key );
+  }
+
+  @Override
+  public boolean containsValue( final Object value )
+  {
+    for ( final var bucket : buckets )
+    {
+      if ( bucket.entries.containsValue( value ) )
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public Value get( final Object key )
+  {
+    return bucketFor( key ).entries.get( key );
+  }
+
+  // Die Views können zwar Mutation herbeiführen, leiten diese aber an die Methoden der Map bzw. an die Iteratoren
+  // weiter, welche den jeweiligen Bucket dirty machen.
+
+  @Override
+  public Set<Key> keySet()
+  {
+    return new AbstractSet<>()
+    {
+      @Override
+      public Iterator<Key> iterator()
+      {
+        final var entries = new EntryIterator();
+        return new Iterator<>()
+        {
+          @Override
+          public boolean hasNext()
+          {
+            return entries.hasNext();
+          }
+
+          @Override
+          public Key next()
+          {
+            return entries.next().getKey();
+          }
+
+          @Override
+          public void remove()
+          {
+            entries.remove();
+          }
+        };
+      }
+
+      @Override
+      public int size()
+      {
+        return TransactionalSegmentedMap.this.size();
+      }
+
+      @Override
+      public boolean contains( final Object o )
+      {
+        return containsKey( o );
+      }
+
+      @Override
+      public boolean remove( final Object o )
+      {
+        if ( !containsKey( o ) )
+        {
+          return false;
+        }
+        TransactionalSegmentedMap.this.remove( o );
+        return true;
+      }
+    };
+  }
+
+  @Override
+  public Collection<Value> values()
+  {
+    return new AbstractCollection<>()
+    {
+      @Override
+      public Iterator<Value> iterator()
+      {
+        final var entries = new EntryIterator();
+        return new Iterator<>()
+        {
+          @Override
+          public boolean hasNext()
+          {
+            return entries.hasNext();
+          }
+
+          @Override
+          public Value next()
+          {
+            return entries.next().getValue();
+          }
+
+          @Override
+          public void remove()
+          {
+            entries.remove();
+          }
+        };
+      }
+
+      @Override
+      public int size()
+      {
+        return TransactionalSegmentedMap.this.size();
+      }
+    };
+  }
+
+  @Override
+  public Set<Entry<Key, Value>> entrySet()
+  {
+    return new AbstractSet<>()
+    {
+      @Override
+      public Iterator<Entry<Key, Value>> iterator()
+      {
+        return new EntryIterator();
+      }
+
+      @Override
+      public int size()
+      {
+        return TransactionalSegmentedMap.this.size();
+      }
+    };
+  }
+
+  @Override
+  public Object[] storeAdditionally()
+  {
+    return new Object[]{ buckets };
+  }
+
+  /**
+   * Läuft die Buckets nacheinander ab. Die Einträge werden als unveränderliche Kopien geliefert, da
+   * {@link Entry#setValue(Object)} den Bucket sonst unbemerkt mutieren würde.
+   */
+  private final class EntryIterator implements Iterator<Entry<Key, Value>>
+  {
+    private int                         bucketIndex  = 0;
+    private Iterator<Entry<Key, Value>> current      = buckets[ 0 ].entries.entrySet().iterator();
+    // hasNext() kann bereits zum nächsten Bucket weitergehen, remove() muss aber den vorherigen Iterator verwenden.
+    private Iterator<Entry<Key, Value>> lastIterator = null;
+    private Bucket<Key, Value>          lastBucket   = null;
+
+    @Override
+    public boolean hasNext()
+    {
+      while ( !current.hasNext() && bucketIndex + 1 < buckets.length )
+      {
+        bucketIndex++;
+        current = buckets[ bucketIndex ].entries.entrySet().iterator();
+      }
+      return current.hasNext();
+    }
+
+    @Override
+    public Entry<Key, Value> next()
+    {
+      if ( !hasNext() )
+      {
+        throw new NoSuchElementException();
+      }
+      lastBucket = buckets[ bucketIndex ];
+      lastIterator = current;
+      final var entry = current.next();
+      return new AbstractMap.SimpleImmutableEntry<>( entry.getKey(), entry.getValue() );
+    }
+
+    @Override
+    public void remove()
+    {
+      if ( lastBucket == null )
+      {
+        throw new IllegalStateException();
+      }
+      lastBucket.markDirty();
+      lastIterator.remove();
+      lastBucket = null;
+    }
+  }
+}
@@ -6,27 +6,38 @@ import org.eclipse.jdt.annotation.Nullable;
  * Speichert die aktuell aktive Transaktion und erlaubt einfach Zugriff auf diese via
  * {@link Transactions#getTransaction()}. Dies ist nicht Teil des {@link StorageAccess}, sondern eine einzelne Klasse,
  * damit alle interessierten Instanzen einfach ohne SpringBeans und co darauf zugreifen können.
+ *
+ * <p>Die Transaktion ist an den aktuellen Thread gebunden. Parallele Leser teilen sich somit keine Transaktion mehr und
+ * müssen sich beim Betreten und Verlassen eines Lock-Kontextes nicht untereinander synchronisieren.</p>
  */
 @org.eclipse.jdt.annotation.NonNullByDefault
 public final class Transactions
 {
-  private static @Nullable Transaction transaction;
+  private static final ThreadLocal<@Nullable Transaction> transaction = new ThreadLocal<>();
 
   private Transactions()
   {
   }
 
   /**
-   * @return aktive Transaktion, oder {@code null} falls es keine gibt. Jedoch kann eine existierende Transaktion auch
-   *     read-only sein, falls eine write-Methode aktuell eine read-Methode aufruft.
+   * @return aktive Transaktion des aktuellen Threads, oder {@code null} falls es keine gibt. Jedoch kann eine
+   *     existierende Transaktion auch read-only sein, falls eine write-Methode aktuell eine read-Methode aufruft.
    */
   public static @Nullable Transaction getTransaction()
   {
-    return Transactions.transaction;
+    return Transactions.transaction.get();
   }
 
   static void setTransaction( final @Nullable Transaction transaction )
   {
-    Transactions.transaction = transaction;
+    if ( transaction == null )
+    {
+      // Remove statt set(null), damit bei Thread-Pools keine leeren Einträge in der ThreadLocalMap liegen bleiben.
+      Transactions.transaction.remove();
+    }
+    else
+    {
+      Transactions.transaction.set( transaction );
+    }
   }
 }
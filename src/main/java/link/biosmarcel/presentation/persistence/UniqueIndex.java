@@ -0,0 +1,60 @@
+package link.biosmarcel.presentation.persistence;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link Index} bei dem jeder Key höchstens einem Objekt zugeordnet ist, vergleichbar mit einem Primärschlüssel bzw.
+ * einem Unique-Constraint in SQL. Ein Lookup kostet O(1) und allokiert nichts.
+ */
+public final class UniqueIndex<Key, Value extends TransactionalObject> extends Index<Key, Value>
+{
+  private final ConcurrentHashMap<Key, Value> entries = new ConcurrentHashMap<>();
+
+  public UniqueIndex( final IndexedProperty<Value, Key> property )
+  {
+    super( property );
+  }
+
+  /**
+   * @param shared siehe {@link Index#Index(IndexedProperty, boolean)}
+   */
+  public UniqueIndex( final IndexedProperty<Value, Key> property, final boolean shared )
+  {
+    super( property, shared );
+  }
+
+  /**
+   * @return das Objekt mit dem übergebenen Key, oder {@code null} falls es keines gibt
+   */
+  public @Nullable Value get( final Key key )
+  {
+    refresh();
+    return entries.get( key );
+  }
+
+  @Override
+  protected void insert( final Key key, final Value value )
+  {
+    // putIfAbsent, da Aggregat-Writer parallel Keys der Indizes ihres Aggregats vergeben. Gemeinsame Indizes werden
+    // dagegen nur exklusiv verändert, ein Rollback kann dort also nicht mit einem anderen Writer kollidieren.
+    final Value existing = entries.putIfAbsent( key, value );
+    if ( existing != null && existing != value )
+    {
+      throw new IllegalStateException( "Der Key ist bereits vergeben: " + property().name() + "=" + key );
+    }
+  }
+
+  @Override
+  protected void delete( final Key key, final Value value )
+  {
+    entries.remove( key, value );
+  }
+
+  @Override
+  protected void deleteAll()
+  {
+    entries.clear();
+  }
+}
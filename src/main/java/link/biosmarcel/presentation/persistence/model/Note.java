@@ -1,5 +1,7 @@
 package link.biosmarcel.presentation.persistence.model;
 
+import link.biosmarcel.presentation.persistence.FullTextIndex;
+import link.biosmarcel.presentation.persistence.IndexedProperty;
 import link.biosmarcel.presentation.persistence.TransactionalList;
 import link.biosmarcel.presentation.persistence.TransactionalObject;
 import org.eclipse.serializer.ObjectCopier;
@@ -8,15 +10,32 @@ import org.eclipse.serializer.reference.Lazy;
 import java.sql.Ref;
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 public class Note extends TransactionalObject {
+    public static final IndexedProperty<Note, LocalDate> DATE = new IndexedProperty<>("date", Note::getDate);
+    public static final IndexedProperty<Note, UUID> ID = new IndexedProperty<>("id", Note::getId);
+    /** Die Terme aus Name und Inhalt für die Volltextsuche. Lädt den Inhalt, wird aber nur für geänderte Notizen berechnet. */
+    public static final IndexedProperty<Note, Set<String>> TERMS = new IndexedProperty<>("terms", note -> {
+        final var terms = FullTextIndex.tokenize(note.getName(), note.getContent());
+        return terms.isEmpty() ? null : terms;
+    });
+
     private final UUID id;
     private final References references;
     private final ImmutableReferences immutableReferences;
 
     public Note(final User parentUser) {
-        this.id = UUID.randomUUID();
+        this(UUID.randomUUID(), parentUser);
+    }
+
+    /**
+     * Übernimmt die ID einer bestehenden Notiz, z.B. beim Replizieren, siehe
+     * {@link link.biosmarcel.presentation.persistence.ReplicaFollower}.
+     */
+    public Note(final UUID id, final User parentUser) {
+        this.id = id;
         this.references = new References();
         this.immutableReferences = new ImmutableReferences(parentUser);
     }
@@ -53,6 +72,16 @@ public class Note extends TransactionalObject {
         return this.id;
     }
 
+    @Override
+    protected UUID changeId() {
+        return this.id;
+    }
+
+    @Override
+    protected UUID changeParentId() {
+        return this.immutableReferences.parentUser.changeId();
+    }
+
     public User getParentUser() {
         requireReadAccess();
         return this.immutableReferences.parentUser;
@@ -70,7 +99,15 @@ public class Note extends TransactionalObject {
 
     public String getContent() {
         requireReadAccess();
-        return Lazy.get(this.references.content);
+        return getLazy(this.references.content);
+    }
+
+    /**
+     * Für {@link User#prefetchNoteContents()}, damit nicht jeder Inhalt einzeln geladen wird.
+     */
+    Lazy<String> contentReference() {
+        requireReadAccess();
+        return this.references.content;
     }
 
     public void setContent(String content) {
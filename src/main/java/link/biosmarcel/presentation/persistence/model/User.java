@@ -1,26 +1,66 @@
 package link.biosmarcel.presentation.persistence.model;
 
-import link.biosmarcel.presentation.persistence.TransactionalList;
+import link.biosmarcel.presentation.persistence.FullTextIndex;
+import link.biosmarcel.presentation.persistence.FullTextPostings;
+import link.biosmarcel.presentation.persistence.IndexedProperty;
+import link.biosmarcel.presentation.persistence.SortedIndex;
+import link.biosmarcel.presentation.persistence.TransactionalSegmentedList;
 import link.biosmarcel.presentation.persistence.TransactionalObject;
+import link.biosmarcel.presentation.persistence.UniqueIndex;
+import org.eclipse.serializer.reference.Lazy;
 
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 public class User extends TransactionalObject {
+    public static final IndexedProperty<User, String> NAME = new IndexedProperty<>("name", User::getName);
+    public static final IndexedProperty<User, UUID> ID = new IndexedProperty<>("id", User::getId);
+    public static final IndexedProperty<User, Permissions> PERMISSIONS =
+            new IndexedProperty<>("permissions", User::getPermissions);
+
     private final UUID id;
     private final References references;
     private final ImmutableReferences immutableReferences;
+    /**
+     * Die persistierten Einträge der Volltextsuche. Bei Benutzern, die vor Einführung der Suche gespeichert wurden,
+     * {@code null} bis zu {@link #migrateSearchIndex()}.
+     */
+    private FullTextPostings<Note> searchPostings;
+
+    // Wird nicht persistiert, sondern über rebuildIndices aufgebaut.
+    private transient SortedIndex<LocalDate, Note> notesByDate;
+    private transient UniqueIndex<UUID, Note> notesById;
+    private transient FullTextIndex<Note> notesByText;
+    private transient List<Note> notesView;
 
     public User(final String name,
                 final String password,
                 final Permissions permissions) {
-        this.id = UUID.randomUUID();
+        this(UUID.randomUUID(), name, password, permissions);
+    }
+
+    /**
+     * Übernimmt die ID eines bestehenden Benutzers, z.B. beim Replizieren, siehe
+     * {@link link.biosmarcel.presentation.persistence.ReplicaFollower}.
+     */
+    public User(final UUID id,
+                final String name,
+                final String password,
+                final Permissions permissions) {
+        this.id = id;
         this.references = new References(
                 name,
                 password,
                 permissions
         );
         this.immutableReferences = new ImmutableReferences();
+        this.searchPostings = new FullTextPostings<>();
+        rebuildIndices();
     }
 
     private static class References {
@@ -38,7 +78,9 @@ public class User extends TransactionalObject {
     }
 
     private static class ImmutableReferences {
-        private final List<Note> notes = new TransactionalList<>();
+        // Benutzer können sehr viele Notizen haben, daher soll beim Hinzufügen nicht die gesamte Liste gespeichert
+        // werden. Bereits gespeicherte Benutzer behalten ihre TransactionalList, da das Feld als List deklariert ist.
+        private final List<Note> notes = new TransactionalSegmentedList<>();
     }
 
     public UUID getId() {
@@ -46,9 +88,130 @@ public class User extends TransactionalObject {
         return this.id;
     }
 
+    @Override
+    protected UUID changeId() {
+        return this.id;
+    }
+
+    /**
+     * @return alle Notizen, nicht veränderbar. Notizen werden über {@link #addNote(Note)} und {@link #removeNote(Note)}
+     * hinzugefügt bzw. entfernt, damit die Indizes gepflegt werden.
+     */
     public List<Note> notes() {
         requireReadAccess();
-        return this.immutableReferences.notes;
+        return this.notesView;
+    }
+
+    public void addNote(final Note note) {
+        this.notesById.add(note);
+        this.notesByDate.add(note);
+        // Fehlt bei Benutzern von vor der Volltextsuche bis zu migrateSearchIndex, welches dann alle Notizen indiziert.
+        if (this.notesByText != null) {
+            this.notesByText.add(note);
+        }
+        this.immutableReferences.notes.add(note);
+    }
+
+    public void removeNote(final Note note) {
+        if (this.immutableReferences.notes.remove(note)) {
+            this.notesById.remove(note);
+            this.notesByDate.remove(note);
+            if (this.notesByText != null) {
+                this.notesByText.remove(note);
+            }
+            recordRemoval(note);
+        }
+    }
+
+    /**
+     * Sucht in Name und Inhalt der Notizen. Jedes Wort der Anfrage muss als Präfix eines Wortes der Notiz vorkommen,
+     * Groß- und Kleinschreibung wird ignoriert. Die Inhalte werden dafür nicht geladen.
+     */
+    public Set<Note> searchNotes(final String query) {
+        requireReadAccess();
+        if (this.notesByText == null) {
+            throw new IllegalStateException("Die Volltextsuche des Benutzers wurde noch nicht migriert: " + getId());
+        }
+        return this.notesByText.search(query);
+    }
+
+    /**
+     * @return {@code true} falls der Benutzer vor Einführung der Volltextsuche gespeichert wurde und daher noch
+     * {@link #migrateSearchIndex()} benötigt
+     */
+    public boolean needsSearchIndexMigration() {
+        requireReadAccess();
+        return this.searchPostings == null;
+    }
+
+    /**
+     * Legt die Volltextsuche für einen bereits gespeicherten Benutzer an und indiziert alle vorhandenen Notizen. Lädt
+     * dafür einmalig alle Inhalte, seitenweise, damit diese nicht alle gleichzeitig im Speicher liegen.
+     */
+    public void migrateSearchIndex() {
+        if (this.searchPostings != null) {
+            return;
+        }
+
+        markDirty();
+        // Das BeforeImage setzt nur searchPostings zurück, der Index ist transient.
+        onRollback(() -> this.notesByText = null);
+        this.searchPostings = new FullTextPostings<>();
+        this.notesByText = new FullTextIndex<>(Note.TERMS, Note.ID, this.searchPostings);
+        final int pageSize = 1_000;
+        for (int from = 0; from < this.immutableReferences.notes.size(); from += pageSize) {
+            final int to = Math.min(from + pageSize, this.immutableReferences.notes.size());
+            forEachNoteWithContent(from, to, this.notesByText::add);
+        }
+    }
+
+    /**
+     * @return die Notiz mit der ID, oder {@code null}. Kostet O(1).
+     */
+    public Note findNoteById(final UUID noteId) {
+        requireReadAccess();
+        return this.notesById.get(noteId);
+    }
+
+    /**
+     * @return alle Notizen mit einem Datum im Bereich, aufsteigend nach Datum sortiert
+     */
+    public List<Note> findNotesBetween(final LocalDate fromInclusive, final LocalDate toExclusive) {
+        requireReadAccess();
+        return this.notesByDate.range(fromInclusive, toExclusive);
+    }
+
+    /**
+     * Lädt die Inhalte aller Notizen in einem Durchgang. Sollte aufgerufen werden, bevor über die Notizen iteriert und
+     * jeweils {@link Note#getContent()} aufgerufen wird, da sonst jeder Inhalt einzeln aus dem Storage gelesen wird.
+     */
+    public void prefetchNoteContents() {
+        requireReadAccess();
+        final var contents = new ArrayList<Lazy<?>>(this.immutableReferences.notes.size());
+        for (final var note : this.immutableReferences.notes) {
+            final var content = note.contentReference();
+            if (content != null) {
+                contents.add(content);
+            }
+        }
+        prefetch(contents);
+    }
+
+    /**
+     * Übergibt die Notizen im Bereich samt vorab geladenem Inhalt an die Action. Inhalte, die dafür erst geladen werden
+     * mussten, werden danach wieder entladen. Gedacht für Exporte u.ä., die seitenweise über alle Notizen laufen.
+     */
+    public void forEachNoteWithContent(final int fromIndex, final int toIndex, final Consumer<Note> action) {
+        requireReadAccess();
+        final var page = this.immutableReferences.notes.subList(fromIndex, toIndex);
+        final var contents = new ArrayList<Lazy<?>>(page.size());
+        for (final var note : page) {
+            final var content = note.contentReference();
+            if (content != null) {
+                contents.add(content);
+            }
+        }
+        withPrefetched(contents, () -> page.forEach(action));
     }
 
     public String getName() {
@@ -81,6 +244,20 @@ public class User extends TransactionalObject {
         this.references.permissions = permissions;
     }
 
+    @Override
+    protected void rebuildIndices() {
+        this.notesView = Collections.unmodifiableList(this.immutableReferences.notes);
+        this.notesByDate = new SortedIndex<>(Note.DATE);
+        rebuildIndex(this.notesByDate, this.immutableReferences.notes);
+        this.notesById = new UniqueIndex<>(Note.ID);
+        rebuildIndex(this.notesById, this.immutableReferences.notes);
+        // Der Volltextindex wird persistiert und muss nur bei den Notizen angemeldet werden.
+        if (this.searchPostings != null) {
+            this.notesByText = new FullTextIndex<>(Note.TERMS, Note.ID, this.searchPostings);
+            attachIndex(this.notesByText, this.immutableReferences.notes);
+        }
+    }
+
     @Override
     public Object[] storeAdditionally() {
         return new Object[]{references};
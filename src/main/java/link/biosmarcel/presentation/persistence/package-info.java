@@ -5,8 +5,12 @@
  * <p>Dies beinhaltet unter anderem auch transaktionale Implementationen von Collections:
  * <ul>
  *   <li>{@link link.biosmarcel.presentation.persistence.TransactionalList} (ArrayList)</li>
+ *   <li>{@link link.biosmarcel.presentation.persistence.TransactionalSegmentedList} (in Segmente aufgeteilte
+ *   ArrayLists, für große Listen)</li>
  *   <li>{@link link.biosmarcel.presentation.persistence.TransactionalSet} (HashSet)</li>
  *   <li>{@link link.biosmarcel.presentation.persistence.TransactionalMap} (HashMap)</li>
+ *   <li>{@link link.biosmarcel.presentation.persistence.TransactionalSegmentedMap} (in Buckets aufgeteilte HashMaps,
+ *   für große Maps)</li>
  * </ul>
  *
  * <p>
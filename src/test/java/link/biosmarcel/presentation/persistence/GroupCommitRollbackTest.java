@@ -0,0 +1,221 @@
+package link.biosmarcel.presentation.persistence;
+
+import link.biosmarcel.presentation.persistence.model.Note;
+import link.biosmarcel.presentation.persistence.model.Permissions;
+import link.biosmarcel.presentation.persistence.model.User;
+import org.eclipse.serializer.persistence.types.Storer;
+import org.eclipse.store.storage.embedded.types.EmbeddedStorageFoundation;
+import org.eclipse.store.storage.embedded.types.EmbeddedStorageManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Schlägt {@link Storer#commit()} fehl, müssen alle Transaktionen des Batches zurückgerollt werden, bevor weitere
+ * Writer beginnen.
+ */
+class GroupCommitRollbackTest
+{
+  private final AtomicBoolean failCommits = new AtomicBoolean();
+
+  @TempDir
+  private Path directory;
+
+  private StorageImpl storage;
+
+  @BeforeEach
+  void start()
+  {
+    final EmbeddedStorageManager manager = EmbeddedStorageFoundation
+        .New()
+        .setConfiguration( TestStorages.settings( directory ).toConfiguration() )
+        .createEmbeddedStorageManager();
+    storage = new StorageImpl( failingCommits( manager ) );
+  }
+
+  @AfterEach
+  void stop()
+  {
+    failCommits.set( false );
+    storage.destroy();
+  }
+
+  @Test
+  void failedCommitRollsBackWrite()
+  {
+    final User alice = storage.writeReturn( ( root, _ ) -> addUser( root, "alice" ) );
+
+    failCommits.set( true );
+    final var exception = assertThrows( IllegalStateException.class, () -> storage.write( ( root, _ ) ->
+    {
+      alice.setName( "bob" );
+      addUser( root, "carol" );
+    } ) );
+    assertEquals( "commit failed", exception.getMessage() );
+    failCommits.set( false );
+
+    storage.read( root ->
+    {
+      assertEquals( "alice", alice.getName() );
+      assertSame( alice, root.findUserByName( "alice" ) );
+      assertNull( root.findUserByName( "bob" ) );
+      assertNull( root.findUserByName( "carol" ) );
+      assertEquals( 1, root.users().size() );
+    } );
+
+    // Die Namen dürfen nach dem Rollback nicht mehr im Index vergeben sein.
+    storage.write( ( root, _ ) -> addUser( root, "carol" ) );
+    storage.write( ( _, _ ) -> alice.setName( "bob" ) );
+    storage.read( root ->
+    {
+      assertSame( alice, root.findUserByName( "bob" ) );
+      assertEquals( 2, root.users().size() );
+    } );
+  }
+
+  @Test
+  void failedCommitRollsBackCollections()
+  {
+    final User alice = storage.writeReturn( ( root, _ ) -> addUser( root, "alice" ) );
+
+    failCommits.set( true );
+    final var exception = assertThrows( IllegalStateException.class, () -> storage.write( ( root, _ ) ->
+    {
+      addUser( root, "carol" );
+      // Alice hat noch keine Notizen, die Notiz legt also ein neues Segment an.
+      final var note = new Note( alice );
+      note.setName( "Einkauf" );
+      note.setContent( "Milch" );
+      note.setDate( LocalDate.of( 2024, 1, 1 ) );
+      alice.addNote( note );
+    } ) );
+    assertEquals( "commit failed", exception.getMessage() );
+    // Fehler beim Zurückrollen würden als suppressed angehängt.
+    assertEquals( 0, exception.getSuppressed().length );
+    failCommits.set( false );
+
+    storage.read( root ->
+    {
+      assertEquals( 1, root.users().size() );
+      assertNull( root.findUserByName( "carol" ) );
+      assertEquals( 0, alice.notes().size() );
+      assertEquals( Set.of(), alice.searchNotes( "Einkauf" ) );
+    } );
+
+    storage.write( ( _, _ ) ->
+    {
+      final var note = new Note( alice );
+      note.setName( "Einkauf" );
+      alice.addNote( note );
+    } );
+    storage.read( _ -> assertEquals( 1, alice.notes().size() ) );
+  }
+
+  @Test
+  void failedAsyncCommitRollsBackBeforeCompleting()
+  {
+    final User alice = storage.writeReturn( ( root, _ ) -> addUser( root, "alice" ) );
+
+    failCommits.set( true );
+    final var future = storage.writeAsync( ( _, _ ) ->
+    {
+      alice.setPassword( "changed" );
+      return alice;
+    } );
+    final var exception = assertThrows( CompletionException.class, future::join );
+    assertEquals( "commit failed", exception.getCause().getMessage() );
+    failCommits.set( false );
+
+    storage.read( _ -> assertEquals( "secret", alice.getPassword() ) );
+  }
+
+  @Test
+  void failingWriterRollsBackWithoutCommit()
+  {
+    final User alice = storage.writeReturn( ( root, _ ) -> addUser( root, "alice" ) );
+
+    assertThrows( IllegalArgumentException.class, () -> storage.write( ( root, _ ) ->
+    {
+      root.removeUser( alice );
+      addUser( root, "bob" );
+      throw new IllegalArgumentException();
+    } ) );
+
+    storage.read( root ->
+    {
+      assertSame( alice, root.findUserByName( "alice" ) );
+      assertNull( root.findUserByName( "bob" ) );
+      assertEquals( 1, root.users().size() );
+    } );
+  }
+
+  private static User addUser( final StorageRoot root, final String name )
+  {
+    final var user = new User( name, "secret", Permissions.READ );
+    root.addUser( user );
+    return user;
+  }
+
+  /**
+   * Reicht alle Aufrufe an den Manager weiter, {@link Storer#commit()} schlägt aber fehl, solange
+   * {@link #failCommits} gesetzt ist.
+   */
+  private EmbeddedStorageManager failingCommits( final EmbeddedStorageManager manager )
+  {
+    return proxy( EmbeddedStorageManager.class, ( method, args ) ->
+    {
+      final Object result = method.invoke( manager, args );
+      if ( method.getName().equals( "createLazyStorer" ) )
+      {
+        final var storer = (Storer) result;
+        return proxy( Storer.class, ( storerMethod, storerArgs ) ->
+        {
+          if ( storerMethod.getName().equals( "commit" ) && failCommits.get() )
+          {
+            throw new IllegalStateException( "commit failed" );
+          }
+          return storerMethod.invoke( storer, storerArgs );
+        } );
+      }
+      return result;
+    } );
+  }
+
+  private static <Type> Type proxy( final Class<Type> type, final Delegate delegate )
+  {
+    final InvocationHandler handler = ( _, method, args ) ->
+    {
+      try
+      {
+        return delegate.invoke( method, args );
+      }
+      catch ( final InvocationTargetException exception )
+      {
+        throw exception.getCause();
+      }
+    };
+    return type.cast( Proxy.newProxyInstance( type.getClassLoader(), new Class<?>[] { type }, handler ) );
+  }
+
+  @FunctionalInterface
+  private interface Delegate
+  {
+    Object invoke( final Method method, final Object[] args ) throws Exception;
+  }
+}
@@ -0,0 +1,142 @@
+package link.biosmarcel.presentation.persistence;
+
+import link.biosmarcel.presentation.persistence.model.Permissions;
+import link.biosmarcel.presentation.persistence.model.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Die Indizes der {@link StorageRoot} müssen bei einem Rollback mit zurückgesetzt werden und dürfen nicht von
+ * Aggregat-Writern verändert werden.
+ */
+class IndexTest
+{
+  @TempDir
+  private Path directory;
+
+  private StorageImpl storage;
+  private User        alice;
+
+  @BeforeEach
+  void start()
+  {
+    storage = TestStorages.start( directory );
+    alice = storage.writeReturn( ( root, _ ) ->
+    {
+      final var user = new User( "alice", "secret", Permissions.READ );
+      root.addUser( user );
+      return user;
+    } );
+  }
+
+  @AfterEach
+  void stop()
+  {
+    storage.destroy();
+  }
+
+  @Test
+  void duplicateKeyIsRejected()
+  {
+    assertThrows( IllegalStateException.class, () -> storage.write( ( root, _ ) ->
+        root.addUser( new User( "alice", "other", Permissions.WRITE ) ) ) );
+
+    storage.read( root ->
+    {
+      assertSame( alice, root.findUserByName( "alice" ) );
+      assertEquals( 1, root.users().size() );
+      assertEquals( Set.of(), root.findUsersByPermissions( Permissions.WRITE ) );
+    } );
+  }
+
+  @Test
+  void rollbackRestoresChangedKeys()
+  {
+    assertThrows( IllegalStateException.class, () -> storage.write( ( root, _ ) ->
+    {
+      alice.setName( "carol" );
+      alice.setPermissions( Permissions.WRITE );
+      root.addUser( new User( "bob", "secret", Permissions.READ ) );
+      root.addUser( new User( "bob", "secret", Permissions.READ ) );
+    } ) );
+
+    storage.read( root ->
+    {
+      assertEquals( "alice", alice.getName() );
+      assertSame( alice, root.findUserByName( "alice" ) );
+      assertSame( alice, root.findUserById( alice.getId() ) );
+      assertNull( root.findUserByName( "carol" ) );
+      assertNull( root.findUserByName( "bob" ) );
+      assertEquals( Set.of( alice ), root.findUsersByPermissions( Permissions.READ ) );
+      assertEquals( Set.of(), root.findUsersByPermissions( Permissions.WRITE ) );
+    } );
+  }
+
+  @Test
+  void rootWriterReindexesChangedKeys()
+  {
+    storage.write( ( _, _ ) ->
+    {
+      alice.setName( "carol" );
+      alice.setPermissions( Permissions.WRITE );
+    } );
+
+    storage.read( root ->
+    {
+      assertNull( root.findUserByName( "alice" ) );
+      assertSame( alice, root.findUserByName( "carol" ) );
+      assertEquals( Set.of( alice ), root.findUsersByPermissions( Permissions.WRITE ) );
+    } );
+  }
+
+  @Test
+  void repeatedChangeAfterLookupIsReindexed()
+  {
+    storage.write( ( root, _ ) ->
+    {
+      alice.setName( "carol" );
+      assertSame( alice, root.findUserByName( "carol" ) );
+      // Alice ist bereits dirty, muss aber trotzdem erneut indiziert werden.
+      alice.setName( "dave" );
+      assertNull( root.findUserByName( "carol" ) );
+      assertSame( alice, root.findUserByName( "dave" ) );
+    } );
+
+    storage.read( root ->
+    {
+      assertNull( root.findUserByName( "carol" ) );
+      assertSame( alice, root.findUserByName( "dave" ) );
+    } );
+  }
+
+  @Test
+  void aggregateWriterCannotChangeSharedIndexes()
+  {
+    assertThrows( IllegalStateException.class, () -> storage.writeAggregate( alice, ( user, _ ) ->
+        user.setName( "carol" ) ) );
+    assertThrows( IllegalStateException.class, () -> storage.writeAggregate( alice, ( user, _ ) ->
+        user.setPermissions( Permissions.WRITE ) ) );
+
+    // Felder ohne gemeinsamen Index bleiben im Aggregat veränderbar.
+    storage.writeAggregate( alice, ( user, _ ) -> user.setPassword( "changed" ) );
+
+    storage.read( root ->
+    {
+      assertEquals( "alice", alice.getName() );
+      assertEquals( "changed", alice.getPassword() );
+      assertSame( alice, root.findUserByName( "alice" ) );
+      assertNull( root.findUserByName( "carol" ) );
+      assertEquals( Set.of( alice ), root.findUsersByPermissions( Permissions.READ ) );
+    } );
+  }
+}
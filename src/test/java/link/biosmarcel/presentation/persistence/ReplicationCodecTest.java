@@ -0,0 +1,233 @@
+package link.biosmarcel.presentation.persistence;
+
+import link.biosmarcel.presentation.persistence.model.Note;
+import link.biosmarcel.presentation.persistence.model.Permissions;
+import link.biosmarcel.presentation.persistence.model.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Einträge des {@link ReplicationCodec} müssen beim Follower denselben Stand ergeben, auch wenn sie doppelt oder nach
+ * einem Neustart mitten in einem Snapshot erneut angewendet werden.
+ */
+class ReplicationCodecTest
+{
+  @TempDir
+  private Path directory;
+
+  private StorageImpl leader;
+  private StorageImpl follower;
+  private User        alice;
+  private Note        note;
+
+  @BeforeEach
+  void start()
+  {
+    leader = TestStorages.start( directory.resolve( "leader" ) );
+    follower = TestStorages.start( directory.resolve( "follower" ) );
+    alice = leader.writeReturn( ( root, _ ) ->
+    {
+      final var user = new User( "alice", "secret", Permissions.WRITE );
+      root.addUser( user );
+      final var created = new Note( user );
+      created.setName( "Einkauf" );
+      created.setDate( LocalDate.of( 2024, 5, 1 ) );
+      created.setContent( "Milch und Brot" );
+      user.addNote( created );
+      return user;
+    } );
+    note = leader.readReturn( _ -> alice.notes().getFirst() );
+  }
+
+  @AfterEach
+  void stop()
+  {
+    leader.destroy();
+    follower.destroy();
+  }
+
+  @Test
+  void recordsRoundTrip()
+  {
+    final var applier = new ReplicationCodec.Applier();
+    final List<byte[]> entries = encode( encoder -> leader.read( _ ->
+    {
+      encoder.user( alice );
+      encoder.note( alice.getId(), note );
+    } ) );
+    apply( applier, entries );
+    // Doppelt angewendet ergibt sich derselbe Stand.
+    apply( applier, entries );
+
+    final UUID userId = leader.readReturn( _ -> alice.getId() );
+    final UUID noteId = leader.readReturn( _ -> note.getId() );
+    follower.read( root ->
+    {
+      assertEquals( 1, root.users().size() );
+      final User user = root.findUserById( userId );
+      assertNotNull( user );
+      assertEquals( "alice", user.getName() );
+      assertEquals( "secret", user.getPassword() );
+      assertEquals( Permissions.WRITE, user.getPermissions() );
+      assertEquals( 1, user.notes().size() );
+      final Note copy = user.findNoteById( noteId );
+      assertNotNull( copy );
+      assertEquals( "Einkauf", copy.getName() );
+      assertEquals( LocalDate.of( 2024, 5, 1 ), copy.getDate() );
+      assertEquals( "Milch und Brot", copy.getContent() );
+    } );
+
+    apply( applier, encode( encoder -> encoder.noteRemoved( userId, noteId ) ) );
+    follower.read( root -> assertEquals( List.of(), root.findUserById( userId ).notes() ) );
+
+    apply( applier, encode( encoder -> encoder.userRemoved( userId ) ) );
+    follower.read( root -> assertNull( root.findUserById( userId ) ) );
+    // Die Notiz eines bereits entfernten Benutzers ist ebenfalls entfernt.
+    apply( applier, encode( encoder -> encoder.noteRemoved( userId, noteId ) ) );
+  }
+
+  @Test
+  void snapshotRemovesObjectsMissingAtLeader()
+  {
+    final var applier = new ReplicationCodec.Applier();
+    final UUID removedUserId = UUID.randomUUID();
+    final UUID removedNoteId = UUID.randomUUID();
+    apply( applier, encode( encoder -> leader.read( _ ->
+    {
+      encoder.user( alice );
+      encoder.note( alice.getId(), note );
+    } ) ) );
+    follower.write( ( root, _ ) ->
+    {
+      root.addUser( new User( removedUserId, "bob", "secret", Permissions.READ ) );
+      final User user = root.findUserByName( "alice" );
+      user.addNote( new Note( removedNoteId, user ) );
+    } );
+
+    final List<byte[]> snapshot = encodeSnapshot();
+    apply( applier, snapshot.subList( 0, snapshot.size() - 1 ) );
+    assertTrue( applier.inSnapshot() );
+    apply( applier, snapshot.subList( snapshot.size() - 1, snapshot.size() ) );
+    assertFalse( applier.inSnapshot() );
+    assertEquals( 1, applier.snapshotsBegun() );
+
+    follower.read( root ->
+    {
+      assertNull( root.findUserById( removedUserId ) );
+      final User user = root.findUserByName( "alice" );
+      assertNotNull( user );
+      assertNull( user.findNoteById( removedNoteId ) );
+      assertEquals( 1, user.notes().size() );
+    } );
+  }
+
+  @Test
+  void failedWriteKeepsSnapshotState()
+  {
+    final var applier = new ReplicationCodec.Applier();
+    final UUID removedUserId = UUID.randomUUID();
+    follower.write( ( root, _ ) -> root.addUser( new User( removedUserId, "bob", "secret", Permissions.READ ) ) );
+
+    final List<byte[]> snapshot = encodeSnapshot();
+    apply( applier, snapshot.subList( 0, snapshot.size() - 1 ) );
+    // Der Write des letzten Eintrags wird zurückgerollt, der Zustand des Appliers darf sich also nicht ändern.
+    assertThrows( IllegalStateException.class, () -> follower.write( ( root, _ ) ->
+    {
+      applier.apply( root, snapshot.getLast() );
+      throw new IllegalStateException( "write failed" );
+    } ) );
+    assertTrue( applier.inSnapshot() );
+    follower.read( root -> assertNotNull( root.findUserById( removedUserId ) ) );
+
+    apply( applier, snapshot.subList( snapshot.size() - 1, snapshot.size() ) );
+    assertFalse( applier.inSnapshot() );
+    follower.read( root -> assertNull( root.findUserById( removedUserId ) ) );
+  }
+
+  @Test
+  void followerRestartsUnfinishedSnapshot() throws Exception
+  {
+    final Path logDirectory = directory.resolve( "log" );
+    final Path positionFile = directory.resolve( "position" );
+    final List<byte[]> snapshot = encodeSnapshot();
+    final UUID removedUserId = UUID.randomUUID();
+    follower.write( ( root, _ ) -> root.addUser( new User( removedUserId, "bob", "secret", Permissions.READ ) ) );
+
+    try ( final var log = new CommitLog.Writer( logDirectory, 64 * 1024 ) )
+    {
+      final CommitLog.Position snapshotStart = log.position();
+      snapshot.subList( 0, snapshot.size() - 1 ).forEach( log::append );
+
+      try ( final var replica = new ReplicaFollower( follower, logDirectory, positionFile ) )
+      {
+        assertEquals( snapshot.size() - 1, replica.poll() );
+      }
+      // Die Mengen des Snapshots gehen mit dem Follower verloren, er muss also beim Anfang des Snapshots fortsetzen.
+      assertEquals( snapshotStart, CommitLog.Position.parse( Files.readString( positionFile ) ) );
+
+      log.append( snapshot.getLast() );
+      try ( final var replica = new ReplicaFollower( follower, logDirectory, positionFile ) )
+      {
+        assertEquals( snapshot.size(), replica.poll() );
+        assertEquals( log.position(), CommitLog.Position.parse( Files.readString( positionFile ) ) );
+      }
+    }
+
+    follower.read( root ->
+    {
+      assertNull( root.findUserById( removedUserId ) );
+      assertNotNull( root.findUserByName( "alice" ) );
+    } );
+  }
+
+  /**
+   * @return ein Snapshot mit einem Record je Eintrag
+   */
+  private List<byte[]> encodeSnapshot()
+  {
+    return encode( encoder ->
+    {
+      encoder.snapshotBegin();
+      leader.read( _ ->
+      {
+        encoder.user( alice );
+        encoder.note( alice.getId(), note );
+      } );
+      encoder.snapshotEnd();
+    } );
+  }
+
+  private static List<byte[]> encode( final Consumer<ReplicationCodec.Encoder> records )
+  {
+    final List<byte[]> entries = new ArrayList<>();
+    final var encoder = new ReplicationCodec.Encoder( 1, entries::add );
+    records.accept( encoder );
+    encoder.flush();
+    return entries;
+  }
+
+  private void apply( final ReplicationCodec.Applier applier, final List<byte[]> entries )
+  {
+    for ( final var entry : entries )
+    {
+      applier.commit( follower.writeReturn( ( root, _ ) -> applier.apply( root, entry ) ) );
+    }
+  }
+}
@@ -0,0 +1,28 @@
+package link.biosmarcel.presentation.persistence;
+
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * Gemeinsame Konfiguration der Storages in Tests: Ein eigenes Verzeichnis je Storage und kein geplantes Housekeeping,
+ * damit dieses die Tests nicht beeinflusst.
+ */
+final class TestStorages
+{
+  private TestStorages()
+  {
+  }
+
+  static StorageSettings settings( final Path directory )
+  {
+    final var properties = new Properties();
+    properties.setProperty( StorageSettings.PREFIX + "directory", directory.toString() );
+    properties.setProperty( StorageSettings.PREFIX + "housekeeping.scheduler-interval-ms", "0" );
+    return StorageSettings.fromProperties( properties );
+  }
+
+  static StorageImpl start( final Path directory )
+  {
+    return settings( directory ).start();
+  }
+}
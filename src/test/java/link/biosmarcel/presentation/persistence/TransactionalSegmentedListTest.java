@@ -0,0 +1,71 @@
+package link.biosmarcel.presentation.persistence;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Kopien der {@link TransactionalSegmentedList} müssen alle Segmente in der richtigen Reihenfolge enthalten.
+ */
+class TransactionalSegmentedListTest
+{
+  @TempDir
+  private Path directory;
+
+  private StorageImpl                         storage;
+  private TransactionalSegmentedList<Integer> list;
+
+  @BeforeEach
+  void start()
+  {
+    storage = TestStorages.start( directory );
+    // Mit zwei Elementen je Segment verteilen sich die fünf Elemente auf drei Segmente.
+    list = storage.writeReturn( ( _, _ ) ->
+    {
+      final var created = new TransactionalSegmentedList<Integer>( 2 );
+      for ( int i = 5; i >= 1; i-- )
+      {
+        created.add( i );
+      }
+      return created;
+    } );
+  }
+
+  @AfterEach
+  void stop()
+  {
+    storage.destroy();
+  }
+
+  @Test
+  void toArrayCopiesAllSegments()
+  {
+    storage.read( _ ->
+    {
+      assertArrayEquals( new Object[] { 5, 4, 3, 2, 1 }, list.toArray() );
+      assertArrayEquals( new Integer[] { 5, 4, 3, 2, 1 }, list.toArray( new Integer[ 0 ] ) );
+
+      final Integer[] larger = { 0, 0, 0, 0, 0, 0, 0 };
+      assertArrayEquals( new Integer[] { 5, 4, 3, 2, 1, null, 0 }, list.toArray( larger ) );
+      assertEquals( List.of( 5, 4, 3, 2, 1 ), List.copyOf( list ) );
+      assertEquals( List.of( 5, 4, 3, 2, 1 ), new ArrayList<>( list ) );
+    } );
+  }
+
+  @Test
+  void sortSpansAllSegments()
+  {
+    storage.write( ( _, _ ) -> list.sort( Comparator.naturalOrder() ) );
+
+    storage.read( _ -> assertEquals( List.of( 1, 2, 3, 4, 5 ), List.copyOf( list ) ) );
+  }
+}